@@ -1,3 +1,10 @@
+import versioncontrolsystem.Chunker;
+import versioncontrolsystem.Clone;
+import versioncontrolsystem.GarbageCollector;
+import versioncontrolsystem.Metrics;
+import versioncontrolsystem.Progress;
+import versioncontrolsystem.RepositoryCache;
+import versioncontrolsystem.StartupFile;
 import versioncontrolsystem.VCSUtils;
 import versioncontrolsystem.VersionControlSystem;
 
@@ -6,9 +13,11 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.io.*;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
+import java.util.zip.ZipFile;
 
 class VersionControlSystemTest {
     private static final String TESTDIR = "C:\\Users\\malic\\Downloads\\Project\\VersionControlSystem\\Test";
@@ -512,6 +521,654 @@ class VersionControlSystemTest {
             fail();
         }
     }
+    @org.junit.jupiter.api.Test
+    void searchTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            FileWriter writer;
+            for (int i = 0; i < 5; i++) {
+                writer = new FileWriter(TESTDIR +"\\testText" + i +".txt");
+                writer.write("This is some nice text, yada" + i);
+                writer.close();
+                vcs.add(TESTDIR +"\\testText" + i +".txt");
+                vcs.commit("Fix parser bug " + i, i % 2 == 0 ? "Alice" : "Bob", null, i == 3 ? new String[] {"Parser"} : null);
+            }
+            assertEquals(5, vcs.search("fix pars", "", "").size());
+            assertEquals(2, vcs.search("", "Bob", "").size());
+            assertEquals(vcs.getLastCommit().hash, vcs.search("bug", "Alice", "").get(0));
+            assertEquals(1, vcs.search("", "", "Parser").size());
+            vcs = new VersionControlSystem(TESTDIR);
+            assertEquals(1, vcs.search("3", "", "").size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void fileLogTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            FileWriter writer;
+            for (int i = 0; i < 6; i++) {
+                writer = new FileWriter(TESTDIR +"\\testText" + i % 3 +".txt");
+                writer.write("This is some nice text, yada" + i);
+                writer.close();
+                vcs.add(TESTDIR +"\\testText" + i % 3 +".txt");
+                vcs.commit(""+i, "User");
+            }
+            assertEquals(2, vcs.logList("testText1.txt").size());
+            assertEquals(0, vcs.logList("testText5.txt").size());
+            assertTrue(new File(VCSDIR + "\\ChangedPaths\\" + vcs.getLastCommit().hash).exists());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void blameTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Path path = Path.of(TESTDIR + "\\testText.txt");
+            FileWriter writer = new FileWriter(path.toFile());
+            writer.write("one\ntwo\nthree\n");
+            writer.close();
+            vcs.add(path.toString());
+            vcs.commit("First Commit", "Alice");
+            writer = new FileWriter(path.toFile());
+            writer.write("one\n2\nthree\nfour\n");
+            writer.close();
+            vcs.add(path.toString());
+            vcs.commit("Second Commit", "Bob");
+            List<String> blame = vcs.blame("testText.txt", "");
+            assertEquals(4, blame.size());
+            assertTrue(blame.get(0).contains("Alice") && blame.get(0).endsWith("one"));
+            assertTrue(blame.get(1).contains("Bob") && blame.get(1).endsWith("2"));
+            assertTrue(blame.get(2).contains("Alice"));
+            assertTrue(blame.get(3).contains("Bob"));
+            assertEquals(blame, vcs.blame("testText.txt", vcs.getLastCommit().hash));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void diffTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Path path = Path.of(TESTDIR + "\\testText.txt");
+            FileWriter writer = new FileWriter(path.toFile());
+            writer.write("one\ntwo\nthree\n");
+            writer.close();
+            vcs.add(path.toString());
+            vcs.commit("First Commit", "User");
+            String first = vcs.getLastCommit().hash;
+            writer = new FileWriter(path.toFile());
+            writer.write("one\n2\nthree\n");
+            writer.close();
+            List<List<String>> hunks = new java.util.ArrayList<>();
+            vcs.diff("testText.txt", hunks::add);
+            assertEquals(List.of(List.of("@@ -1,3 +1,3 @@", " one", "-two", "+2", " three")), hunks);
+            vcs.add(path.toString());
+            vcs.commit("Second Commit", "User");
+            List<versioncontrolsystem.Diff.Change> changes = vcs.diffCommits(first, vcs.getLastCommit().hash);
+            assertEquals(1, changes.size());
+            assertEquals("testText.txt | (modified)", changes.get(0).toString());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void renameTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Path path = Path.of(TESTDIR + "\\testText.txt");
+            FileWriter writer = new FileWriter(path.toFile());
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(path.toString());
+            vcs.commit("First Commit", "User");
+            String first = vcs.getLastCommit().hash;
+            Path otherPath = Path.of(TESTDIR + "\\testText1.txt");
+            Files.move(path, otherPath);
+            Set<String>[] status = vcs.updateStatus();
+            assertEquals(Set.of("testText1.txt | (renamed from testText.txt)"), status[1]);
+            vcs.add(otherPath.toString());
+            vcs.add(path.toString());
+            status = vcs.updateStatus();
+            assertEquals(Set.of("testText1.txt | (renamed from testText.txt)"), status[0]);
+            vcs.commit("Second Commit", "User");
+            assertEquals("testText1.txt | (renamed from testText.txt)",
+                    vcs.diffCommits(first, vcs.getLastCommit().hash).get(0).toString());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void mergeTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Path path = Path.of(TESTDIR + "\\testText.txt");
+            FileWriter writer = new FileWriter(path.toFile());
+            writer.write("one\ntwo\nthree\nfour\nfive\n");
+            writer.close();
+            vcs.add(path.toString());
+            vcs.commit("First Commit", "User");
+            vcs.branch("other");
+            writer = new FileWriter(path.toFile());
+            writer.write("ONE\ntwo\nthree\nfour\nfive\n");
+            writer.close();
+            vcs.add(path.toString());
+            vcs.commit("Second Commit", "User");
+            vcs.checkout("other", true);
+            writer = new FileWriter(path.toFile());
+            writer.write("one\ntwo\nthree\nfour\nFIVE\n");
+            writer.close();
+            vcs.add(path.toString());
+            vcs.commit("Third Commit", "User");
+            vcs.merge("master", "User");
+            assertEquals("ONE\ntwo\nthree\nfour\nFIVE\n", Files.readString(path));
+            vcs.checkout("master", true);
+            vcs.merge("other", "User");
+            assertEquals("ONE\ntwo\nthree\nfour\nFIVE\n", Files.readString(path));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void gcTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Path path = Path.of(TESTDIR + "\\testText.txt");
+            FileWriter writer = new FileWriter(path.toFile());
+            writer.write("Never committed");
+            writer.close();
+            vcs.add(path.toString());
+            String unused = VCSUtils.hash(path.toFile());
+            writer = new FileWriter(path.toFile());
+            writer.write("Committed");
+            writer.close();
+            vcs.add(path.toString());
+            String used = VCSUtils.hash(path.toFile());
+            vcs.commit("First Commit", "User");
+            Path vcsDirectory = Path.of(TESTDIR).resolve(".vcs");
+            assertEquals(0, vcs.gc());
+            assertEquals(1, new GarbageCollector(vcsDirectory, Duration.ZERO).collect());
+            assertFalse(Files.exists(VCSUtils.findHash(unused, vcsDirectory)));
+            assertTrue(Files.exists(VCSUtils.findHash(used, vcsDirectory)));
+            assertEquals("First Commit", vcs.getLastCommit().message);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void fsckTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Path path = Path.of(TESTDIR + "\\testText.txt");
+            FileWriter writer = new FileWriter(path.toFile());
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(path.toString());
+            String blob = VCSUtils.hash(path.toFile());
+            vcs.commit("First Commit", "User");
+            assertEquals(List.of(), vcs.fsck(true));
+            Path object = VCSUtils.findHash(blob, Path.of(TESTDIR).resolve(".vcs"));
+            Files.writeString(object, "This is some nice");
+            assertEquals(List.of("corrupt object " + blob), vcs.fsck(true));
+            Files.delete(object);
+            assertTrue(vcs.fsck(true).get(0).startsWith("missing blob " + blob));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void chunkTest() {
+        cleanUp();
+        try {
+            Path vcsDirectory = Path.of(TESTDIR).resolve(".vcs");
+            Files.writeString(vcsDirectory.resolve("Config"), "chunkThreshold=1048576\n");
+            VersionControlSystem vcs = new VersionControlSystem(TESTDIR);
+            Path path = Path.of(TESTDIR + "\\testData.bin");
+            byte[] data = new byte[4 * 1024 * 1024];
+            new java.util.Random(0).nextBytes(data);
+            Files.write(path, data);
+            vcs.add(path.toString());
+            vcs.commit("First Commit", "User");
+            vcs.branch("other");
+            data[2 * 1024 * 1024] ^= 1;
+            Files.write(path, data);
+            vcs.add(path.toString());
+            String hash = VCSUtils.hash(path.toFile());
+            vcs.commit("Second Commit", "User");
+            assertTrue(Chunker.isManifest(VCSUtils.findHash(hash, vcsDirectory)));
+            vcs.checkout("other", true);
+            vcs.checkout("master", true);
+            assertArrayEquals(data, Files.readAllBytes(path));
+            assertEquals(List.of(), vcs.fsck(true));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void journalTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Path path = Path.of(TESTDIR + "\\testText.txt");
+            FileWriter writer = new FileWriter(path.toFile());
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(path.toString());
+            vcs.commit("First Commit", "User");
+            Path journal = Path.of(TESTDIR).resolve(".vcs").resolve("Journal");
+            assertFalse(Files.exists(journal));
+            Files.writeString(journal, "require\t" + vcs.getLastCommit().hash + "\nwrite\t");
+            vcs = new VersionControlSystem(TESTDIR);
+            assertFalse(Files.exists(journal));
+            assertEquals("First Commit", vcs.getLastCommit().message);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void concurrentTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            VersionControlSystem other = new VersionControlSystem(TESTDIR);
+            List<Thread> threads = new java.util.ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                Path path = Path.of(TESTDIR + "\\testText" + i + ".txt");
+                Files.writeString(path, "Text " + i);
+                VersionControlSystem v = i % 2 == 0 ? vcs : other;
+                threads.add(new Thread(() -> {
+                    try {
+                        v.add(path.toString());
+                        v.statusHelper();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }));
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            other.commit("First Commit", "User");
+            Path path = Path.of(TESTDIR + "\\testText4.txt");
+            Files.writeString(path, "Text 4");
+            vcs.add(path.toString());
+            vcs.commit("Second Commit", "User");
+            assertEquals(5, vcs.getLastCommit().getTree().map.size());
+            assertEquals(List.of(), vcs.fsck(true));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void repositoryCacheTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            RepositoryCache repositories = new RepositoryCache();
+            VersionControlSystem cached = repositories.open(TESTDIR);
+            assertSame(cached, repositories.open(TESTDIR));
+            FileWriter writer = new FileWriter(TESTDIR + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(TESTDIR + "\\testText.txt");
+            vcs.commit("First Commit", "User");
+            assertEquals(vcs.getLastCommit().hash, repositories.get(TESTDIR).getLastCommit().hash);
+            RepositoryCache small = new RepositoryCache(1, RepositoryCache.MAXREPOSITORIES);
+            small.put(TESTDIR, vcs);
+            small.put(TESTDIR + "\\..", cached);
+            assertFalse(small.contains(TESTDIR));
+            assertEquals(1, small.size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void startupFileTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            FileWriter writer = new FileWriter(TESTDIR + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(TESTDIR + "\\testText.txt");
+            vcs.commit("First Commit", "User");
+            vcs.branch("other");
+            Path vcsDirectory = Path.of(VCSDIR);
+            assertNull(StartupFile.load(vcsDirectory));
+            new VersionControlSystem(TESTDIR);
+            StartupFile saved = StartupFile.load(vcsDirectory);
+            assertNotNull(saved);
+            assertEquals(Set.of("master", "other"), saved.branches.keySet());
+            assertEquals(vcs.getLastCommit().hash, saved.branches.get("master"));
+            assertEquals(1, saved.commits);
+            VersionControlSystem reopened = new VersionControlSystem(TESTDIR);
+            assertEquals(vcs.logList(), reopened.logList());
+            vcs.removeBranch("other");
+            assertNull(StartupFile.load(vcsDirectory));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void ignoreTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Files.createDirectories(Path.of(TESTDIR + "\\node_modules\\lib"));
+            Files.writeString(Path.of(TESTDIR + "\\node_modules\\lib\\index.js"), "module.exports = 1");
+            Files.writeString(Path.of(TESTDIR + "\\debug.log"), "log");
+            Files.writeString(Path.of(TESTDIR + "\\keep.log"), "log");
+            Files.writeString(Path.of(TESTDIR + "\\testText.txt"), "This is some nice text, yada yada");
+            Files.writeString(Path.of(TESTDIR + "\\.vcsignore"), "# dependencies\nnode_modules/\n*.log\n!keep.log\n");
+            Set<String> unstaged = vcs.updateStatus()[1];
+            assertEquals(Set.of(".vcsignore | (untracked)", "keep.log | (untracked)", "testText.txt | (untracked)"),
+                    unstaged);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void untrackedCacheTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Path dir = Path.of(TESTDIR + "\\dir");
+            Files.createDirectories(dir);
+            Files.writeString(dir.resolve("testText.txt"), "This is some nice text, yada yada");
+            java.nio.file.attribute.FileTime old = java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() - 60000);
+            Files.setLastModifiedTime(dir, old);
+            Files.setLastModifiedTime(Path.of(TESTDIR), old);
+            assertEquals(Set.of("dir\\testText.txt | (untracked)"), vcs.updateStatus()[1]);
+            assertTrue(Files.exists(Path.of(VCSDIR + "\\UntrackedCache")));
+            assertEquals(Set.of("dir\\testText.txt | (untracked)"), vcs.updateStatus()[1]);
+            Files.writeString(dir.resolve("testText2.txt"), "More text");
+            assertEquals(Set.of("dir\\testText.txt | (untracked)", "dir\\testText2.txt | (untracked)"),
+                    vcs.updateStatus()[1]);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void sparseTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            Files.createDirectories(Path.of(TESTDIR + "\\web"));
+            Files.createDirectories(Path.of(TESTDIR + "\\api"));
+            Files.writeString(Path.of(TESTDIR + "\\web\\testText.txt"), "This is some nice text, yada yada");
+            Files.writeString(Path.of(TESTDIR + "\\api\\testText.txt"), "This is some other text");
+            vcs.add(TESTDIR + "\\web\\testText.txt");
+            vcs.add(TESTDIR + "\\api\\testText.txt");
+            vcs.commit("First Commit", "User");
+            vcs.sparse(List.of("cone", "web"));
+            assertFalse(Files.exists(Path.of(TESTDIR + "\\api\\testText.txt")));
+            assertEquals(Set.of(), vcs.updateStatus()[1]);
+            Files.writeString(Path.of(TESTDIR + "\\web\\testText.txt"), "Changed");
+            vcs.add(TESTDIR + "\\web\\testText.txt");
+            vcs.commit("Second Commit", "User");
+            assertEquals(2, vcs.getLastCommit().getTree().map.size());
+            vcs.sparse(List.of());
+            assertEquals("This is some other text", Files.readString(Path.of(TESTDIR + "\\api\\testText.txt")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void cloneTest() {
+        VersionControlSystem vcs = cleanUp();
+        String cloneDir = TESTDIR + "Clone";
+        try {
+            deleteDirectory(new File(cloneDir));
+            FileWriter writer = new FileWriter(TESTDIR + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(TESTDIR + "\\testText.txt");
+            vcs.commit("First Commit", "User");
+            VersionControlSystem clone = Clone.clone(TESTDIR, cloneDir, false);
+            assertEquals(vcs.getLastCommit().hash, clone.getLastCommit().hash);
+            assertEquals("This is some nice text, yada yada", Files.readString(Path.of(cloneDir + "\\testText.txt")));
+            assertEquals(List.of(), clone.fsck(true));
+            deleteDirectory(new File(cloneDir));
+            VersionControlSystem shared = Clone.clone(TESTDIR, cloneDir, true);
+            assertTrue(Files.exists(Path.of(cloneDir + "\\.vcs\\Alternates")));
+            assertEquals(vcs.logList(), shared.logList());
+            assertEquals(List.of(), shared.fsck(true));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void syncTest() {
+        VersionControlSystem vcs = cleanUp();
+        String remoteDir = TESTDIR + "Remote";
+        try {
+            deleteDirectory(new File(remoteDir));
+            new File(remoteDir).mkdirs();
+            VersionControlSystem remote = VersionControlSystem.init(remoteDir);
+            FileWriter writer = new FileWriter(remoteDir + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            remote.add(remoteDir + "\\testText.txt");
+            remote.commit("First Commit", "User");
+            assertEquals(List.of("+ master " + vcs.getLastCommit().hash.substring(0, 7) + ".."
+                    + remote.getLastCommit().hash.substring(0, 7)), vcs.fetch(remoteDir));
+            assertEquals(remote.getLastCommit().hash, vcs.getLastCommit().hash);
+            assertEquals("This is some nice text, yada yada", Files.readString(Path.of(TESTDIR + "\\testText.txt")));
+            assertEquals(List.of("= master up to date"), vcs.fetch(remoteDir));
+            writer = new FileWriter(TESTDIR + "\\testText2.txt");
+            writer.write("More text");
+            writer.close();
+            vcs.add(TESTDIR + "\\testText2.txt");
+            vcs.commit("Second Commit", "User");
+            assertEquals(List.of("! master rejected, checked out"), vcs.push(remoteDir, "master"));
+            vcs.branch("feature");
+            assertEquals(List.of("* feature new branch"), vcs.push(remoteDir, "feature"));
+            assertEquals(List.of(), new VersionControlSystem(remoteDir).fsck(true));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void bundleTest() {
+        VersionControlSystem vcs = cleanUp();
+        String otherDir = TESTDIR + "Other";
+        String bundle = TESTDIR + "Other.bundle";
+        try {
+            deleteDirectory(new File(otherDir));
+            new File(otherDir).mkdirs();
+            VersionControlSystem other = VersionControlSystem.init(otherDir);
+            FileWriter writer = new FileWriter(TESTDIR + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(TESTDIR + "\\testText.txt");
+            vcs.commit("First Commit", "User");
+            String first = vcs.getLastCommit().hash;
+            vcs.bundle(bundle, "master", "");
+            assertEquals(1, other.unbundle(bundle).size());
+            assertEquals(first, other.getLastCommit().hash);
+            writer = new FileWriter(TESTDIR + "\\testText2.txt");
+            writer.write("More text");
+            writer.close();
+            vcs.add(TESTDIR + "\\testText2.txt");
+            vcs.commit("Second Commit", "User");
+            vcs.bundle(bundle, "master", first);
+            other.unbundle(bundle);
+            assertEquals(vcs.getLastCommit().hash, other.getLastCommit().hash);
+            assertEquals("More text", Files.readString(Path.of(otherDir + "\\testText2.txt")));
+            assertEquals(List.of(), other.fsck(true));
+            new File(bundle).delete();
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void archiveTest() {
+        VersionControlSystem vcs = cleanUp();
+        String zip = TESTDIR + "Archive.zip";
+        try {
+            FileWriter writer = new FileWriter(TESTDIR + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(TESTDIR + "\\testText.txt");
+            vcs.commit("First Commit", "User");
+            vcs.archive("master", "--format=zip", zip);
+            try (ZipFile file = new ZipFile(zip)) {
+                assertEquals(1, file.size());
+                assertEquals("This is some nice text, yada yada",
+                        new String(file.getInputStream(file.getEntry("testText.txt")).readAllBytes()));
+            }
+            vcs.archive(vcs.getLastCommit().hash, "tar.gz", zip);
+            assertTrue(Files.size(Path.of(zip)) > 0);
+            new File(zip).delete();
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void fastImportTest() {
+        VersionControlSystem vcs = cleanUp();
+        String stream = "reset refs/heads/master\nblob\nmark :1\ndata 5\nhello\n"
+                + "commit refs/heads/master\nmark :2\ncommitter User <user@example.com> 1700000000 +0000\n"
+                + "data 12\nFirst Commit\nM 644 :1 testText.txt\n\n"
+                + "commit refs/heads/master\nmark :3\ncommitter User <user@example.com> 1700000060 +0000\n"
+                + "data 13\nSecond Commit\nfrom :2\nM 644 inline other.txt\ndata 5\nworld\n\n";
+        try {
+            List<String> result = vcs.fastImport(new ByteArrayInputStream(stream.getBytes()));
+            assertEquals(1, result.size());
+            assertTrue(result.get(0).startsWith("+ master"));
+            assertEquals("hello", Files.readString(Path.of(TESTDIR + "\\testText.txt")));
+            assertEquals("world", Files.readString(Path.of(TESTDIR + "\\other.txt")));
+            assertEquals("Second Commit", vcs.getLastCommit().message);
+            assertTrue(vcs.fsck(true).isEmpty());
+            result = vcs.fastImport(new ByteArrayInputStream(stream.getBytes()));
+            assertTrue(result.get(0).startsWith("= master"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void fastExportTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            FileWriter writer = new FileWriter(TESTDIR + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(TESTDIR + "\\testText.txt");
+            vcs.commit("First Commit", "User");
+            writer = new FileWriter(TESTDIR + "\\otherText.txt");
+            writer.write("This is some other text");
+            writer.close();
+            vcs.add(TESTDIR + "\\otherText.txt");
+            vcs.commit("Second Commit", "User");
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            vcs.fastExport(out, "master");
+            String stream = out.toString();
+            assertEquals(2, stream.split("\nblob\n", -1).length);  // the first blob is at the start of the stream
+            assertTrue(stream.contains("M 100644 :1 testText.txt\n"));
+            assertTrue(stream.contains("from :2\nM 100644 :3 otherText.txt\n\n"));
+            assertTrue(stream.endsWith("reset refs/heads/master\nfrom :4\n\ndone\n"));
+            VersionControlSystem other = cleanUp();
+            List<String> result = other.fastImport(new ByteArrayInputStream(out.toByteArray()));
+            assertTrue(result.get(0).startsWith("+ master"));
+            assertEquals("This is some other text", Files.readString(Path.of(TESTDIR + "\\otherText.txt")));
+            assertEquals(2, other.logList().size());
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void progressTest() {
+        VersionControlSystem vcs = cleanUp();
+        Progress previous = Progress.current();
+        try {
+            FileWriter writer = new FileWriter(TESTDIR + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            Progress progress = new Progress("1", p -> { });
+            Progress.attach(progress);
+            vcs.add(TESTDIR + "\\testText.txt");
+            assertEquals(1, progress.files());
+            assertEquals(33, progress.bytes());
+            progress.cancel();
+            vcs.updateStatus();  // the add has been made, so the request runs to the end
+            Progress cancelled = new Progress("2", p -> { });
+            cancelled.cancel();
+            Progress.attach(cancelled);
+            Exception e = assertThrows(Exception.class, () -> vcs.commit("First Commit", "User"));
+            assertEquals("Cancelled", e.getMessage());
+            assertThrows(Exception.class, vcs::gc);
+            Progress.attach(previous);
+            vcs.commit("First Commit", "User");
+            assertEquals("First Commit", vcs.getLastCommit().message);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        } finally {
+            Progress.attach(previous);
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void metricsTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            long commits = Metrics.stat(Metrics.COMMIT).count();
+            long hashed = Metrics.HASH.bytes();
+            FileWriter writer = new FileWriter(TESTDIR + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            vcs.add(TESTDIR + "\\testText.txt");
+            vcs.commit("First Commit", "User");
+            assertEquals(commits + 1, Metrics.stat(Metrics.COMMIT).count());
+            assertTrue(Metrics.HASH.bytes() >= hashed + 33);
+            assertTrue(Metrics.stat(Metrics.COMMIT).percentile(99) > 0);
+            assertTrue(Metrics.report().stream().anyMatch(line -> line.startsWith("commit count=")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
+    @org.junit.jupiter.api.Test
+    void incrementalStatusTest() {
+        VersionControlSystem vcs = cleanUp();
+        try {
+            FileWriter writer = new FileWriter(TESTDIR + "\\testText.txt");
+            writer.write("This is some nice text, yada yada");
+            writer.close();
+            Set<String>[] status = vcs.updateStatus();
+            assertTrue(status[1].contains("testText.txt | (untracked)"));
+            vcs.add(TESTDIR + "\\testText.txt");
+            status = vcs.updateStatus(List.of(TESTDIR + "\\testText.txt"));
+            assertNotNull(status);
+            assertEquals(Set.of("testText.txt"), status[0]);
+            assertTrue(status[1].isEmpty());
+            assertArrayEquals(vcs.updateStatus(), status);
+            vcs.commit("First Commit", "User");
+            assertNull(vcs.updateStatus(List.of(TESTDIR + "\\testText.txt")));
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail();
+        }
+    }
     private static VersionControlSystem cleanUp() {
         try {
             File[] files = new File(TESTDIR).listFiles();
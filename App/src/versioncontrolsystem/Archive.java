@@ -0,0 +1,398 @@
+package versioncontrolsystem;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the files of a commit to a zip, tar or gzipped tar file, straight from the object store.
+ * The tree is read one entry at a time and the central directory of a zip is kept in a temporary file, so memory
+ * use doesn't grow with the number of files. Zip entries are compressed in parallel, up to WINDOW entries ahead of
+ * the one being written, and compressed entries bigger than MEMORYLIMIT wait in temporary files.
+ * Zips use the zip64 extensions once they have more than 65535 entries or anything passes 4GB, and tars use pax
+ * headers for names longer than 100 bytes and files of 8GB or more. Every entry has the time of the commit.
+ */
+public class Archive extends VCSUtils {
+    public static final String ZIP = "zip";
+    public static final String TAR = "tar";
+    public static final String TARGZ = "tar.gz";
+    private static final int WINDOW = 64;
+    private static final int MEMORYLIMIT = 1024 * 1024;
+    private static final long MAX32 = 0xFFFFFFFFL;
+    private static final int MAX16 = 0xFFFF;
+    private static final int ZIP64VERSION = 45;
+    private static final int UTF8NAMES = 0x0800;
+    private static final int BLOCK = 512;  // size of tar blocks
+    private final Path vcsDirectory;
+    private final Commit commit;
+    private final LocalDateTime time;
+
+    private Archive(Path vcsDirectory, Commit commit) {
+        this.vcsDirectory = vcsDirectory;
+        this.commit = commit;
+        this.time = commit.time.isEmpty() ? LocalDateTime.now()
+                : LocalDateTime.parse(commit.time, DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss"));
+    }
+
+    /**
+     * Writes an archive of a commit, to a temporary file that replaces the target once it is complete
+     * @param commit: the commit
+     * @param format: ZIP, TAR or TARGZ
+     * @param file: the archive file
+     * @param vcsDirectory: path to the .vcs directory
+     */
+    public static void write(Commit commit, String format, Path file, Path vcsDirectory) throws Exception {
+        Archive archive = new Archive(vcsDirectory, commit);
+        Path temp = tempFile(vcsDirectory);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), Sync.BUFFER)) {
+            switch (format) {
+                case ZIP -> archive.zip(out);
+                case TAR -> archive.tar(out);
+                case TARGZ -> {
+                    GZIPOutputStream gzip = new GZIPOutputStream(out, Sync.BUFFER);
+                    archive.tar(gzip);
+                    gzip.finish();
+                }
+                default -> throw new FailCaseException("Unknown archive format: " + format);
+            }
+        } catch (Exception e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Something to do with each file of the tree
+     */
+    @FunctionalInterface
+    private interface EntryWriter {
+        void write(String name, String hash) throws Exception;
+    }
+
+    /**
+     * Reads the tree of the commit one line at a time
+     */
+    private void forEachEntry(EntryWriter writer) throws Exception {
+        if (commit instanceof InitialCommit) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(findHash(commit.tree, vcsDirectory))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String name = line.substring(0, line.length() - 40).trim().replace('\\', '/');
+                writer.write(name, line.substring(line.length() - 40).trim());
+            }
+        }
+    }
+
+    private InputStream open(String hash) throws Exception {
+        Path object = findHash(hash, vcsDirectory);
+        return Chunker.isManifest(object) ? Chunker.open(hash, vcsDirectory) : Files.newInputStream(object);
+    }
+
+    private long size(String hash) throws Exception {
+        Path object = findHash(hash, vcsDirectory);
+        return Chunker.isManifest(object) ? Chunker.size(hash, vcsDirectory) : Files.size(object);
+    }
+
+    private void zip(OutputStream out) throws Exception {
+        Path directory = tempFile(vcsDirectory);
+        try {
+            long[] offset = {0};
+            long[] count = {0};
+            // the central directory is closed before it is copied after the entries
+            try (OutputStream central = new BufferedOutputStream(Files.newOutputStream(directory), Sync.BUFFER)) {
+                Deque<Future<Compressed>> window = new ArrayDeque<>();
+                int[] dos = dosTime();
+                forEachEntry((name, hash) -> {
+                    window.add(workers().submit(() -> compress(name, hash)));
+                    if (window.size() >= WINDOW) {
+                        offset[0] += writeEntry(out, central, window.poll().get(), offset[0], dos);
+                        count[0]++;
+                    }
+                });
+                while (!window.isEmpty()) {
+                    offset[0] += writeEntry(out, central, window.poll().get(), offset[0], dos);
+                    count[0]++;
+                }
+            }
+            long size = Files.size(directory);
+            Files.copy(directory, out);
+            writeEnd(out, count[0], offset[0], size);
+        } finally {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * A zip entry, compressed and waiting to be written
+     */
+    private static class Compressed {
+        final byte[] name;
+        final long crc;
+        final long size;
+        final long compressedSize;
+        final Spill data;
+
+        Compressed(byte[] name, long crc, long size, long compressedSize, Spill data) {
+            this.name = name;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.data = data;
+        }
+    }
+
+    private Compressed compress(String name, String hash) throws Exception {
+        CRC32 crc = new CRC32();
+        Spill data = new Spill(vcsDirectory);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        long size = 0;
+        try (InputStream in = open(hash); DeflaterOutputStream deflate = new DeflaterOutputStream(data, deflater)) {
+            byte[] buffer = new byte[Sync.BUFFER];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                crc.update(buffer, 0, n);
+                deflate.write(buffer, 0, n);
+                size += n;
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Compressed(name.getBytes(StandardCharsets.UTF_8), crc.getValue(), size, data.size, data);
+    }
+
+    /**
+     * Writes a local header and the compressed data, and adds the entry to the central directory
+     * @return number of bytes written to the archive
+     */
+    private long writeEntry(OutputStream out, OutputStream central, Compressed e, long offset, int[] dos)
+            throws Exception {
+        boolean large = e.size >= MAX32 || e.compressedSize >= MAX32;
+        ByteBuffer local = little(30 + e.name.length + (large ? 20 : 0));
+        local.putInt(0x04034b50).putShort((short) (large ? ZIP64VERSION : 20)).putShort((short) UTF8NAMES)
+                .putShort((short) 8).putShort((short) dos[0]).putShort((short) dos[1]).putInt((int) e.crc)
+                .putInt((int) (large ? MAX32 : e.compressedSize)).putInt((int) (large ? MAX32 : e.size))
+                .putShort((short) e.name.length).putShort((short) (large ? 20 : 0)).put(e.name);
+        if (large) {
+            local.putShort((short) 1).putShort((short) 16).putLong(e.size).putLong(e.compressedSize);
+        }
+        out.write(local.array());
+        e.data.writeTo(out);
+
+        boolean farOffset = offset >= MAX32;
+        int extra = (large ? 16 : 0) + (farOffset ? 8 : 0);
+        ByteBuffer entry = little(46 + e.name.length + (extra > 0 ? extra + 4 : 0));
+        entry.putInt(0x02014b50).putShort((short) ZIP64VERSION)
+                .putShort((short) (large || farOffset ? ZIP64VERSION : 20)).putShort((short) UTF8NAMES)
+                .putShort((short) 8).putShort((short) dos[0]).putShort((short) dos[1]).putInt((int) e.crc)
+                .putInt((int) (large ? MAX32 : e.compressedSize)).putInt((int) (large ? MAX32 : e.size))
+                .putShort((short) e.name.length).putShort((short) (extra > 0 ? extra + 4 : 0)).putShort((short) 0)
+                .putShort((short) 0).putShort((short) 0).putInt(0).putInt((int) (farOffset ? MAX32 : offset))
+                .put(e.name);
+        if (extra > 0) {
+            entry.putShort((short) 1).putShort((short) extra);
+            if (large) {
+                entry.putLong(e.size).putLong(e.compressedSize);
+            }
+            if (farOffset) {
+                entry.putLong(offset);
+            }
+        }
+        central.write(entry.array());
+        return local.capacity() + e.compressedSize;
+    }
+
+    /**
+     * Writes the end of central directory record, after the zip64 ones if they are needed
+     */
+    private void writeEnd(OutputStream out, long count, long offset, long size) throws Exception {
+        if (count >= MAX16 || offset >= MAX32 || size >= MAX32) {
+            ByteBuffer zip64 = little(56 + 20);
+            zip64.putInt(0x06064b50).putLong(44).putShort((short) ZIP64VERSION).putShort((short) ZIP64VERSION)
+                    .putInt(0).putInt(0).putLong(count).putLong(count).putLong(size).putLong(offset);
+            zip64.putInt(0x07064b50).putInt(0).putLong(offset + size).putInt(1);
+            out.write(zip64.array());
+        }
+        ByteBuffer end = little(22);
+        end.putInt(0x06054b50).putShort((short) 0).putShort((short) 0)
+                .putShort((short) Math.min(count, MAX16)).putShort((short) Math.min(count, MAX16))
+                .putInt((int) Math.min(size, MAX32)).putInt((int) Math.min(offset, MAX32)).putShort((short) 0);
+        out.write(end.array());
+    }
+
+    private static ByteBuffer little(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Returns the commit time as an MS-DOS time and date
+     */
+    private int[] dosTime() {
+        LocalDateTime t = time.getYear() < 1980 ? LocalDateTime.of(1980, 1, 1, 0, 0) : time;
+        int dosTime = t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() / 2;
+        int dosDate = (t.getYear() - 1980) << 9 | t.getMonthValue() << 5 | t.getDayOfMonth();
+        return new int[] {dosTime, dosDate};
+    }
+
+    private void tar(OutputStream out) throws Exception {
+        long mtime = time.atZone(ZoneId.systemDefault()).toEpochSecond();
+        byte[] buffer = new byte[Sync.BUFFER];
+        forEachEntry((name, hash) -> {
+            long size = size(hash);
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            boolean longName = bytes.length > 100;
+            boolean largeSize = size >= 077777777777L;
+            if (longName || largeSize) {
+                StringBuilder pax = new StringBuilder();
+                if (longName) {
+                    pax.append(paxRecord("path", name));
+                }
+                if (largeSize) {
+                    pax.append(paxRecord("size", Long.toString(size)));
+                }
+                byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+                out.write(tarHeader("PaxHeader/" + hash, records.length, mtime, (byte) 'x'));
+                out.write(records);
+                pad(out, records.length);
+            }
+            out.write(tarHeader(longName ? hash : name, largeSize ? 0 : size, mtime, (byte) '0'));
+            try (InputStream in = open(hash)) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            pad(out, size);
+        });
+        out.write(new byte[2 * BLOCK]);
+    }
+
+    /**
+     * Returns a pax extended header record, whose length includes the digits of the length itself
+     */
+    private static String paxRecord(String key, String value) {
+        int length = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int total = length + Integer.toString(length).length();
+        if (Integer.toString(total).length() > Integer.toString(length).length()) {
+            total++;
+        }
+        return total + " " + key + "=" + value + "\n";
+    }
+
+    private static byte[] tarHeader(String name, long size, long mtime, byte type) {
+        byte[] header = new byte[BLOCK];
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, header, 0, Math.min(bytes.length, 100));
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, mtime);
+        header[156] = type;
+        System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /**
+     * Writes a number as zero padded octal digits followed by a NUL
+     */
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String digits = Long.toOctalString(value);
+        digits = "0".repeat(Math.max(0, length - 1 - digits.length())) + digits;
+        System.arraycopy(digits.getBytes(StandardCharsets.US_ASCII), 0, header, offset, length - 1);
+        header[offset + length - 1] = 0;
+    }
+
+    private static void pad(OutputStream out, long size) throws IOException {
+        int remainder = (int) (size % BLOCK);
+        if (remainder != 0) {
+            out.write(new byte[BLOCK - remainder]);
+        }
+    }
+
+    /**
+     * Output that is kept in memory up to MEMORYLIMIT bytes, and in a temporary file past that
+     */
+    private static class Spill extends OutputStream {
+        private final Path vcsDirectory;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path file;
+        private OutputStream fileOut;
+        long size;
+
+        Spill(Path vcsDirectory) {
+            this.vcsDirectory = vcsDirectory;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (fileOut == null && size + len > MEMORYLIMIT) {
+                try {
+                    file = tempFile(vcsDirectory);
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+                fileOut = new BufferedOutputStream(Files.newOutputStream(file), Sync.BUFFER);
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (fileOut != null) {
+                fileOut.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        /**
+         * Copies the data to a stream, deleting the temporary file if there is one
+         */
+        void writeTo(OutputStream out) throws IOException {
+            if (file == null) {
+                memory.writeTo(out);
+                return;
+            }
+            try {
+                Files.copy(file, out);
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package versioncontrolsystem;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Line by line blame of a file, attributing each line to the commit that introduced it.
+ * Results are saved in .vcs/Blame/[blob hash]_[commit hash], the first line being the path of the file
+ * and each following line the hash of the commit that introduced that line of the blob.
+ * Walking history stops as soon as every line is attributed, or a saved result is reached.
+ */
+public class Blame extends VCSUtils {
+    private final Path vcsDirectory;
+    private final Path blameDirectory;
+    private final Map<String, Commit> cache;
+    private Set<String> saved;  // names of all saved results
+
+    public Blame(Path vcsDirectory, Map<String, Commit> cache) {
+        this.vcsDirectory = vcsDirectory;
+        this.blameDirectory = vcsDirectory.resolve("Blame");
+        this.cache = cache;
+    }
+
+    /**
+     * Blames each line of a file
+     * @param start: the commit to blame the file at
+     * @param path: relative path to the file
+     * @return array with the hash of the commit that introduced each line
+     */
+    public String[] blame(Commit start, String path) throws Exception {
+        String blob = start.getTree().map.get(path);
+        if (blob == null) {
+            throw new FailCaseException("File does not exist in that commit");
+        }
+        String[] cached = readSaved(blob, start.hash, path);
+        if (cached != null) {
+            return cached;
+        }
+        LineSequence lines = LineSequence.ofObject(blob, vcsDirectory);
+        if (lines.binary || lines.tooLarge) {
+            throw new FailCaseException("Cannot blame a binary or oversized file");
+        }
+        String[] result = new String[lines.size()];
+        int[] origin = new int[lines.size()];  // for each line of the current version, its line in the result
+        for (int i = 0; i < origin.length; i++) {
+            origin[i] = i;
+        }
+        int remaining = lines.size();
+        Commit c = start;
+        String currentBlob = blob;
+        while (remaining > 0) {
+            if (c != start && (cached = readSaved(currentBlob, c.hash, path)) != null) {
+                for (int i = 0; i < origin.length; i++) {
+                    if (origin[i] >= 0) {
+                        result[origin[i]] = cached[i];
+                    }
+                }
+                break;
+            }
+            Commit parent = c.parentCommit(cache);
+            String parentBlob = parent == null ? null : parent.getTree().map.get(path);
+            if (parentBlob == null) {
+                for (int i = 0; i < origin.length; i++) {
+                    if (origin[i] >= 0) {
+                        result[origin[i]] = c.hash;
+                    }
+                }
+                break;
+            }
+            if (!parentBlob.equals(currentBlob)) {
+                LineSequence parentLines = LineSequence.ofObject(parentBlob, vcsDirectory);
+                int[][] ids = LineSequence.ids(parentLines, lines);
+                int[] match = MyersDiff.match(ids[0], ids[1]);
+                int[] parentOrigin = new int[parentLines.size()];
+                Arrays.fill(parentOrigin, -1);
+                for (int i = 0; i < origin.length; i++) {
+                    if (origin[i] < 0) {
+                        continue;
+                    }
+                    if (match[i] < 0) {
+                        result[origin[i]] = c.hash;
+                        remaining--;
+                    } else {
+                        parentOrigin[match[i]] = origin[i];
+                    }
+                }
+                origin = parentOrigin;
+                lines = parentLines;
+                currentBlob = parentBlob;
+            }
+            c = skip(parent, path, currentBlob);
+        }
+        save(blob, start.hash, path, result);
+        return result;
+    }
+
+    /**
+     * Follows the parent chain past every commit whose changed paths filter rules the path out,
+     * since those commits have the same version of the file as their parent
+     * Also stops at any commit with a saved result, so it can be reused
+     * @param c: commit object
+     * @param path: relative path to the file
+     * @param blob: hash of the file in c
+     * @return the first commit that might have changed the file, or the root commit
+     */
+    private Commit skip(Commit c, String path, String blob) throws Exception {
+        Commit parent;
+        while (!c.mightHaveChanged(path) && !savedNames().contains(blob + "_" + c.hash)
+                && (parent = c.parentCommit(cache)) != null && !(parent instanceof InitialCommit)) {
+            c = parent;
+        }
+        return c;
+    }
+
+    private synchronized Set<String> savedNames() {
+        if (saved == null) {
+            saved = ConcurrentHashMap.newKeySet();
+            String[] names = blameDirectory.toFile().list();
+            if (names != null) {
+                saved.addAll(Arrays.asList(names));
+            }
+        }
+        return saved;
+    }
+
+    private String[] readSaved(String blob, String commit, String path) throws Exception {
+        String name = blob + "_" + commit;
+        if (!savedNames().contains(name)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(blameDirectory.resolve(name));
+        if (lines.isEmpty() || !lines.get(0).equals(path)) {
+            return null;
+        }
+        return lines.subList(1, lines.size()).toArray(new String[0]);
+    }
+
+    private void save(String blob, String commit, String path, String[] result) throws Exception {
+        StringBuilder sb = new StringBuilder(path).append("\n");
+        for (String s : result) {
+            sb.append(s).append("\n");
+        }
+        File dir = blameDirectory.toFile();
+        if (!dir.exists() && !dir.mkdir()) {
+            return;
+        }
+        Files.writeString(blameDirectory.resolve(blob + "_" + commit), sb.toString());
+        savedNames().add(blob + "_" + commit);
+    }
+}
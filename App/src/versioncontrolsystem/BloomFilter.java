@@ -0,0 +1,125 @@
+package versioncontrolsystem;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+
+/**
+ * Bloom filter of the paths changed by a commit, saved in .vcs/ChangedPaths/[commit hash]
+ * The file is a single line: [number of hash functions] [number of bits] [bits as hex longs]
+ * A path that was changed is always reported as possibly changed, a path that wasn't changed
+ * is reported as possibly changed about 1% of the time.
+ */
+public class BloomFilter {
+    private static final int BITSPERPATH = 10;
+    private static final int HASHES = 7;
+    private final int k;  // number of hash functions
+    private final long[] bits;
+
+    private BloomFilter(int k, long[] bits) {
+        this.k = k;
+        this.bits = bits;
+    }
+
+    /**
+     * Creates a filter containing every path, and every directory above each path
+     * @param paths: relative paths of the changed files
+     * @return bloom filter object
+     */
+    public static BloomFilter of(Collection<String> paths) {
+        int size = 0;
+        for (String path : paths) {
+            size += Path.of(path).getNameCount();
+        }
+        BloomFilter filter = new BloomFilter(HASHES, new long[Math.max(1, (size * BITSPERPATH + 63) / 64)]);
+        for (String path : paths) {
+            Path p = Path.of(path);
+            while (p != null) {
+                filter.add(p.toString());
+                p = p.getParent();
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Checks if a path might have been changed
+     * @param path: relative path to a file or directory
+     * @return false if the path definitely wasn't changed
+     */
+    public boolean mightContain(String path) {
+        long h = hash(path);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long m = bits.length * 64L;
+        for (int i = 0; i < k; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, m);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void add(String path) {
+        long h = hash(path);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long m = bits.length * 64L;
+        for (int i = 0; i < k; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, m);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the path, split into two 32 bit hashes for double hashing
+     */
+    private static long hash(String path) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Saves the filter as the changed paths sidecar of a commit
+     * @param hash: hash of the commit
+     * @param vcsDirectory: path to the .vcs directory
+     */
+    public void write(String hash, Path vcsDirectory) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append(k).append(" ").append(bits.length * 64L);
+        for (long l : bits) {
+            sb.append(" ").append(Long.toHexString(l));
+        }
+        Path dir = vcsDirectory.resolve("ChangedPaths");
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve(hash), sb.toString());
+    }
+
+    /**
+     * Reads the changed paths sidecar of a commit
+     * @param hash: hash of the commit
+     * @param vcsDirectory: path to the .vcs directory
+     * @return bloom filter object, or null if the commit has no sidecar
+     */
+    public static BloomFilter read(String hash, Path vcsDirectory) throws Exception {
+        Path p = vcsDirectory.resolve("ChangedPaths").resolve(hash);
+        if (!Files.exists(p)) {
+            return null;
+        }
+        String[] parts = Files.readString(p).trim().split(" ");
+        long[] bits = new long[(int) (Long.parseLong(parts[1]) / 64)];
+        if (parts.length != bits.length + 2) {
+            return null;
+        }
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = Long.parseUnsignedLong(parts[i + 2], 16);
+        }
+        return new BloomFilter(Integer.parseInt(parts[0]), bits);
+    }
+}
@@ -0,0 +1,101 @@
+package versioncontrolsystem;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A file holding branches and the commits between them and a set of commits the receiver already has, for moving
+ * history between repositories that can't reach each other.
+ * Objects are transferred from the object store into the file without passing through the heap, and are checked
+ * against their hashes as they are read back, see Pack.
+ *      *  [MAGIC]
+ *      *  [number of branches] ([name] [hash])...
+ *      *  [number of prerequisites] ([hash])...  commits the receiver has to have already
+ *      *  [pack]
+ */
+public class Bundle extends VCSUtils {
+    private static final byte[] MAGIC = "VCSBNDL1".getBytes(StandardCharsets.US_ASCII);
+    public final Map<String, String> refs;  // branch name : head commit hash
+    public final List<String> prerequisites;
+
+    private Bundle(Map<String, String> refs, List<String> prerequisites) {
+        this.refs = refs;
+        this.prerequisites = prerequisites;
+    }
+
+    /**
+     * Writes a bundle, to a temporary file that replaces the target once it is complete
+     * @param file: the bundle file
+     * @param refs: branches to bundle, branch name : head commit
+     * @param basis: commits the receiver has, whose ancestors are left out too
+     * @param sync: sync of the repository the commits come from
+     * @param vcsDirectory: path to the .vcs directory
+     * @param cache: commit cache
+     */
+    public static void write(Path file, Map<String, Commit> refs, Collection<Commit> basis, Sync sync,
+                             Path vcsDirectory, Map<String, Commit> cache) throws Exception {
+        Set<String> common = sync.ancestors(basis);
+        List<String> wants = new ArrayList<>();
+        Map<String, String> heads = new TreeMap<>();
+        for (Map.Entry<String, Commit> entry : refs.entrySet()) {
+            heads.put(entry.getKey(), entry.getValue().hash);
+            wants.add(entry.getValue().hash);
+        }
+        List<Commit> missing = sync.missing(wants, common);
+        Set<String> prerequisites = new TreeSet<>();
+        for (Commit c : missing) {
+            for (Commit parent : c.parentCommits(cache)) {
+                if (common.contains(parent.hash) && !(parent instanceof InitialCommit)) {
+                    prerequisites.add(parent.hash);
+                }
+            }
+        }
+        Path temp = tempFile(vcsDirectory);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            DataOutputStream out = Sync.output(Channels.newOutputStream(channel));
+            out.write(MAGIC);
+            Sync.writeRefs(out, heads);
+            Sync.writeList(out, prerequisites);
+            new Pack(vcsDirectory, cache, channel).write(out, missing);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the branches and prerequisites of a bundle
+     * @param in: stream of the bundle, left at the start of the pack
+     * @return the bundle
+     */
+    public static Bundle readHeader(DataInputStream in) throws Exception {
+        byte[] magic = new byte[MAGIC.length];
+        try {
+            in.readFully(magic);
+        } catch (EOFException e) {
+            throw new FailCaseException("Not a bundle");
+        }
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new FailCaseException("Not a bundle");
+        }
+        return new Bundle(Sync.readRefs(in), Sync.readHashes(in));
+    }
+
+    /**
+     * Opens a bundle for reading
+     * @param file: the bundle file
+     * @return buffered stream of the bundle
+     */
+    public static DataInputStream open(Path file) throws Exception {
+        if (!Files.exists(file)) {
+            throw new FailCaseException("Bundle doesn't exist: " + file);
+        }
+        return Sync.input(Files.newInputStream(file));
+    }
+}
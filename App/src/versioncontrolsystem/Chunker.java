@@ -0,0 +1,276 @@
+package versioncontrolsystem;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Chunked storage of large files.
+ * Files are split with FastCDC content defined chunking, so an edit only changes the chunks around it, and each
+ * chunk is saved as an object of its own. The blob of the file is then a manifest, still named by the hash of the
+ * whole file:
+ *      *  [MAGIC]
+ *      *  [size of the file]
+ *      *  [chunk hash] [chunk size]
+ *      *  ...
+ * Chunks shared between versions, or between files, are only saved once.
+ */
+public class Chunker extends VCSUtils {
+    public static final byte[] MAGIC = "\0VCS CHUNKED BLOB\n".getBytes(StandardCharsets.UTF_8);
+    private static final int MINSIZE = 64 * 1024;
+    private static final int AVGSIZE = 256 * 1024;
+    private static final int MAXSIZE = 1024 * 1024;
+    // cut points are harder to hit below the average size and easier above it, which keeps chunk sizes close to it
+    private static final long MASKSMALL = -1L << (64 - 20);
+    private static final long MASKLARGE = -1L << (64 - 16);
+    private static final long[] GEAR = new long[256];
+    static {
+        SplittableRandom random = new SplittableRandom(0xfa57cdcL);
+        for (int i = 0; i < 256; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * A chunk of a chunked blob
+     */
+    public static class Chunk {
+        public final String hash;
+        public final long offset;
+        public final int size;
+
+        Chunk(String hash, long offset, int size) {
+            this.hash = hash;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Finds the end of the next chunk
+     * @param buffer: bytes starting at the start of the chunk
+     * @param length: number of bytes in the buffer, at most MAXSIZE unless the file ends sooner
+     * @return size of the chunk
+     */
+    static int cut(byte[] buffer, int length) {
+        if (length <= MINSIZE) {
+            return length;
+        }
+        int end = Math.min(length, MAXSIZE);
+        int normal = Math.min(end, AVGSIZE);
+        long fingerprint = 0;
+        int i = MINSIZE;
+        for (; i < normal; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer[i] & 0xff];
+            if ((fingerprint & MASKSMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i++) {
+            fingerprint = (fingerprint << 1) + GEAR[buffer[i] & 0xff];
+            if ((fingerprint & MASKLARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Saves a file as chunks and a manifest
+     * Chunks are hashed and saved on the worker pool while the file is still being read, and the manifest
+     * is saved last, so a manifest never lists a chunk that hasn't been saved.
+     * @param path: the file
+     * @param hash: hash of the whole file
+     * @param vcsDirectory: path to the .vcs directory
+     */
+    public static void write(File path, String hash, Path vcsDirectory) throws Exception {
+        if (hashExists(hash, vcsDirectory)) {
+            return;
+        }
+        int limit = Runtime.getRuntime().availableProcessors() * 2;  // chunks waiting to be saved at once
+        Deque<Future<String>> pending = new ArrayDeque<>();
+        List<String> hashes = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        long total = 0;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(path), MAXSIZE)) {
+            byte[] buffer = new byte[MAXSIZE];
+            int length = 0;
+            boolean end = false;
+            while (!end || length > 0) {
+                while (!end && length < MAXSIZE) {
+                    int read = in.read(buffer, length, MAXSIZE - length);
+                    if (read < 0) {
+                        end = true;
+                    } else {
+                        length += read;
+                    }
+                }
+                if (length == 0) {
+                    break;
+                }
+                int size = cut(buffer, length);
+                byte[] chunk = Arrays.copyOf(buffer, size);
+                System.arraycopy(buffer, size, buffer, 0, length - size);
+                length -= size;
+                total += size;
+                sizes.add(size);
+                if (pending.size() >= limit) {
+                    hashes.add(pending.poll().get());
+                }
+                pending.add(workers().submit(() -> {
+                    String chunkHash = hash(chunk);
+                    createFile(chunk, chunkHash, vcsDirectory);
+                    return chunkHash;
+                }));
+            }
+        }
+        while (!pending.isEmpty()) {
+            hashes.add(pending.poll().get());
+        }
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        manifest.write(MAGIC);
+        StringBuilder sb = new StringBuilder();
+        sb.append(total).append("\n");
+        for (int i = 0; i < hashes.size(); i++) {
+            sb.append(hashes.get(i)).append(" ").append(sizes.get(i)).append("\n");
+        }
+        manifest.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        createFile(manifest.toByteArray(), hash, vcsDirectory);
+    }
+
+    /**
+     * Checks whether a saved object is a manifest
+     * @param object: path to the object
+     * @return true if the object starts with MAGIC
+     */
+    public static boolean isManifest(Path object) throws Exception {
+        try (InputStream in = Files.newInputStream(object)) {
+            return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+        }
+    }
+
+    /**
+     * Checks whether a file has to be saved as a manifest, even if it's small
+     * Files that start with MAGIC would be mistaken for manifests if they were saved whole
+     * @param file: the file
+     * @return true if the file starts with MAGIC
+     */
+    public static boolean startsWithMagic(File file) throws Exception {
+        return isManifest(file.toPath());
+    }
+
+    /**
+     * Reads the chunks listed in a manifest
+     * @param hash: hash of the manifest
+     * @param vcsDirectory: path to the .vcs directory
+     * @return list of chunks, in order
+     */
+    public static List<Chunk> chunks(String hash, Path vcsDirectory) throws Exception {
+        return chunks(findHash(hash, vcsDirectory));
+    }
+
+    /**
+     * Reads the chunks listed in a manifest file, which doesn't have to be in the object store yet
+     * @param manifest: path to the manifest
+     * @return list of chunks, in order
+     */
+    public static List<Chunk> chunks(Path manifest) throws Exception {
+        List<Chunk> chunks = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(manifest)) {
+            in.skipNBytes(MAGIC.length);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            reader.readLine();
+            long offset = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int split = line.indexOf(' ');
+                int size = Integer.parseInt(line.substring(split + 1));
+                chunks.add(new Chunk(line.substring(0, split), offset, size));
+                offset += size;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the size of the file a manifest was made from
+     * @param hash: hash of the manifest
+     * @param vcsDirectory: path to the .vcs directory
+     * @return size in bytes
+     */
+    public static long size(String hash, Path vcsDirectory) throws Exception {
+        try (InputStream in = Files.newInputStream(findHash(hash, vcsDirectory))) {
+            in.skipNBytes(MAGIC.length);
+            return Long.parseLong(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).readLine());
+        }
+    }
+
+    /**
+     * Rebuilds a chunked file, with the chunks copied in parallel straight to their offsets in the file
+     * @param hash: hash of the manifest
+     * @param target: path of the file to write
+     * @param vcsDirectory: path to the .vcs directory
+     */
+    public static void reassemble(String hash, Path target, Path vcsDirectory) throws Exception {
+        List<Chunk> chunks = chunks(hash, vcsDirectory);
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Callable<Void>> tasks = new ArrayList<>(chunks.size());
+            for (Chunk chunk : chunks) {
+                tasks.add(() -> {
+                    ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(findHash(chunk.hash, vcsDirectory)));
+                    long position = chunk.offset;
+                    while (bytes.hasRemaining()) {
+                        position += out.write(bytes, position);
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> f : workers().invokeAll(tasks)) {
+                f.get();
+            }
+        }
+    }
+
+    /**
+     * Opens a chunked file for reading, one chunk at a time
+     * @param hash: hash of the manifest
+     * @param vcsDirectory: path to the .vcs directory
+     * @return input stream of the whole file
+     */
+    public static InputStream open(String hash, Path vcsDirectory) throws Exception {
+        return open(chunks(hash, vcsDirectory), vcsDirectory);
+    }
+
+    /**
+     * Opens the file made of a list of chunks for reading, one chunk at a time
+     * @param chunks: the chunks, in order
+     * @param vcsDirectory: path to the .vcs directory
+     * @return input stream of the whole file
+     */
+    public static InputStream open(List<Chunk> chunks, Path vcsDirectory) {
+        Iterator<Chunk> iterator = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                try {
+                    return Files.newInputStream(findHash(iterator.next().hash, vcsDirectory));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,162 @@
+package versioncontrolsystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Local clone of a repository.
+ * Objects never change once written, so the clone hardlinks them instead of copying them, falling back to a copy
+ * where links aren't possible, such as across drives. A shared clone doesn't link them either, and reads them from
+ * the source's object store through .vcs/Alternates, so cloning takes no space however big the repository is.
+ * A shared clone breaks if the source's garbage collector deletes objects the clone still uses, so the source
+ * should only be used by clones while its history isn't being rewritten.
+ * The branches, HEAD, AllCommits, tasks and Config are copied, and the files of the HEAD commit are written to the
+ * new working directory. Working files are always copies, since editing a linked file would change the object.
+ */
+public class Clone extends VCSUtils {
+    private static final String[] SIDECARS = {"ChangedPaths", "Sketches", "Blame"};  // files named by object hashes
+
+    /**
+     * Clones a repository into a new directory
+     * @param source: working directory of the repository to clone
+     * @param destination: working directory of the new repository, created if it doesn't exist
+     * @param shared: true to read the source's objects through Alternates instead of linking them
+     * @return the new repository
+     */
+    @SuppressWarnings("try")
+    public static VersionControlSystem clone(String source, String destination, boolean shared) throws Exception {
+        Path sourceVcs = Paths.get(source).resolve(".vcs");
+        Path target = Paths.get(destination);
+        Path targetVcs = target.resolve(".vcs");
+        if (!Files.exists(sourceVcs)) {
+            throw new FailCaseException("No VCS Directory Found");
+        }
+        if (Files.exists(targetVcs)) {
+            throw new FailCaseException("Version Control System already exists");
+        }
+        Files.createDirectories(targetVcs);
+        hide(targetVcs);
+        for (String subDirectory : VersionControlSystem.SUBDIRECTORIES) {
+            Files.createDirectories(targetVcs.resolve(subDirectory));
+        }
+        for (String file : VersionControlSystem.FILES) {
+            Files.createFile(targetVcs.resolve(file));
+        }
+        String head;
+        // the refs are read together, so they match each other, and before the objects are listed, so every
+        // object they point to is listed
+        try (RepositoryLock lock = RepositoryLock.acquire(sourceVcs)) {
+            head = Path.of(Files.readString(sourceVcs.resolve("HEAD")).trim()).getFileName().toString();
+            for (String name : new String[] {"Branches", "Tasks", "CompletedTasks"}) {
+                copyDirectory(sourceVcs.resolve(name), targetVcs.resolve(name), false);
+            }
+            Files.copy(sourceVcs.resolve("AllCommits"), targetVcs.resolve("AllCommits"),
+                    StandardCopyOption.REPLACE_EXISTING);
+            if (Files.exists(sourceVcs.resolve("Config"))) {
+                Files.copy(sourceVcs.resolve("Config"), targetVcs.resolve("Config"));
+            }
+        }
+        Files.writeString(targetVcs.resolve("HEAD"), targetVcs.resolve("Branches").resolve(head).toString());
+        if (shared) {
+            List<Path> alternates = new ArrayList<>();
+            alternates.add(sourceVcs.resolve("Objects"));
+            alternates.addAll(alternates(sourceVcs));
+            writeAlternates(targetVcs, alternates);
+        } else {
+            linkObjects(sourceVcs.resolve("Objects"), targetVcs.resolve("Objects"));
+        }
+        for (String name : SIDECARS) {
+            if (Files.isDirectory(sourceVcs.resolve(name))) {
+                copyDirectory(sourceVcs.resolve(name), targetVcs.resolve(name), true);
+            }
+        }
+        checkout(Files.readString(targetVcs.resolve("Branches").resolve(head)).trim(), target, targetVcs);
+        return new VersionControlSystem(destination);
+    }
+
+    /**
+     * Links every object, one task per object directory
+     */
+    private static void linkObjects(Path source, Path target) throws Exception {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        try (Stream<Path> dirs = Files.list(source)) {
+            for (Path dir : dirs.toList()) {
+                if (Files.isDirectory(dir)) {
+                    tasks.add(() -> {
+                        copyDirectory(dir, target.resolve(dir.getFileName().toString()), true);
+                        return null;
+                    });
+                }
+            }
+        }
+        for (Future<Void> f : workers().invokeAll(tasks)) {
+            f.get();
+        }
+    }
+
+    /**
+     * Copies or links the files of a directory
+     * @param link: true to hardlink the files where possible
+     */
+    private static void copyDirectory(Path source, Path target, boolean link) throws Exception {
+        Files.createDirectories(target);
+        try (Stream<Path> files = Files.list(source)) {
+            for (Path file : files.toList()) {
+                if (Files.isDirectory(file)) {
+                    continue;
+                }
+                Path copy = target.resolve(file.getFileName().toString());
+                if (link) {
+                    try {
+                        Files.createLink(copy, file);
+                        continue;
+                    } catch (IOException | UnsupportedOperationException ignored) {
+                    }
+                }
+                Files.copy(file, copy, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    /**
+     * Writes the files of a commit to the new working directory, in parallel
+     * Chunked files are written on this thread, since reassembling one already runs its chunks on the worker pool,
+     * and waiting for those from inside a worker could leave every worker waiting for the others
+     */
+    private static void checkout(String hash, Path target, Path vcsDirectory) throws Exception {
+        Commit c = Commit.findCommit(hash, vcsDirectory);
+        if (c instanceof InitialCommit) {
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        Map<Path, String> chunked = new HashMap<>();
+        for (Map.Entry<String, String> entry : c.getTree().map.entrySet()) {
+            Path p = target.resolve(entry.getKey());
+            Files.createDirectories(p.getParent());
+            if (Chunker.isManifest(findHash(entry.getValue(), vcsDirectory))) {
+                chunked.put(p, entry.getValue());
+                continue;
+            }
+            tasks.add(() -> {
+                copyBlob(entry.getValue(), p, vcsDirectory);
+                return null;
+            });
+        }
+        for (Future<Void> f : workers().invokeAll(tasks)) {
+            f.get();
+        }
+        for (Map.Entry<Path, String> entry : chunked.entrySet()) {
+            copyBlob(entry.getValue(), entry.getKey(), vcsDirectory);
+        }
+    }
+}
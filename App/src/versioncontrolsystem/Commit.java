@@ -14,6 +14,7 @@ public class Commit extends VCSUtils {
     public final String tree;
     private Tree treeObject;
     private final String lastHash;
+    private final String mergeHash;  // hash of the commit that was merged in, "" if this isn't a merge commit
     public final String time;
     public final String author;
     public final String message;
@@ -23,13 +24,16 @@ public class Commit extends VCSUtils {
     public final Set<String> opened;
     public final List<Commit> next;
     public final Set<String> tasks;
+    private BloomFilter changedPaths;  // filter of the paths changed by this commit, null if there is no sidecar
+    private boolean changedPathsRead;
 
-    public Commit(String hash, String tree, String lastCommit, String time,
+    public Commit(String hash, String tree, String lastCommit, String mergeCommit, String time,
                   String author, String branch, String message, Path vcsDirectory, Set<String> closed,
                   Set<String> opened, Set<String> tasks) {
         this.hash = hash;
         this.tree = tree;
         this.lastHash = lastCommit;
+        this.mergeHash = mergeCommit;
         this.time = time;
         this.author = author;
         this.branch = branch;
@@ -49,9 +53,14 @@ public class Commit extends VCSUtils {
         this.next = new LinkedList<>();
     }
     public Commit(String hash, String tree, String lastCommit, String time,
+                  String author, String branch, String message, Path vcsDirectory, Set<String> closed,
+                  Set<String> opened, Set<String> tasks) {
+        this(hash, tree, lastCommit, "", time, author, branch, message, vcsDirectory, closed, opened, tasks);
+    }
+    public Commit(String hash, String tree, String lastCommit, String mergeCommit, String time,
                   String author, String branch, String message, Path vcsDirectory, Tree treeObject,
                   Set<String> closed, Set<String> opened, Set<String> tasks) {
-        this(hash, tree, lastCommit, time, author, branch, message, vcsDirectory, closed, opened, tasks);
+        this(hash, tree, lastCommit, mergeCommit, time, author, branch, message, vcsDirectory, closed, opened, tasks);
         this.treeObject = treeObject;
     }
 
@@ -73,6 +82,34 @@ public class Commit extends VCSUtils {
         return findCommit(lastHash, this.vcsDirectory);
     }
 
+    /**
+     * Returns the parent commit, followed by the merged commit if this is a merge commit
+     * @param cache: a hash : commit map
+     * @return list of parent commit objects
+     */
+    public List<Commit> parentCommits(Map<String, Commit> cache) throws Exception {
+        List<Commit> parents = new ArrayList<>(2);
+        Commit parent = parentCommit(cache);
+        if (parent != null) {
+            parents.add(parent);
+        }
+        if (!"".equals(mergeHash)) {
+            parents.add(findCommit(mergeHash, this.vcsDirectory, cache));
+        }
+        return parents;
+    }
+    public List<Commit> parentCommits() throws Exception {
+        List<Commit> parents = new ArrayList<>(2);
+        Commit parent = parentCommit();
+        if (parent != null) {
+            parents.add(parent);
+        }
+        if (!"".equals(mergeHash)) {
+            parents.add(findCommit(mergeHash, this.vcsDirectory));
+        }
+        return parents;
+    }
+
     /**
      * Returns a tree object of the tree in this commit
      * @return tree object
@@ -84,6 +121,60 @@ public class Commit extends VCSUtils {
         return treeObject;
     }
 
+    /**
+     * Returns the number of entries in this commit's tree, if it has been read
+     * @return number of entries, 0 if the tree hasn't been read
+     */
+    public int loadedTreeSize() {
+        Tree t = this.treeObject;
+        return t == null ? 0 : t.map.size();
+    }
+
+    /**
+     * Checks if this commit might have changed a path, using the changed paths sidecar
+     * Commits without a sidecar are always reported as possibly changed
+     * @param path: relative path to a file or directory
+     * @return false if the commit definitely didn't change the path
+     */
+    public boolean mightHaveChanged(String path) throws Exception {
+        if (!changedPathsRead) {
+            changedPaths = BloomFilter.read(hash, vcsDirectory);
+            changedPathsRead = true;
+        }
+        return changedPaths == null || changedPaths.mightContain(path);
+    }
+
+    /**
+     * Checks if this commit changed a file, or any file under a directory, compared to its parent
+     * Only loads the trees if the changed paths filter can't rule the path out
+     * @param path: relative path to a file or directory
+     * @param cache: a hash : commit map
+     * @return true if the path was added, modified or deleted by this commit
+     */
+    public boolean changed(String path, Map<String, Commit> cache) throws Exception {
+        if (!mightHaveChanged(path)) {
+            return false;
+        }
+        Commit parent = parentCommit(cache);
+        Map<String, String> before = parent == null ? new HashMap<>() : parent.getTree().map;
+        Map<String, String> after = getTree().map;
+        if (before.containsKey(path) || after.containsKey(path)) {
+            return !Objects.equals(before.get(path), after.get(path));
+        }
+        String prefix = path + File.separator;
+        for (Map.Entry<String, String> entry : after.entrySet()) {
+            if (entry.getKey().startsWith(prefix) && !entry.getValue().equals(before.get(entry.getKey()))) {
+                return true;
+            }
+        }
+        for (String key : before.keySet()) {
+            if (key.startsWith(prefix) && !after.containsKey(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * returns a string representation of the versioncontrolsystem.Commit object
      * @param global: boolean, if the branch should be included or not
@@ -140,6 +231,7 @@ public class Commit extends VCSUtils {
      * @return commit object
      */
     public static Commit findCommit(String hash, Path vcsDirectory) throws Exception {
+        long start = System.nanoTime();
         File file = findHash(hash, vcsDirectory).toFile();
         if (!file.exists()) {
             throw new FailCaseException(String.format("Commit with hash %s does not exist", hash));
@@ -172,7 +264,8 @@ public class Commit extends VCSUtils {
         }
         sb.delete(sb.length()-1, sb.length());
         reader.close();
-        return new Commit(hash, args.get(0), args.get(1),
+        Metrics.OBJECTREAD.record(start, file.length());
+        return new Commit(hash, args.get(0), args.get(1), args.size() > 5 ? args.get(5) : "",
                 args.get(2), args.get(3), args.get(4), sb.toString(), vcsDirectory, closed, opened, tasks);
     }
     public static Commit findCommit(String hash, Path vcsDirectory, Map<String, Commit> cache) throws Exception {
@@ -180,8 +273,8 @@ public class Commit extends VCSUtils {
             return cache.get(hash);
         }
         Commit output = findCommit(hash, vcsDirectory);
-        cache.put(output.hash, output);
-        return output;
+        Commit existing = cache.putIfAbsent(output.hash, output);
+        return existing == null ? output : existing;
     }
 
     /**
@@ -223,8 +316,40 @@ public class Commit extends VCSUtils {
     public static Commit writeCommit(String user, String message, Path vcsDirectory, Commit current,
                                      Map<String, String> index, String branch, String[] closed,
                                      String[] opened, Set<String> tasks) throws Exception {
-        StringBuilder sb = new StringBuilder();
         Tree tree = Tree.makeTree(vcsDirectory, index, current);
+        Commit c = writeCommit(user, message, vcsDirectory, current, null, tree, branch, closed, opened, tasks);
+        BloomFilter.of(index.keySet()).write(c.hash, vcsDirectory);
+        return c;
+    }
+
+    /**
+     * Creates a new merge commit, with the current commit as its parent and the merged commit as its second parent
+     * @param user: author of the commit
+     * @param message: commit message
+     * @param vcsDirectory: path to the .vcs directory
+     * @param current: current commit object
+     * @param merged: the commit that was merged in
+     * @param map: the merged tree, [name] : [hash]
+     * @param branch: the current branch
+     * @param tasks: the merged set of open tasks
+     * @return returns the newly created commit object
+     */
+    public static Commit writeMergeCommit(String user, String message, Path vcsDirectory, Commit current, Commit merged,
+                                          Map<String, String> map, String branch, Set<String> tasks) throws Exception {
+        Tree tree = Tree.writeTree(vcsDirectory, map);
+        Commit c = writeCommit(user, message, vcsDirectory, current, merged, tree, branch, new String[0], new String[0], tasks);
+        List<String> changed = new ArrayList<>();
+        for (Diff.Change change : Diff.treeDiff(current.getTree(), tree)) {
+            changed.add(change.path);
+        }
+        BloomFilter.of(changed).write(c.hash, vcsDirectory);
+        return c;
+    }
+
+    private static Commit writeCommit(String user, String message, Path vcsDirectory, Commit current, Commit merged,
+                                      Tree tree, String branch, String[] closed, String[] opened,
+                                      Set<String> tasks) throws Exception {
+        StringBuilder sb = new StringBuilder();
         sb.append(tree.hash).append("\n");
         String time = LocalDateTime.now().format(DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss"));
         String lastHash;
@@ -235,7 +360,13 @@ public class Commit extends VCSUtils {
             sb.append(current.hash).append("\n");
             lastHash = current.hash;
         }
-        sb.append(time).append("\n").append(user).append("\n").append(branch).append("\n===\n");
+        sb.append(time).append("\n").append(user).append("\n").append(branch).append("\n");
+        String mergeHash = "";
+        if (merged != null) {
+            mergeHash = merged.hash;
+            sb.append(mergeHash).append("\n");
+        }
+        sb.append("===\n");
         tasks = new HashSet<>(tasks);
         for (String s : opened) {
             new File(vcsDirectory.resolve("Tasks").resolve(s).toString()).createNewFile();
@@ -261,7 +392,7 @@ public class Commit extends VCSUtils {
         sb.append("===\n").append(message).append("\n===");
         String hash = hash(sb.toString());
         createFile(sb.toString(), hash, vcsDirectory);
-        return new Commit(hash, tree.hash, lastHash, time, user, branch, message,
+        return new Commit(hash, tree.hash, lastHash, mergeHash, time, user, branch, message,
                 vcsDirectory, tree, new HashSet<>(Arrays.asList(closed)), new HashSet<>(Arrays.asList(opened)), tasks);
     }
 
@@ -0,0 +1,50 @@
+package versioncontrolsystem;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Settings of a repository, read from .vcs/Config
+ * Each line is [key]=[value], and lines starting with # are ignored
+ */
+public class Config {
+    public static final String CHUNKTHRESHOLD = "chunkThreshold";  // size in bytes above which files are chunked
+    public static final long DEFAULTCHUNKTHRESHOLD = 8L * 1024 * 1024;
+    private final Map<String, String> values = new HashMap<>();
+
+    public Config(Path vcsDirectory) throws Exception {
+        Path file = vcsDirectory.resolve("Config");
+        if (!Files.exists(file)) {
+            return;
+        }
+        List<String> lines = Files.readAllLines(file);
+        for (String line : lines) {
+            int split = line.indexOf('=');
+            if (line.startsWith("#") || split < 0) {
+                continue;
+            }
+            values.put(line.substring(0, split).trim(), line.substring(split + 1).trim());
+        }
+    }
+
+    /**
+     * Returns a setting as a number
+     * @param key: name of the setting
+     * @param defaultValue: value to use if the setting is missing or isn't a number
+     * @return value of the setting
+     */
+    public long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(values.get(key));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    public String get(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+}
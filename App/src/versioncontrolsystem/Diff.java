@@ -0,0 +1,198 @@
+package versioncontrolsystem;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Differences between two trees, and between two versions of a file.
+ * Line diffs are sent out one hunk at a time, each hunk being a list of strings:
+ *      *  @@ -[old start],[old count] +[new start],[new count] @@
+ *      *  [" ", "-" or "+"][line]
+ *      *  ...
+ */
+public class Diff extends VCSUtils {
+    public static final int CONTEXT = 3;  // number of unchanged lines around each change
+
+    /**
+     * A path that differs between two trees
+     */
+    public static class Change {
+        public final String status;  // added, modified, deleted, renamed or copied
+        public final String path;
+        public final String oldPath;  // path the file was renamed or copied from, otherwise the same as path
+        public final String oldHash;  // null if the path was added
+        public final String newHash;  // null if the path was deleted
+
+        public Change(String status, String path, String oldHash, String newHash) {
+            this(status, path, path, oldHash, newHash);
+        }
+        public Change(String status, String path, String oldPath, String oldHash, String newHash) {
+            this.status = status;
+            this.path = path;
+            this.oldPath = oldPath;
+            this.oldHash = oldHash;
+            this.newHash = newHash;
+        }
+
+        @Override
+        public String toString() {
+            if (!path.equals(oldPath)) {
+                return String.format("%s | (%s from %s)", path, status, oldPath);
+            }
+            return String.format("%s | (%s)", path, status);
+        }
+    }
+
+    /**
+     * Finds the paths that were added, modified or deleted between two trees
+     * @param a: the old tree
+     * @param b: the new tree
+     * @return list of changes, sorted by path
+     */
+    public static List<Change> treeDiff(Tree a, Tree b) {
+        List<Change> changes = new ArrayList<>();
+        if (a.hash != null && a.hash.equals(b.hash)) {
+            return changes;
+        }
+        for (String path : new TreeSet<>(a.map.keySet())) {
+            String newHash = b.map.get(path);
+            if (newHash == null) {
+                changes.add(new Change("deleted", path, a.map.get(path), null));
+            } else if (!newHash.equals(a.map.get(path))) {
+                changes.add(new Change("modified", path, a.map.get(path), newHash));
+            }
+        }
+        for (String path : b.map.keySet()) {
+            if (!a.map.containsKey(path)) {
+                changes.add(new Change("added", path, null, b.map.get(path)));
+            }
+        }
+        changes.sort(Comparator.comparing(c -> c.path));
+        return changes;
+    }
+
+    /**
+     * Diffs two versions of a file, sending out each hunk as soon as it is complete
+     * Binary and oversized files are reported with a single line instead of hunks
+     * @param a: the old version
+     * @param b: the new version
+     * @param out: receives each hunk
+     */
+    public static void lineDiff(LineSequence a, LineSequence b, Consumer<List<String>> out) {
+        if (a.binary || b.binary) {
+            out.accept(List.of("Binary files differ"));
+            return;
+        }
+        if (a.tooLarge || b.tooLarge) {
+            out.accept(List.of(String.format("File too large to diff (over %d bytes)", LineSequence.MAXSIZE)));
+            return;
+        }
+        int[][] ids = LineSequence.ids(a, b);
+        int[] bToA = MyersDiff.match(ids[0], ids[1]);
+        int[] aToB = new int[a.size()];
+        Arrays.fill(aToB, -1);
+        for (int j = 0; j < bToA.length; j++) {
+            if (bToA[j] >= 0) {
+                aToB[bToA[j]] = j;
+            }
+        }
+        Hunk hunk = null;
+        int unchanged = 0;  // number of unchanged lines since the last change
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            boolean delete = i < a.size() && aToB[i] < 0;
+            boolean insert = !delete && j < b.size() && bToA[j] < 0;
+            if (delete || insert) {
+                if (hunk == null) {
+                    int context = Math.min(CONTEXT, Math.min(i, j));
+                    hunk = new Hunk(i - context, j - context);
+                    for (int k = context; k > 0; k--) {
+                        hunk.add(' ', a.line(i - k));
+                    }
+                }
+                unchanged = 0;
+                if (delete) {
+                    hunk.add('-', a.line(i++));
+                } else {
+                    hunk.add('+', b.line(j++));
+                }
+            } else {
+                if (hunk != null) {
+                    unchanged++;
+                    if (unchanged > 2 * CONTEXT) {
+                        hunk.trim(unchanged - 1 - CONTEXT);
+                        out.accept(hunk.lines());
+                        hunk = null;
+                    } else {
+                        hunk.add(' ', a.line(i));
+                    }
+                }
+                i++;
+                j++;
+            }
+        }
+        if (hunk != null) {
+            hunk.trim(Math.max(0, unchanged - CONTEXT));
+            out.accept(hunk.lines());
+        }
+    }
+
+    /**
+     * Diffs two saved objects
+     * @param oldHash: hash of the old version, or null if the file was added
+     * @param newHash: hash of the new version, or null if the file was deleted
+     * @param vcsDirectory: path to the .vcs directory
+     * @param out: receives each hunk
+     */
+    public static void lineDiff(String oldHash, String newHash, Path vcsDirectory, Consumer<List<String>> out) throws Exception {
+        lineDiff(LineSequence.ofObject(oldHash, vcsDirectory), LineSequence.ofObject(newHash, vcsDirectory), out);
+    }
+
+    /**
+     * Lines of a hunk, along with the counts for its header
+     */
+    private static class Hunk {
+        private final int oldStart;
+        private final int newStart;
+        private int oldCount;
+        private int newCount;
+        private final List<String> lines = new ArrayList<>();
+
+        Hunk(int oldStart, int newStart) {
+            this.oldStart = oldStart;
+            this.newStart = newStart;
+        }
+
+        void add(char type, String line) {
+            lines.add(type + line);
+            if (type != '+') {
+                oldCount++;
+            }
+            if (type != '-') {
+                newCount++;
+            }
+        }
+
+        /**
+         * Removes unchanged lines from the end of the hunk
+         * @param n: number of lines to remove
+         */
+        void trim(int n) {
+            for (int k = 0; k < n; k++) {
+                lines.remove(lines.size() - 1);
+                oldCount--;
+                newCount--;
+            }
+        }
+
+        List<String> lines() {
+            List<String> output = new ArrayList<>(lines.size() + 1);
+            output.add(String.format("@@ -%d,%d +%d,%d @@", oldCount == 0 ? oldStart : oldStart + 1, oldCount,
+                    newCount == 0 ? newStart : newStart + 1, newCount));
+            output.addAll(lines);
+            return output;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package versioncontrolsystem;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Writes history as a git fast-import style stream, which FastImport or git fast-import can read back.
+ * Commits are written parents first, each after the blobs it adds, and each blob is written once under a mark
+ * that later commits refer to. A commit only lists the files that changed from its first parent, so only a commit's
+ * tree and its parent's tree are held at a time, and blobs are streamed from the object store. Commits are read
+ * from the object store as they are written rather than through the commit cache, so only their hashes are held.
+ * Every commit is written on the first exported branch, by name, that it is in the history of, so importing the
+ * stream doesn't create or move branches that weren't exported.
+ *      *  blob, mark :n, data size, contents  for each blob not written yet
+ *      *  reset refs/heads/branch  before a commit with no parent, so it doesn't continue an existing branch
+ *      *  commit refs/heads/branch, mark :n, author, committer, data size, message, from :n, merge :n,
+ *      *  (M 100644 :n path | D path)...
+ *      *  reset refs/heads/branch, from :n  for each branch head
+ * Commit times are written in the offset of this system, and authors with an empty email. Tasks are left out, since
+ * the format has nowhere to put them.
+ */
+public class FastExport extends VCSUtils {
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss");
+    private final OutputStream out;
+    private final Path vcsDirectory;
+    private final Map<String, Integer> marks = new HashMap<>();  // commit or blob hash : mark
+    private Commit previous;  // last commit written, whose tree is kept
+    private Map<String, String> previousTree = Map.of();
+
+    private FastExport(OutputStream out, Path vcsDirectory) {
+        this.out = out;
+        this.vcsDirectory = vcsDirectory;
+    }
+
+    /**
+     * Writes branches and their history
+     * @param out: stream to write to, flushed but not closed
+     * @param refs: branches to write, branch name : head commit
+     * @param order: commit hash : position in AllCommits, parents always come first
+     * @param vcsDirectory: path to the .vcs directory
+     */
+    public static void write(OutputStream out, Map<String, Commit> refs, Map<String, Integer> order,
+                             Path vcsDirectory) throws Exception {
+        FastExport export = new FastExport(new BufferedOutputStream(out, Sync.BUFFER), vcsDirectory);
+        Map<String, String> branches = new HashMap<>();  // commit hash : branch it is written on
+        for (Map.Entry<String, Commit> entry : new TreeMap<>(refs).entrySet()) {
+            Deque<String> stack = new ArrayDeque<>();
+            if (!branches.containsKey(entry.getValue().hash)) {
+                stack.push(entry.getValue().hash);
+            }
+            while (!stack.isEmpty()) {
+                Commit c = Commit.findCommit(stack.pop(), vcsDirectory);
+                if (c instanceof InitialCommit || branches.putIfAbsent(c.hash, entry.getKey()) != null) {
+                    continue;
+                }
+                for (Commit parent : c.parentCommits()) {
+                    if (!branches.containsKey(parent.hash)) {
+                        stack.push(parent.hash);
+                    }
+                }
+            }
+        }
+        List<String> commits = new ArrayList<>(branches.keySet());
+        commits.sort(Comparator.comparingInt(hash -> order.getOrDefault(hash, -1)));
+        for (String hash : commits) {
+            export.commit(Commit.findCommit(hash, vcsDirectory), branches.get(hash));
+        }
+        for (Map.Entry<String, Commit> entry : new TreeMap<>(refs).entrySet()) {
+            export.line("reset refs/heads/" + entry.getKey());
+            if (!(entry.getValue() instanceof InitialCommit)) {
+                export.line("from :" + export.marks.get(entry.getValue().hash));
+            }
+            export.line("");
+        }
+        export.line("done");
+        export.out.flush();
+    }
+
+    private void commit(Commit c, String branch) throws Exception {
+        List<Commit> parents = c.parentCommits();
+        Commit first = parents.isEmpty() ? null : parents.get(0);
+        Map<String, String> parentTree;
+        if (first == null || first instanceof InitialCommit) {
+            parentTree = Map.of();
+        } else if (previous != null && first.hash.equals(previous.hash)) {
+            parentTree = previousTree;
+        } else {
+            parentTree = Tree.findTree(first.tree, vcsDirectory).map;
+        }
+        Map<String, String> tree = Tree.findTree(c.tree, vcsDirectory).map;
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, String> entry : new TreeMap<>(tree).entrySet()) {
+            String blob = entry.getValue();
+            if (blob.equals(parentTree.get(entry.getKey()))) {
+                continue;
+            }
+            if (!marks.containsKey(blob)) {
+                blob(blob);
+            }
+            changed.add("M 100644 :" + marks.get(blob) + " " + path(entry.getKey()));
+        }
+        for (String name : new TreeSet<>(parentTree.keySet())) {
+            if (!tree.containsKey(name)) {
+                changed.add("D " + path(name));
+            }
+        }
+        if (first == null || first instanceof InitialCommit) {
+            line("reset refs/heads/" + branch);
+        }
+        int mark = marks.size() + 1;
+        marks.put(c.hash, mark);
+        line("commit refs/heads/" + branch);
+        line("mark :" + mark);
+        String person = c.author + " <> " + when(c.time);
+        line("author " + person);
+        line("committer " + person);
+        data((c.message + "\n").getBytes(StandardCharsets.UTF_8));
+        if (first != null && !(first instanceof InitialCommit)) {
+            line("from :" + marks.get(first.hash));
+        }
+        if (parents.size() > 1) {
+            line("merge :" + marks.get(parents.get(1).hash));
+        }
+        for (String command : changed) {
+            line(command);
+        }
+        line("");
+        previous = c;
+        previousTree = tree;
+    }
+
+    /**
+     * Writes a blob, streamed from the object store, and gives it the next mark
+     */
+    private void blob(String hash) throws Exception {
+        Path object = findHash(hash, vcsDirectory);
+        boolean chunked = Chunker.isManifest(object);
+        line("blob");
+        line("mark :" + (marks.size() + 1));
+        line("data " + (chunked ? Chunker.size(hash, vcsDirectory) : Files.size(object)));
+        try (InputStream in = chunked ? Chunker.open(hash, vcsDirectory) : Files.newInputStream(object)) {
+            in.transferTo(out);
+        }
+        line("");
+        marks.put(hash, marks.size() + 1);
+    }
+
+    private void data(byte[] contents) throws Exception {
+        line("data " + contents.length);
+        out.write(contents);
+    }
+
+    private void line(String line) throws Exception {
+        out.write(line.getBytes(StandardCharsets.UTF_8));
+        out.write('\n');
+    }
+
+    /**
+     * Formats a commit time as seconds since the epoch and the offset of this system
+     */
+    private static String when(String time) {
+        LocalDateTime local = time.isEmpty() ? LocalDateTime.now() : LocalDateTime.parse(time, TIME);
+        ZoneOffset offset = ZoneId.systemDefault().getRules().getOffset(local);
+        int minutes = offset.getTotalSeconds() / 60;
+        return String.format("%d %s%02d%02d", local.toEpochSecond(offset), minutes < 0 ? "-" : "+",
+                Math.abs(minutes) / 60, Math.abs(minutes) % 60);
+    }
+
+    /**
+     * Converts a path to forward slashes, quoting it with C style escapes if it needs them
+     */
+    private static String path(String name) {
+        String path = name.replace(File.separatorChar, '/');
+        if (!path.startsWith("\"") && path.indexOf('\n') < 0 && path.indexOf('\\') < 0) {
+            return path;
+        }
+        return "\"" + path.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+    }
+}
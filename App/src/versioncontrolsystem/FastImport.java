@@ -0,0 +1,516 @@
+package versioncontrolsystem;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+
+/**
+ * Reads history from a git fast-import style stream, writing objects straight to the object store.
+ * Nothing goes through the working directory or the Index: each branch's tree is kept in memory and changed by the
+ * file commands of each commit, and new objects are synced to disk in batches, see Pack.store. The commits and
+ * branches are only added to the repository by the caller once the whole stream has been read.
+ * Supported commands:
+ *      *  blob, mark :n, data n (or data &lt;&lt;delimiter)
+ *      *  commit refs/heads/branch, mark, author or committer Name &lt;email&gt; seconds +zone, data, from, merge
+ *      *  M mode (:n, hash or inline) path, D path, R from to, C from to, deleteall
+ *      *  reset refs/heads/branch, optionally followed by from
+ *      *  checkpoint, progress, feature, option and done, which are skipped
+ * A commit can have at most one merge parent, and a commit without from on a new branch starts from the initial
+ * commit. Paths can be quoted, with C style escapes, and must stay inside the working directory and outside .vcs.
+ */
+public class FastImport extends VCSUtils {
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss");
+    private static final String HEADS = "refs/heads/";
+    private final InputStream in;
+    private final Path vcsDirectory;
+    private final long threshold;
+    private final Map<String, String> existing;  // branch name : head commit hash, in the repository
+    private final String initial;  // hash of the initial commit
+    private final Map<String, String> marks = new HashMap<>();  // mark : hash
+    private final Map<String, Head> heads = new LinkedHashMap<>();  // branch name : its head in the stream
+    private final Map<String, String> trees = new HashMap<>();  // imported commit hash : tree hash
+    private final Map<String, Path> batch = new LinkedHashMap<>();  // hash : temporary file, waiting to be stored
+    private String pushback;  // line read but not used yet
+    public final List<String> commits = new ArrayList<>();  // imported commits, parents first
+    public final Map<String, String> refs = new TreeMap<>();  // branch name : new head commit hash
+
+    private FastImport(InputStream in, Path vcsDirectory, long threshold, Map<String, String> existing)
+            throws Exception {
+        this.in = new BufferedInputStream(in, Sync.BUFFER);
+        this.vcsDirectory = vcsDirectory;
+        this.threshold = threshold;
+        this.existing = existing;
+        this.initial = hash("");
+    }
+
+    /**
+     * The head of a branch while it is being imported
+     */
+    private static class Head {
+        String commit;
+        Map<String, String> tree;  // tree of the head commit, null until it is needed
+    }
+
+    /**
+     * Reads a stream and writes its objects
+     * @param in: the stream
+     * @param vcsDirectory: path to the .vcs directory
+     * @param threshold: size in bytes at which blobs are chunked
+     * @param existing: branch name : head commit hash, for the branches already in the repository
+     * @return the commits and branches that were read
+     */
+    public static FastImport read(InputStream in, Path vcsDirectory, long threshold, Map<String, String> existing)
+            throws Exception {
+        FastImport output = new FastImport(in, vcsDirectory, threshold, existing);
+        output.run();
+        return output;
+    }
+
+    private void run() throws Exception {
+        Progress progress = Progress.current();
+        try {
+            String line;
+            while ((line = nextLine()) != null) {
+                progress.check();  // nothing refers to the objects written so far until the stream has been read
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("progress ")
+                        || line.startsWith("feature ") || line.startsWith("option ")) {
+                    continue;
+                }
+                if (line.equals("done")) {
+                    break;
+                } else if (line.equals("blob")) {
+                    blob();
+                } else if (line.startsWith("commit ")) {
+                    commit(branchName(line.substring(7)));
+                } else if (line.startsWith("reset ")) {
+                    reset(branchName(line.substring(6)));
+                } else if (line.equals("checkpoint")) {
+                    Pack.store(batch, vcsDirectory);
+                } else {
+                    throw new FailCaseException("Unsupported import command: " + line);
+                }
+            }
+            Pack.store(batch, vcsDirectory);
+        } finally {
+            for (Path temp : batch.values()) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        for (Map.Entry<String, Head> entry : heads.entrySet()) {
+            if (entry.getValue().commit != null) {
+                refs.put(entry.getKey(), entry.getValue().commit);
+            }
+        }
+    }
+
+    private void blob() throws Exception {
+        String line = nextLine();
+        String mark = null;
+        if (line != null && line.startsWith("mark ")) {
+            mark = line.substring(5);
+            line = nextLine();
+        }
+        if (line != null && line.startsWith("original-oid ")) {
+            line = nextLine();
+        }
+        String hash = readBlob(line);
+        if (mark != null) {
+            marks.put(mark, hash);
+        }
+    }
+
+    private void commit(String branch) throws Exception {
+        String line = nextLine();
+        String mark = null;
+        if (line.startsWith("mark ")) {
+            mark = line.substring(5);
+            line = nextLine();
+        }
+        if (line.startsWith("original-oid ")) {
+            line = nextLine();
+        }
+        String author = null;
+        String time = null;
+        while (line.startsWith("author ") || line.startsWith("committer ")) {
+            if (author == null || line.startsWith("author ")) {
+                String person = line.substring(line.indexOf(' ') + 1);
+                int open = person.indexOf('<');
+                int close = person.lastIndexOf('>');
+                author = (open < 0 ? person : person.substring(0, open)).trim();
+                String[] when = person.substring(close + 1).trim().split(" ");
+                time = LocalDateTime.ofEpochSecond(Long.parseLong(when[0]), 0,
+                        ZoneOffset.of(when.length > 1 ? when[1] : "+0000")).format(TIME);
+            }
+            line = nextLine();
+        }
+        if (author == null) {
+            throw new FailCaseException("Imported commit has no author: " + branch);
+        }
+        String message = new String(readData(line), StandardCharsets.UTF_8);
+        if (message.endsWith("\n")) {
+            message = message.substring(0, message.length() - 1);
+        }
+        Head head = heads.computeIfAbsent(branch, k -> new Head());
+        line = nextCommand();
+        String from = null;
+        if (line != null && line.startsWith("from ")) {
+            from = resolve(line.substring(5));
+            line = nextCommand();
+        }
+        String merge = "";
+        if (line != null && line.startsWith("merge ")) {
+            merge = resolve(line.substring(6));
+            line = nextCommand();
+            if (line != null && line.startsWith("merge ")) {
+                throw new FailCaseException("Commits with more than two parents aren't supported");
+            }
+        }
+        String parent = from != null ? from : head.commit != null ? head.commit
+                : existing.getOrDefault(branch, initial);
+        Map<String, String> tree = parent.equals(head.commit) && head.tree != null ? head.tree : loadTree(parent);
+        Set<String> changed = new HashSet<>();
+        while (line != null && !line.isEmpty()) {
+            if (line.startsWith("M ")) {
+                String[] parts = line.split(" ", 4);
+                if (parts[1].equals("160000")) {
+                    throw new FailCaseException("Submodules aren't supported: " + parts[3]);
+                }
+                String path = path(parts[3]);
+                String hash = parts[2].equals("inline") ? readBlob(nextLine())
+                        : parts[2].startsWith(":") ? mark(parts[2]) : blob(parts[2]);
+                tree.put(path, hash);
+                changed.add(path);
+            } else if (line.startsWith("D ")) {
+                String path = path(line.substring(2));
+                for (String name : matching(tree, path)) {
+                    tree.remove(name);
+                    changed.add(name);
+                }
+            } else if (line.startsWith("R ") || line.startsWith("C ")) {
+                String[] paths = splitPaths(line.substring(2));
+                for (String name : matching(tree, paths[0])) {
+                    String target = paths[1] + name.substring(paths[0].length());
+                    tree.put(target, line.startsWith("R ") ? tree.remove(name) : tree.get(name));
+                    changed.add(name);
+                    changed.add(target);
+                }
+            } else if (line.equals("deleteall")) {
+                changed.addAll(tree.keySet());
+                tree.clear();
+            } else {
+                pushback = line;
+                break;
+            }
+            line = nextLine();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> entry : tree.entrySet()) {
+            sb.append(String.format("%s %s\n", entry.getKey(), entry.getValue()));
+        }
+        String treeHash = writeObject(sb.toString().getBytes());
+        Set<String> tasks = trees.containsKey(parent) || parent.equals(initial) ? Set.of()
+                : Commit.findCommit(parent, vcsDirectory).tasks;
+        sb = new StringBuilder();
+        sb.append(treeHash).append("\n").append(parent).append("\n").append(time).append("\n").append(author)
+                .append("\n").append(branch).append("\n");
+        if (!merge.isEmpty()) {
+            sb.append(merge).append("\n");
+        }
+        sb.append("===\n===\n===\n");
+        for (String task : tasks) {
+            sb.append(task).append("\n");
+        }
+        sb.append("===\n").append(message).append("\n===");
+        String hash = writeObject(sb.toString().getBytes());
+        BloomFilter.of(changed).write(hash, vcsDirectory);
+        commits.add(hash);
+        trees.put(hash, treeHash);
+        head.commit = hash;
+        head.tree = tree;
+        if (mark != null) {
+            marks.put(mark, hash);
+        }
+    }
+
+    private void reset(String branch) throws Exception {
+        Head head = heads.computeIfAbsent(branch, k -> new Head());
+        String line = nextCommand();
+        if (line != null && line.startsWith("from ")) {
+            head.commit = resolve(line.substring(5));
+            head.tree = null;
+        } else {
+            // without from, the next commit on the branch has no parent but the initial commit
+            head.commit = initial;
+            head.tree = new HashMap<>();
+            pushback = line;
+        }
+    }
+
+    /**
+     * Returns the paths of a tree at or under a path
+     */
+    private static List<String> matching(Map<String, String> tree, String path) {
+        if (tree.containsKey(path)) {
+            return List.of(path);
+        }
+        List<String> output = new ArrayList<>();
+        for (String name : tree.keySet()) {
+            if (name.startsWith(path + File.separator)) {
+                output.add(name);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Reads a copy of the tree of a commit
+     */
+    private Map<String, String> loadTree(String commit) throws Exception {
+        if (commit.equals(initial)) {
+            return new HashMap<>();
+        }
+        String tree = trees.get(commit);
+        if (tree == null) {
+            tree = Commit.findCommit(commit, vcsDirectory).tree;
+        } else if (batch.containsKey(tree)) {
+            Pack.store(batch, vcsDirectory);
+        }
+        return new HashMap<>(Tree.findTree(tree, vcsDirectory).map);
+    }
+
+    /**
+     * Finds the commit a from or merge command points to
+     * @param ref: a mark, a commit hash or a branch
+     */
+    private String resolve(String ref) throws Exception {
+        if (ref.startsWith(":")) {
+            return mark(ref);
+        }
+        String branch = ref.startsWith(HEADS) ? ref.substring(HEADS.length()) : ref;
+        Head head = heads.get(branch);
+        if (head != null && head.commit != null) {
+            return head.commit;
+        } else if (existing.containsKey(branch)) {
+            return existing.get(branch);
+        } else if (ref.length() == 40 && (trees.containsKey(ref) || hashExists(ref, vcsDirectory))) {
+            return ref;
+        }
+        throw new FailCaseException("Unknown commit in import: " + ref);
+    }
+
+    private String mark(String mark) throws Exception {
+        String hash = marks.get(mark);
+        if (hash == null) {
+            throw new FailCaseException("Unknown mark in import: " + mark);
+        }
+        return hash;
+    }
+
+    /**
+     * Checks that a blob named by its hash in a file command is in the object store
+     */
+    private String blob(String hash) throws Exception {
+        if (!isHash(hash) || !batch.containsKey(hash) && !hashExists(hash, vcsDirectory)) {
+            throw new FailCaseException("Unknown blob in import: " + hash);
+        }
+        return hash;
+    }
+
+    private static String branchName(String ref) throws Exception {
+        String name = ref.startsWith(HEADS) ? ref.substring(HEADS.length()) : ref;
+        if (name.isEmpty() || !Path.of(name).getFileName().toString().equals(name) || name.equals("..")) {
+            throw new FailCaseException("Invalid branch name in import: " + ref);
+        }
+        return name;
+    }
+
+    /**
+     * Reads a data command into a blob, storing it unless the object store already has it
+     * @return hash of the blob
+     */
+    private String readBlob(String line) throws Exception {
+        Path temp = tempFile(vcsDirectory);
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        long size;
+        try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(temp), Sync.BUFFER)) {
+            if (line != null && line.startsWith("data <<")) {
+                byte[] data = readData(line);
+                digest.update(data);
+                file.write(data);
+                size = data.length;
+            } else {
+                size = dataSize(line);
+                byte[] buffer = new byte[Sync.BUFFER];
+                for (long left = size; left > 0; ) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                    if (n < 0) {
+                        throw new FailCaseException("Import stream ended inside a blob");
+                    }
+                    digest.update(buffer, 0, n);
+                    file.write(buffer, 0, n);
+                    left -= n;
+                }
+            }
+        }
+        String hash = HexFormat.of().formatHex(digest.digest());
+        Progress.current().add(1, size);
+        if (batch.containsKey(hash) || hashExists(hash, vcsDirectory)) {
+            Files.delete(temp);
+        } else if (size >= threshold || Chunker.isManifest(temp)) {
+            Chunker.write(temp.toFile(), hash, vcsDirectory);
+            Files.delete(temp);
+        } else {
+            batch.put(hash, temp);
+            if (batch.size() >= Pack.BATCH) {
+                Pack.store(batch, vcsDirectory);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Adds a tree or commit to the batch, unless the object store already has it
+     * @return hash of the object
+     */
+    private String writeObject(byte[] contents) throws Exception {
+        String hash = hash(contents);
+        if (!batch.containsKey(hash) && !hashExists(hash, vcsDirectory)) {
+            Path temp = tempFile(vcsDirectory);
+            Files.write(temp, contents);
+            batch.put(hash, temp);
+            if (batch.size() >= Pack.BATCH) {
+                Pack.store(batch, vcsDirectory);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Reads the contents of a data command into memory, for commit messages and delimited data
+     */
+    private byte[] readData(String line) throws Exception {
+        if (line != null && line.startsWith("data <<")) {
+            String delimiter = line.substring(7);
+            StringBuilder sb = new StringBuilder();
+            String next;
+            while (!(next = nextLine()).equals(delimiter)) {
+                sb.append(next).append("\n");
+            }
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+        long size = dataSize(line);
+        if (size > Integer.MAX_VALUE) {
+            throw new FailCaseException("Imported commit message is too long");
+        }
+        byte[] data = in.readNBytes((int) size);
+        if (data.length < size) {
+            throw new FailCaseException("Import stream ended inside a data command");
+        }
+        return data;
+    }
+
+    private static long dataSize(String line) throws Exception {
+        if (line == null || !line.startsWith("data ")) {
+            throw new FailCaseException("Expected a data command in import, found: " + line);
+        }
+        return Long.parseLong(line.substring(5).trim());
+    }
+
+    /**
+     * Reads the next line, skipping the blank line that may follow a data command
+     */
+    private String nextCommand() throws Exception {
+        String line = nextLine();
+        return line != null && line.isEmpty() ? nextLine() : line;
+    }
+
+    /**
+     * Reads a line of the stream, without its line feed
+     * @return the line, or null at the end of the stream
+     */
+    private String nextLine() throws Exception {
+        if (pushback != null) {
+            String line = pushback;
+            pushback = null;
+            return line;
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            }
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Unquotes a path and converts it to the separators of this system
+     */
+    private static String path(String raw) throws Exception {
+        return checkPath(raw.startsWith("\"") ? unquote(raw, new int[1]) : raw);
+    }
+
+    private static String checkPath(String path) throws Exception {
+        if (!isTreePath(path) || path.indexOf('\n') >= 0) {
+            throw new FailCaseException("Invalid path in import: " + path);
+        }
+        return path.replace('/', File.separatorChar);
+    }
+
+    /**
+     * Splits the two paths of a rename or copy command, either of which may be quoted
+     */
+    private static String[] splitPaths(String raw) throws Exception {
+        if (raw.startsWith("\"")) {
+            int[] end = new int[1];
+            String first = checkPath(unquote(raw, end));
+            return new String[] {first, path(raw.substring(end[0] + 1).trim())};
+        }
+        int split = raw.indexOf(' ');
+        return new String[] {path(raw.substring(0, split)), path(raw.substring(split + 1))};
+    }
+
+    /**
+     * Reads a quoted string with C style escapes
+     * @param end: set to the index of the closing quote
+     */
+    private static String unquote(String quoted, int[] end) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int i = 1;
+        while (i < quoted.length() && quoted.charAt(i) != '"') {
+            char c = quoted.charAt(i++);
+            if (c != '\\') {
+                bytes.writeBytes(String.valueOf(c).getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            char e = quoted.charAt(i++);
+            switch (e) {
+                case 'n' -> bytes.write('\n');
+                case 't' -> bytes.write('\t');
+                case 'r' -> bytes.write('\r');
+                case 'a' -> bytes.write(7);
+                case 'b' -> bytes.write('\b');
+                case 'f' -> bytes.write('\f');
+                case 'v' -> bytes.write(11);
+                default -> {
+                    if (e >= '0' && e <= '7') {
+                        bytes.write(Integer.parseInt(quoted.substring(i - 1, i + 2), 8));
+                        i += 2;
+                    } else {
+                        bytes.write(e);
+                    }
+                }
+            }
+        }
+        end[0] = i;
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+}
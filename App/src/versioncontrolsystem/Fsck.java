@@ -0,0 +1,289 @@
+package versioncontrolsystem;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Integrity check of a repository.
+ * Every object is rehashed on the worker pool, then the commits and trees are read to check that everything they
+ * point to exists, and the HEAD, branch pointers and AllCommits are checked to point at commits.
+ * A check that finds no problems saves its start time in .vcs/FsckCheckpoint, and later checks only look at
+ * objects modified since then. Objects are never changed once written, so older objects were already verified.
+ */
+public class Fsck extends VCSUtils {
+    private static final String CHECKPOINT = "FsckCheckpoint";
+    private final Path vcsDirectory;
+    private final Set<String> referenced = ConcurrentHashMap.newKeySet();  // hashes pointed to by anything checked
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<>());
+
+    public Fsck(Path vcsDirectory) {
+        this.vcsDirectory = vcsDirectory;
+    }
+
+    /**
+     * Checks the repository
+     * Objects are dangling if nothing checked points to them, so in an incremental check only new objects
+     * can be reported as dangling. Dangling objects aren't problems, and don't stop the checkpoint being saved.
+     * @param full: true to check every object, false to check the objects added since the last checkpoint
+     * @return list of problems and dangling objects, empty if the repository is fine
+     */
+    public List<String> check(boolean full) throws Exception {
+        long start = System.currentTimeMillis();
+        Path checkpoint = vcsDirectory.resolve(CHECKPOINT);
+        long since = !full && Files.exists(checkpoint) ? Long.parseLong(Files.readString(checkpoint).trim()) : 0;
+        Set<String> objects = listObjects(since);
+        rehash(objects);
+        Set<String> commits = new HashSet<>();
+        checkPointers(commits);
+        commits.add(hash(""));
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (String commit : commits) {
+            if (objects.contains(commit)) {
+                tasks.add(() -> checkCommit(commit, objects));
+            }
+        }
+        Set<String> trees = new HashSet<>();
+        for (Future<String> f : workers().invokeAll(tasks)) {
+            if (f.get() != null) {
+                trees.add(f.get());
+            }
+        }
+        tasks.clear();
+        for (String tree : trees) {
+            tasks.add(() -> checkTree(tree));
+        }
+        for (Future<String> f : workers().invokeAll(tasks)) {
+            f.get();
+        }
+        referenced.addAll(commits);
+        List<String> output = new ArrayList<>(problems);
+        Collections.sort(output);
+        boolean verified = output.isEmpty();
+        List<String> dangling = new ArrayList<>();
+        for (String hash : objects) {
+            if (!referenced.contains(hash)) {
+                dangling.add("dangling object " + hash);
+            }
+        }
+        Collections.sort(dangling);
+        output.addAll(dangling);
+        if (verified) {
+            Path temp = vcsDirectory.resolve(CHECKPOINT + ".tmp");
+            Files.writeString(temp, Long.toString(start));
+            Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return output;
+    }
+
+    /**
+     * Lists the objects modified at or after a time
+     * Files in the object store that aren't named like objects are reported
+     * @param since: time in milliseconds, 0 for every object
+     * @return set of object hashes
+     */
+    private Set<String> listObjects(long since) throws Exception {
+        Set<String> output = new HashSet<>();
+        try (Stream<Path> dirs = Files.list(vcsDirectory.resolve("Objects"))) {
+            for (Path dir : dirs.toList()) {
+                String prefix = dir.getFileName().toString();
+                if (!Files.isDirectory(dir) || !isHash(prefix, 2)) {
+                    problems.add("unexpected file Objects/" + prefix);
+                    continue;
+                }
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : files.toList()) {
+                        String name = file.getFileName().toString();
+                        if (!isHash(name, 38)) {
+                            problems.add("unexpected file Objects/" + prefix + "/" + name);
+                        } else if (since == 0 || Files.getLastModifiedTime(file).toMillis() >= since) {
+                            output.add(prefix + name);
+                        }
+                    }
+                }
+            }
+        }
+        return output;
+    }
+
+    private static boolean isHash(String s, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rehashes objects in parallel, reporting every object whose contents don't match its name
+     */
+    private void rehash(Set<String> objects) throws Exception {
+        List<Callable<Void>> tasks = new ArrayList<>(objects.size());
+        for (String hash : objects) {
+            tasks.add(() -> {
+                Path object = findHash(hash, vcsDirectory);
+                if (Chunker.isManifest(object)) {
+                    checkChunks(hash);
+                } else if (!hash.equals(hash(object.toFile()))) {
+                    problems.add("corrupt object " + hash);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> f : workers().invokeAll(tasks)) {
+            f.get();
+        }
+    }
+
+    /**
+     * Checks that every chunk of a chunked blob exists, and that together they match the blob's hash
+     * @param hash: hash of the blob
+     */
+    private void checkChunks(String hash) throws Exception {
+        boolean missing = false;
+        for (Chunker.Chunk chunk : Chunker.chunks(hash, vcsDirectory)) {
+            referenced.add(chunk.hash);
+            if (!Files.exists(findHash(chunk.hash, vcsDirectory))) {
+                problems.add(String.format("missing chunk %s of blob %s", chunk.hash, hash));
+                missing = true;
+            }
+        }
+        if (missing) {
+            return;
+        }
+        try (InputStream in = Chunker.open(hash, vcsDirectory)) {
+            if (!hash.equals(hash(in))) {
+                problems.add("corrupt object " + hash);
+            }
+        }
+    }
+
+    /**
+     * Checks that HEAD points to a branch, and that the branch pointers, AllCommits and the Index point to objects
+     * @param commits: receives the hashes of every commit pointed to
+     */
+    private void checkPointers(Set<String> commits) throws Exception {
+        String head = Files.readString(vcsDirectory.resolve("HEAD")).trim();
+        Path branches = vcsDirectory.resolve("Branches");
+        if (head.isEmpty() || !Files.exists(Path.of(head))
+                || !Path.of(head).toAbsolutePath().getParent().equals(branches.toAbsolutePath())) {
+            problems.add("HEAD points to a missing branch " + head);
+        }
+        try (Stream<Path> walk = Files.list(branches)) {
+            for (Path p : walk.toList()) {
+                String hash = Files.readString(p).trim();
+                if (!isCommit(hash)) {
+                    problems.add(String.format("branch %s points to a missing commit %s", p.getFileName(), hash));
+                } else {
+                    commits.add(hash);
+                }
+            }
+        }
+        for (String hash : Files.readAllLines(vcsDirectory.resolve("AllCommits"))) {
+            if (!isCommit(hash.trim())) {
+                problems.add("AllCommits lists a missing commit " + hash);
+            } else {
+                commits.add(hash.trim());
+            }
+        }
+        for (String line : Files.readAllLines(vcsDirectory.resolve("Index"))) {
+            String hash = line.substring(line.length() - 42, line.length() - 2);
+            if (hash.startsWith("_")) {
+                continue;
+            }
+            referenced.add(hash);
+            if (!Files.exists(findHash(hash, vcsDirectory))) {
+                problems.add(String.format("missing blob %s for %s in the Index", hash, line.substring(0, line.length() - 43)));
+            }
+        }
+    }
+
+    private boolean isCommit(String hash) {
+        return isHash(hash, 40) && Files.exists(findHash(hash, vcsDirectory));
+    }
+
+    /**
+     * Checks that a commit's tree and parents exist
+     * @param hash: hash of the commit
+     * @param objects: objects being checked
+     * @return hash of the commit's tree if it needs checking, otherwise null
+     */
+    private String checkCommit(String hash, Set<String> objects) throws Exception {
+        List<String> header = new ArrayList<>();
+        int sections = 0;
+        try (BufferedReader reader = Files.newBufferedReader(findHash(hash, vcsDirectory))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals("===")) {
+                    sections++;
+                } else if (sections == 0) {
+                    header.add(line);
+                }
+            }
+        }
+        if (header.isEmpty() && sections == 0) {
+            return null;  // the initial commit
+        }
+        if (header.size() < 5 || sections < 5) {
+            problems.add("malformed commit " + hash);
+            return null;
+        }
+        List<String> parents = new ArrayList<>();
+        parents.add(header.get(1));
+        if (header.size() > 5) {
+            parents.add(header.get(5));
+        }
+        for (String parent : parents) {
+            if (parent.isEmpty()) {
+                continue;
+            }
+            referenced.add(parent);
+            if (!isCommit(parent)) {
+                problems.add(String.format("missing parent %s of commit %s", parent, hash));
+            }
+        }
+        String tree = header.get(0);
+        referenced.add(tree);
+        if (!isHash(tree, 40) || !Files.exists(findHash(tree, vcsDirectory))) {
+            problems.add(String.format("missing tree %s of commit %s", tree, hash));
+            return null;
+        }
+        return objects.contains(tree) ? tree : null;
+    }
+
+    /**
+     * Checks that every blob in a tree exists
+     * @param hash: hash of the tree
+     * @return null
+     */
+    private String checkTree(String hash) throws Exception {
+        try (BufferedReader reader = Files.newBufferedReader(findHash(hash, vcsDirectory))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() < 42 || line.charAt(line.length() - 41) != ' ') {
+                    problems.add("malformed tree " + hash);
+                    return null;
+                }
+                String blob = line.substring(line.length() - 40);
+                referenced.add(blob);
+                if (!Files.exists(findHash(blob, vcsDirectory))) {
+                    problems.add(String.format("missing blob %s for %s in tree %s", blob,
+                            line.substring(0, line.length() - 41), hash));
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,300 @@
+package versioncontrolsystem;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+/**
+ * Mark and sweep garbage collector for the object store.
+ * Every object is given an id by its position in the sorted list of object hashes, and reachable objects are
+ * marked in a bitset of those ids. Commits and trees are read on the worker pool, one wave of the history at a time.
+ * Unreachable objects are only deleted once they are older than the grace period, so objects that another process
+ * has just written, but not yet referenced from the Index or a commit, are never deleted.
+ */
+public class GarbageCollector extends VCSUtils {
+    public static final Duration GRACEPERIOD = Duration.ofHours(1);
+    private static final int COMMIT = 0;
+    private static final int TREE = 1;
+    private final Path vcsDirectory;
+    private final Duration gracePeriod;
+    private String[] ids;  // sorted hashes of every object that existed when the collection started
+    private AtomicLongArray marked;  // reachable objects
+    private AtomicLongArray expanded;  // commits and trees that have been read
+    private Progress progress;  // progress of the request running the collection
+
+    public GarbageCollector(Path vcsDirectory) {
+        this(vcsDirectory, GRACEPERIOD);
+    }
+    public GarbageCollector(Path vcsDirectory, Duration gracePeriod) {
+        this.vcsDirectory = vcsDirectory;
+        this.gracePeriod = gracePeriod;
+    }
+
+    /**
+     * Deletes every object that can't be reached from the Index, a branch head or AllCommits
+     * The object store is listed before the roots are read, and the roots are read in the order the other
+     * process writes them (Index, then Branches, then AllCommits), so a commit made during the collection
+     * is either found or only uses objects that are too new to be deleted.
+     * @return number of objects deleted
+     */
+    public int collect() throws Exception {
+        progress = Progress.current();
+        Instant cutoff = Instant.now().minus(gracePeriod);
+        ids = listObjects();
+        marked = new AtomicLongArray((ids.length + 63) / 64);
+        expanded = new AtomicLongArray((ids.length + 63) / 64);
+        List<Reference> roots = new ArrayList<>();
+        for (String line : Files.readAllLines(vcsDirectory.resolve("Index"))) {
+            String hash = line.substring(line.length() - 42, line.length() - 2);
+            if (!hash.startsWith("_")) {
+                markBlob(hash);
+            }
+        }
+        try (Stream<Path> walk = Files.list(vcsDirectory.resolve("Branches"))) {
+            for (Path p : walk.toList()) {
+                roots.add(new Reference(Files.readString(p).trim(), COMMIT));
+            }
+        }
+        for (String line : Files.readAllLines(vcsDirectory.resolve("AllCommits"))) {
+            roots.add(new Reference(line.trim(), COMMIT));
+        }
+        roots.add(new Reference(hash(""), COMMIT));
+        markAll(roots);
+        progress.check();
+        int deleted = sweep(cutoff);
+        sweepSidecars();
+        return deleted;
+    }
+
+    private String[] listObjects() throws Exception {
+        List<String> list = new ArrayList<>();
+        try (Stream<Path> dirs = Files.list(vcsDirectory.resolve("Objects"))) {
+            for (Path dir : dirs.toList()) {
+                if (!Files.isDirectory(dir)) {
+                    continue;
+                }
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : files.toList()) {
+                        list.add(dir.getFileName().toString() + file.getFileName().toString());
+                    }
+                }
+            }
+        }
+        String[] output = list.toArray(new String[0]);
+        Arrays.sort(output);
+        return output;
+    }
+
+    /**
+     * Marks the roots, and everything reachable from them, one wave at a time
+     * Each wave reads its commits and trees in parallel, and returns the commits and trees they point to
+     * The collection can be cancelled between waves, since nothing has been deleted yet.
+     */
+    private void markAll(List<Reference> roots) throws Exception {
+        List<Reference> wave = roots;
+        while (!wave.isEmpty()) {
+            progress.check();
+            List<Callable<List<Reference>>> tasks = new ArrayList<>(wave.size());
+            for (Reference r : wave) {
+                tasks.add(() -> r.kind == COMMIT ? readCommit(r.hash) : readTree(r.hash));
+            }
+            List<Reference> next = new ArrayList<>();
+            for (Future<List<Reference>> f : workers().invokeAll(tasks)) {
+                next.addAll(f.get());
+            }
+            wave = next;
+        }
+    }
+
+    private List<Reference> readCommit(String hash) throws Exception {
+        mark(hash);
+        if (!expand(hash)) {
+            return List.of();
+        }
+        progress.add(1, 0);
+        List<Reference> output = new ArrayList<>(3);
+        try (BufferedReader reader = Files.newBufferedReader(findHash(hash, vcsDirectory))) {
+            List<String> header = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals("===")) {
+                header.add(line);
+            }
+            if (header.size() > 0) {
+                output.add(new Reference(header.get(0), TREE));
+            }
+            if (header.size() > 1 && !header.get(1).isEmpty()) {
+                output.add(new Reference(header.get(1), COMMIT));
+            }
+            if (header.size() > 5 && !header.get(5).isEmpty()) {
+                output.add(new Reference(header.get(5), COMMIT));
+            }
+        }
+        return output;
+    }
+
+    private List<Reference> readTree(String hash) throws Exception {
+        mark(hash);
+        if (!expand(hash)) {
+            return List.of();
+        }
+        progress.add(1, 0);
+        try (BufferedReader reader = Files.newBufferedReader(findHash(hash, vcsDirectory))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() >= 40) {
+                    markBlob(line.substring(line.length() - 40));
+                }
+            }
+        }
+        return List.of();
+    }
+
+    /**
+     * Marks an object as reachable
+     * @param hash: hash of the object
+     * @return true if the object wasn't already marked
+     */
+    private boolean mark(String hash) {
+        return set(marked, Arrays.binarySearch(ids, hash));
+    }
+
+    /**
+     * Marks a blob, and its chunks if it was saved in chunks
+     * Blobs written after the collection started are always read, like in expand, since their chunks may be older
+     * @param hash: hash of the blob
+     */
+    private void markBlob(String hash) throws Exception {
+        Path object = findHash(hash, vcsDirectory);
+        if (Arrays.binarySearch(ids, hash) >= 0 ? !mark(hash) : !Files.exists(object)) {
+            return;
+        }
+        if (!Chunker.isManifest(object)) {
+            return;
+        }
+        for (Chunker.Chunk chunk : Chunker.chunks(hash, vcsDirectory)) {
+            mark(chunk.hash);
+        }
+    }
+
+    /**
+     * Claims a commit or tree to be read, so each one is only read once
+     * Objects written after the collection started are always read, since they may point to older objects
+     * @param hash: hash of the object
+     * @return true if the object should be read
+     */
+    private boolean expand(String hash) {
+        int id = Arrays.binarySearch(ids, hash);
+        if (id < 0) {
+            return Files.exists(findHash(hash, vcsDirectory));
+        }
+        return set(expanded, id);
+    }
+
+    private static boolean set(AtomicLongArray bits, int id) {
+        if (id < 0) {
+            return false;
+        }
+        int word = id >>> 6;
+        long bit = 1L << (id & 63);
+        while (true) {
+            long old = bits.get(word);
+            if ((old & bit) != 0) {
+                return false;
+            }
+            if (bits.compareAndSet(word, old, old | bit)) {
+                return true;
+            }
+        }
+    }
+
+    private static boolean get(AtomicLongArray bits, int id) {
+        return (bits.get(id >>> 6) & (1L << (id & 63))) != 0;
+    }
+
+    /**
+     * Deletes the unmarked objects that are older than the cutoff
+     * Objects that can't be deleted, because another process has them open, are left for the next collection
+     * A cancelled sweep stops where it is, leaving the rest of the unreachable objects for the next collection.
+     * @return number of objects deleted
+     */
+    private int sweep(Instant cutoff) throws Exception {
+        AtomicInteger deleted = new AtomicInteger();
+        int processors = Runtime.getRuntime().availableProcessors();
+        int chunk = Math.max(1, (ids.length + processors - 1) / processors);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < ids.length; start += chunk) {
+            int from = start;
+            int to = Math.min(ids.length, start + chunk);
+            tasks.add(() -> {
+                for (int id = from; id < to && !progress.isCancelled(); id++) {
+                    if (get(marked, id)) {
+                        continue;
+                    }
+                    Path p = findHash(ids[id], vcsDirectory);
+                    try {
+                        long size = Files.size(p);
+                        if (Files.getLastModifiedTime(p).toInstant().isBefore(cutoff) && Files.deleteIfExists(p)) {
+                            deleted.incrementAndGet();
+                            progress.add(1, size);
+                        }
+                    } catch (IOException ignored) {
+                    }
+                }
+                return null;
+            });
+        }
+        for (Future<Void> f : workers().invokeAll(tasks)) {
+            f.get();
+        }
+        progress.check();
+        return deleted.get();
+    }
+
+    /**
+     * Deletes the files saved alongside objects (changed path filters, sketches and blame results)
+     * whose objects no longer exist
+     */
+    private void sweepSidecars() throws Exception {
+        for (String name : new String[] {"ChangedPaths", "Sketches", "Blame"}) {
+            Path dir = vcsDirectory.resolve(name);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path p : files.toList()) {
+                    for (String hash : p.getFileName().toString().split("_")) {
+                        if (hash.length() == 40 && !Files.exists(findHash(hash, vcsDirectory))) {
+                            try {
+                                Files.deleteIfExists(p);
+                            } catch (IOException ignored) {
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A commit or tree waiting to be read
+     */
+    private static class Reference {
+        final String hash;
+        final int kind;
+
+        Reference(String hash, int kind) {
+            this.hash = hash;
+            this.kind = kind;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package versioncontrolsystem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Ignore rules read from the .vcsignore files of a directory and the directories above it.
+ * Each line is a gitignore style pattern:
+ *      *  blank lines and lines starting with # are skipped, \# and \! start a pattern with # or !
+ *      *  ! re-includes paths an earlier pattern ignored
+ *      *  a trailing / only matches directories
+ *      *  a pattern with a / anywhere but the end is relative to the directory of the .vcsignore file,
+ *      *  otherwise it matches a name at any depth below it
+ *      *  * and ? match within a name, [...] matches a set of characters, and ** matches any number of directories
+ * The last matching pattern wins, and patterns in a deeper .vcsignore win over the ones above it.
+ * Each file's patterns are compiled to regular expressions once, and reused until the file changes.
+ */
+public class IgnoreRules {
+    public static final String FILENAME = ".vcsignore";
+    private static final Map<Path, Compiled> COMPILED = new ConcurrentHashMap<>();  // .vcsignore file : its patterns
+    private final IgnoreRules parent;
+    private final String base;  // directory of the .vcsignore file relative to the working directory, / separated
+    private final List<Rule> rules;
+    private final String fingerprint;  // the .vcsignore files these rules were read from, with their stamps
+
+    private IgnoreRules(IgnoreRules parent, String base, List<Rule> rules, String fingerprint) {
+        this.parent = parent;
+        this.base = base;
+        this.rules = rules;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Returns rules that ignore nothing, for the parent of the working directory
+     */
+    public static IgnoreRules none() {
+        return new IgnoreRules(null, "", List.of(), "");
+    }
+
+    /**
+     * Adds the rules of a directory's .vcsignore file, if it has one
+     * @param directory: the directory
+     * @param relative: path of the directory relative to the working directory, / separated, empty for the root
+     * @return rules for paths in the directory
+     */
+    public IgnoreRules enter(Path directory, String relative) throws IOException {
+        Path file = directory.resolve(FILENAME);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return this;
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+        Compiled compiled = COMPILED.get(file);
+        if (compiled == null || compiled.modified != modified || compiled.size != attributes.size()) {
+            compiled = new Compiled(modified, attributes.size(), compile(Files.readAllLines(file)));
+            COMPILED.put(file, compiled);
+        }
+        if (compiled.rules.isEmpty()) {
+            return this;
+        }
+        String stamp = String.format("%s/%s:%d:%d;", relative, FILENAME, modified, attributes.size());
+        return new IgnoreRules(this, relative, compiled.rules, fingerprint + stamp);
+    }
+
+    /**
+     * Returns a string that changes whenever any of the .vcsignore files these rules were read from changes
+     * @return fingerprint of the rules
+     */
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Checks whether a path is ignored
+     * @param relative: path relative to the working directory, / separated
+     * @param directory: true if the path is a directory
+     * @return true if the path is ignored
+     */
+    public boolean isIgnored(String relative, boolean directory) {
+        String local = base.isEmpty() ? relative : relative.substring(base.length() + 1);
+        for (int i = rules.size() - 1; i >= 0; i--) {
+            Rule rule = rules.get(i);
+            if ((directory || !rule.directoryOnly) && rule.pattern.matcher(local).matches()) {
+                return !rule.negated;
+            }
+        }
+        return parent != null && parent.isIgnored(relative, directory);
+    }
+
+    static List<Rule> compile(List<String> lines) {
+        List<Rule> output = new ArrayList<>();
+        for (String line : lines) {
+            String pattern = line.stripTrailing();
+            if (pattern.isEmpty() || pattern.startsWith("#")) {
+                continue;
+            }
+            boolean negated = pattern.startsWith("!");
+            if (negated || pattern.startsWith("\\#") || pattern.startsWith("\\!")) {
+                pattern = pattern.substring(1);
+            }
+            boolean directoryOnly = pattern.endsWith("/");
+            if (directoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            boolean anchored = pattern.contains("/");
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            if (pattern.isEmpty()) {
+                continue;
+            }
+            String regex = (anchored ? "" : "(?:.*/)?") + toRegex(pattern);
+            output.add(new Rule(Pattern.compile(regex), negated, directoryOnly));
+        }
+        return output;
+    }
+
+    /**
+     * Translates a glob to a regular expression
+     * @param glob: pattern without a leading or trailing /
+     * @return regular expression matching the same paths
+     */
+    private static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (glob.startsWith("**", i)) {
+                boolean start = i == 0 || glob.charAt(i - 1) == '/';
+                boolean end = i + 2 == glob.length() || glob.charAt(i + 2) == '/';
+                if (start && end) {
+                    if (i + 2 == glob.length()) {
+                        sb.append(".*");  // a/** matches everything inside a
+                        i += 2;
+                    } else {
+                        sb.append("(?:.*/)?");  // **/ matches zero or more directories
+                        i += 3;
+                    }
+                    continue;
+                }
+                sb.append("[^/]*");
+                i += 2;
+            } else if (c == '*') {
+                sb.append("[^/]*");
+                i++;
+            } else if (c == '?') {
+                sb.append("[^/]");
+                i++;
+            } else if (c == '[' && glob.indexOf(']', i + 2) > 0) {
+                int close = glob.indexOf(']', i + 2);
+                String set = glob.substring(i + 1, close);
+                sb.append('[');
+                if (set.startsWith("!") || set.startsWith("^")) {
+                    sb.append("^/");
+                    set = set.substring(1);
+                }
+                sb.append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+                i = close + 1;
+            } else if (c == '\\' && i + 1 < glob.length()) {
+                literal(sb, glob.charAt(i + 1));
+                i += 2;
+            } else {
+                literal(sb, c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a character that matches itself, escaped unless it is a letter or digit
+     */
+    private static void literal(StringBuilder sb, char c) {
+        if (!Character.isLetterOrDigit(c)) {
+            sb.append('\\');
+        }
+        sb.append(c);
+    }
+
+    static class Rule {
+        final Pattern pattern;
+        final boolean negated;
+        final boolean directoryOnly;
+
+        Rule(Pattern pattern, boolean negated, boolean directoryOnly) {
+            this.pattern = pattern;
+            this.negated = negated;
+            this.directoryOnly = directoryOnly;
+        }
+    }
+
+    private static class Compiled {
+        final long modified;
+        final long size;
+        final List<Rule> rules;
+
+        Compiled(long modified, long size, List<Rule> rules) {
+            this.modified = modified;
+            this.size = size;
+            this.rules = rules;
+        }
+    }
+}
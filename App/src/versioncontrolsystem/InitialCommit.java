@@ -24,4 +24,8 @@ public class InitialCommit extends Commit{
     public Commit parentCommit() {
         return null;
     }
+    @Override
+    public boolean mightHaveChanged(String path) {
+        return false;
+    }
 }
@@ -0,0 +1,347 @@
+package versioncontrolsystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write ahead journal for changes to the branch pointers, Index and AllCommits.
+ * A transaction is saved to .vcs/Journal, which ends with a checksum, and the journal is synced to disk in the same
+ * round of fsyncs as the objects the transaction needs, so a commit costs one round of fsyncs however many files it
+ * touches. Only then are the changes made, each by renaming a temporary file over the old one, and the journal is
+ * deleted. Opening a repository with a journal left over finishes the transaction, unless the journal is incomplete
+ * or one of its objects didn't make it to disk, in which case none of the changes were made and it is thrown away.
+ *      *  require	[hash]
+ *      *  write	[path]	[length]
+ *      *  [contents]
+ *      *  append	[path]	[line]  for each line added to the file
+ *      *  end	[checksum]
+ */
+public class Journal extends VCSUtils {
+    private final Path vcsDirectory;
+    private final Path file;
+
+    public Journal(Path vcsDirectory) {
+        this.vcsDirectory = vcsDirectory;
+        this.file = vcsDirectory.resolve("Journal");
+    }
+
+    /**
+     * Finishes or throws away a transaction left over by a crash, and deletes leftover temporary files
+     */
+    public void recover() throws Exception {
+        if (Files.exists(file)) {
+            Transaction t = parse(Files.readAllBytes(file));
+            if (t != null && t.durable()) {
+                t.apply();
+            }
+            Files.delete(file);
+        }
+        Path temp = vcsDirectory.resolve("Temp");
+        if (Files.isDirectory(temp)) {
+            try (Stream<Path> files = Files.list(temp)) {
+                for (Path p : files.toList()) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+    }
+
+    public Transaction begin() {
+        return new Transaction();
+    }
+
+    /**
+     * Changes to make together
+     */
+    public class Transaction {
+        private final Set<String> required = new LinkedHashSet<>();
+        private final Map<Path, byte[]> writes = new LinkedHashMap<>();
+        private final Map<Path, List<String>> appends = new LinkedHashMap<>();
+
+        private Transaction() {
+        }
+
+        /**
+         * Adds an object that has to be on disk before the changes are made
+         * @param hash: hash of the object
+         */
+        public void require(String hash) {
+            required.add(hash);
+        }
+
+        /**
+         * Replaces the contents of a file
+         * @param path: the file
+         * @param contents: new contents
+         */
+        public void write(Path path, String contents) {
+            writes.put(path.toAbsolutePath(), contents.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Adds a line to the end of a file, unless it's already the last line
+         * @param path: the file
+         * @param line: line to add, without a line feed
+         */
+        public void append(Path path, String line) {
+            append(path, List.of(line));
+        }
+
+        /**
+         * Adds lines to the end of a file, unless they're already its last lines
+         * @param path: the file
+         * @param lines: lines to add, without line feeds
+         */
+        public void append(Path path, List<String> lines) {
+            appends.computeIfAbsent(path.toAbsolutePath(), p -> new ArrayList<>()).addAll(lines);
+        }
+
+        /**
+         * Saves the journal, syncs it and the required objects to disk in one round, then makes the changes
+         */
+        public void commit() throws Exception {
+            byte[] journal = serialize();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.wrap(journal));
+                List<Callable<Void>> syncs = new ArrayList<>();
+                syncs.add(() -> {
+                    channel.force(true);
+                    return null;
+                });
+                Map<Path, Path> temps = new LinkedHashMap<>();  // file : temporary file with its new contents
+                for (Map.Entry<Path, byte[]> entry : writes.entrySet()) {
+                    Path temp = tempFile(vcsDirectory);
+                    Files.write(temp, entry.getValue());
+                    temps.put(entry.getKey(), temp);
+                    syncs.add(() -> {
+                        sync(temp);
+                        return null;
+                    });
+                }
+                Set<Path> directories = new HashSet<>();
+                directories.add(vcsDirectory);
+                for (Path object : objects()) {
+                    directories.add(object.getParent());
+                    syncs.add(() -> {
+                        sync(object);
+                        return null;
+                    });
+                }
+                for (Path directory : directories) {
+                    syncs.add(() -> {
+                        syncDirectory(directory);
+                        return null;
+                    });
+                }
+                for (Future<Void> f : workers().invokeAll(syncs)) {
+                    f.get();
+                }
+                for (Map.Entry<Path, Path> entry : temps.entrySet()) {
+                    Files.move(entry.getValue(), entry.getKey(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+            appendLines();
+            Files.delete(file);
+        }
+
+        /**
+         * Returns the files of the required objects, including the chunks of chunked blobs
+         * Objects in a shared object store were already on disk before this repository could use them
+         */
+        private List<Path> objects() throws Exception {
+            List<Path> output = new ArrayList<>();
+            for (String hash : required) {
+                Path object = findHash(hash, vcsDirectory);
+                output.add(object);
+                if (Chunker.isManifest(object)) {
+                    for (Chunker.Chunk chunk : Chunker.chunks(hash, vcsDirectory)) {
+                        output.add(findHash(chunk.hash, vcsDirectory));
+                    }
+                }
+            }
+            output.removeIf(object -> !object.startsWith(vcsDirectory.resolve("Objects")));  // shared objects
+            return output;
+        }
+
+        /**
+         * Checks that every required object is on disk and complete
+         * @return false if the transaction has to be thrown away
+         */
+        private boolean durable() throws Exception {
+            for (String hash : required) {
+                Path object = findHash(hash, vcsDirectory);
+                if (!Files.exists(object)) {
+                    return false;
+                }
+                if (Chunker.isManifest(object)) {
+                    for (Chunker.Chunk chunk : Chunker.chunks(hash, vcsDirectory)) {
+                        if (!Files.exists(findHash(chunk.hash, vcsDirectory))) {
+                            return false;
+                        }
+                    }
+                } else if (!hash.equals(hash(object.toFile()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void apply() throws Exception {
+            for (Map.Entry<Path, byte[]> entry : writes.entrySet()) {
+                writeAtomically(entry.getKey(), entry.getValue(), vcsDirectory);
+            }
+            appendLines();
+        }
+
+        private void appendLines() throws Exception {
+            for (Map.Entry<Path, List<String>> entry : appends.entrySet()) {
+                StringBuilder sb = new StringBuilder();
+                for (String line : entry.getValue()) {
+                    sb.append(line).append("\n");
+                }
+                byte[] lines = sb.toString().getBytes(StandardCharsets.UTF_8);
+                if (!endsWith(entry.getKey(), lines)) {
+                    Files.write(entry.getKey(), lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+            }
+        }
+
+        private byte[] serialize() throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (String hash : required) {
+                out.write(("require\t" + hash + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            for (Map.Entry<Path, byte[]> entry : writes.entrySet()) {
+                out.write(String.format("write\t%s\t%d\n", entry.getKey(), entry.getValue().length)
+                        .getBytes(StandardCharsets.UTF_8));
+                out.write(entry.getValue());
+                out.write('\n');
+            }
+            for (Map.Entry<Path, List<String>> entry : appends.entrySet()) {
+                for (String line : entry.getValue()) {
+                    out.write(String.format("append\t%s\t%s\n", entry.getKey(), line).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            CRC32 crc = new CRC32();
+            crc.update(out.toByteArray());
+            out.write(String.format("end\t%08x\n", crc.getValue()).getBytes(StandardCharsets.UTF_8));
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Reads a saved journal
+     * @param bytes: contents of the journal
+     * @return the transaction, or null if the journal is incomplete
+     */
+    private Transaction parse(byte[] bytes) {
+        try {
+            return parse(bytes, new Transaction());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+    private Transaction parse(byte[] bytes, Transaction t) {
+        int i = 0;
+        while (i < bytes.length) {
+            int end = indexOf(bytes, i);
+            if (end < 0) {
+                return null;
+            }
+            String[] parts = new String(bytes, i, end - i, StandardCharsets.UTF_8).split("\t");
+            int start = i;
+            i = end + 1;
+            switch (parts[0]) {
+                case "require" -> t.require(parts[1]);
+                case "write" -> {
+                    int length = Integer.parseInt(parts[2]);
+                    if (i + length + 1 > bytes.length) {
+                        return null;
+                    }
+                    t.writes.put(Path.of(parts[1]), Arrays.copyOfRange(bytes, i, i + length));
+                    i += length + 1;
+                }
+                case "append" -> t.append(Path.of(parts[1]), parts[2]);
+                case "end" -> {
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes, 0, start);
+                    return String.format("%08x", crc.getValue()).equals(parts[1]) ? t : null;
+                }
+                default -> {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(byte[] bytes, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether a file ends with the given lines, reading only its end
+     * @param path: the file
+     * @param lines: the lines, each ending with a line feed
+     * @return true if the file ends with the lines, and they start at the beginning of a line
+     */
+    static boolean endsWith(Path path, byte[] lines) throws IOException {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < lines.length) {
+                return false;
+            }
+            int length = size > lines.length ? lines.length + 1 : lines.length;  // with the line feed before
+            ByteBuffer tail = ByteBuffer.allocate(length);
+            long position = size - length;
+            while (tail.hasRemaining() && channel.read(tail, position + tail.position()) >= 0) {
+                // keep reading until the tail is full
+            }
+            byte[] bytes = tail.array();
+            int offset = length - lines.length;
+            if (offset == 1 && bytes[0] != '\n') {
+                return false;
+            }
+            return Arrays.equals(bytes, offset, length, lines, 0, lines.length);
+        }
+    }
+
+    static void sync(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Syncs a directory, so that files created in it survive a crash
+     * Windows can't open directories, and doesn't need to
+     */
+    private static void syncDirectory(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package versioncontrolsystem;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The lines of a blob or file, read without copying them onto the heap.
+ * Objects are memory mapped straight from the object store, working files are read into a buffer.
+ * Binary files, and files over MAXSIZE bytes, aren't split into lines at all.
+ */
+public class LineSequence {
+    public static final long MAXSIZE = 32L * 1024 * 1024;  // largest file that will be diffed
+    private static final int BINARYCHECK = 8000;  // number of bytes checked for a NUL byte
+    private final ByteBuffer buffer;
+    private final int[] starts;  // offset of the start of each line, followed by the end of the buffer
+    public final boolean binary;
+    public final boolean tooLarge;
+
+    private LineSequence(ByteBuffer buffer, boolean tooLarge) {
+        this.tooLarge = tooLarge;
+        this.buffer = buffer;
+        this.binary = !tooLarge && isBinary(buffer);
+        if (tooLarge || binary) {
+            this.starts = new int[] {0};
+            return;
+        }
+        int[] s = new int[64];
+        int count = 0;
+        int limit = buffer.limit();
+        s[count++] = 0;
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) == '\n' && i + 1 < limit) {
+                if (count == s.length) {
+                    s = Arrays.copyOf(s, count * 2);
+                }
+                s[count++] = i + 1;
+            }
+        }
+        if (limit == 0) {
+            count = 0;
+        }
+        s = Arrays.copyOf(s, count + 1);
+        s[count] = limit;
+        this.starts = s;
+    }
+
+    /**
+     * Memory maps a saved object
+     * Chunked blobs are read onto the heap instead, since their chunks aren't next to each other
+     * @param hash: hash of the object, or null for an empty sequence
+     * @param vcsDirectory: path to the .vcs directory
+     * @return line sequence object
+     */
+    public static LineSequence ofObject(String hash, Path vcsDirectory) throws Exception {
+        if (hash == null) {
+            return empty();
+        }
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(VCSUtils.findHash(hash, vcsDirectory), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAXSIZE) {
+                return new LineSequence(ByteBuffer.allocate(0), true);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buffer.limit() >= Chunker.MAGIC.length && buffer.slice(0, Chunker.MAGIC.length).equals(ByteBuffer.wrap(Chunker.MAGIC))) {
+            if (Chunker.size(hash, vcsDirectory) > MAXSIZE) {
+                return new LineSequence(ByteBuffer.allocate(0), true);
+            }
+            try (InputStream in = Chunker.open(hash, vcsDirectory)) {
+                buffer = ByteBuffer.wrap(in.readAllBytes());
+            }
+        }
+        return new LineSequence(buffer, false);
+    }
+
+    /**
+     * Reads a file in the working directory
+     * Working files aren't memory mapped, so the file isn't locked against editing while it's being diffed
+     * @param path: path to the file, or null for an empty sequence
+     * @return line sequence object
+     */
+    public static LineSequence ofFile(Path path) throws Exception {
+        if (path == null || !Files.exists(path)) {
+            return empty();
+        }
+        if (Files.size(path) > MAXSIZE) {
+            return new LineSequence(ByteBuffer.allocate(0), true);
+        }
+        return new LineSequence(ByteBuffer.wrap(Files.readAllBytes(path)), false);
+    }
+
+    public static LineSequence empty() {
+        return new LineSequence(ByteBuffer.allocate(0), false);
+    }
+
+    private static boolean isBinary(ByteBuffer buffer) {
+        int limit = Math.min(buffer.limit(), BINARYCHECK);
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of lines
+     * @return number of lines, 0 for binary or oversized files
+     */
+    public int size() {
+        return starts.length - 1;
+    }
+
+    /**
+     * Returns a line, without its line feed
+     * @param i: index of the line
+     * @return string of the line
+     */
+    public String line(int i) {
+        int start = starts[i];
+        int end = end(i);
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of bytes in the sequence
+     * @return number of bytes
+     */
+    public int bytes() {
+        return buffer.limit();
+    }
+
+    private int end(int i) {
+        int end = starts[i + 1];
+        if (end > starts[i] && buffer.get(end - 1) == '\n') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Returns a hash of a line's bytes, without its line feed
+     * @param i: index of the line
+     * @return hash of the line
+     */
+    int lineHash(int i) {
+        int h = 1;
+        for (int k = starts[i], end = end(i); k < end; k++) {
+            h = 31 * h + buffer.get(k);
+        }
+        return h;
+    }
+
+    private boolean equals(int i, LineSequence other, int j) {
+        int start = starts[i];
+        int length = end(i) - start;
+        int otherStart = other.starts[j];
+        if (length != other.end(j) - otherStart) {
+            return false;
+        }
+        return buffer.slice(start, length).equals(other.buffer.slice(otherStart, length));
+    }
+
+    /**
+     * Numbers the lines of two sequences, so that equal lines get equal ids
+     * @param a: first line sequence
+     * @param b: second line sequence
+     * @return {ids of the lines of a, ids of the lines of b}
+     */
+    public static int[][] ids(LineSequence a, LineSequence b) {
+        Map<Line, Integer> ids = new HashMap<>();
+        int[][] output = {new int[a.size()], new int[b.size()]};
+        LineSequence[] sequences = {a, b};
+        for (int s = 0; s < 2; s++) {
+            for (int i = 0; i < output[s].length; i++) {
+                output[s][i] = ids.computeIfAbsent(new Line(sequences[s], i), k -> ids.size());
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Key for a line, compared by its bytes without copying them
+     */
+    private static class Line {
+        private final LineSequence sequence;
+        private final int index;
+        private final int hash;
+
+        Line(LineSequence sequence, int index) {
+            this.sequence = sequence;
+            this.index = index;
+            this.hash = sequence.lineHash(index);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Line other && hash == other.hash && sequence.equals(index, other.sequence, other.index);
+        }
+    }
+}
@@ -1,12 +1,30 @@
 package versioncontrolsystem;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Main {
+    private static final Map<String, Progress> RUNNING = new ConcurrentHashMap<>();  // request id : its progress
+    private static final ExecutorService REQUESTS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "vcs-request");
+        t.setDaemon(true);
+        return t;
+    });
+    private static RequestOutput output;  // standard output, while the request loop runs
+
     private static void updateStatus(VersionControlSystem vcs) throws Exception {
         Set<String>[] status = vcs.updateStatus();
         System.out.println("Staged" + sendList(status[0]));
@@ -14,7 +32,45 @@ public class Main {
         System.out.println("Unstaged" + sendList(status[1]));
         Thread.sleep(50);
     }
+
+    /**
+     * Sends the status after a path was added, unstaged or checked out, looking only at that path if the last status
+     * can be updated path by path
+     */
+    private static void updateStatus(VersionControlSystem vcs, String path) throws Exception {
+        Set<String>[] status = vcs.updateStatus(List.of(path));
+        if (status == null) {
+            updateStatus(vcs);
+            return;
+        }
+        System.out.println("Staged" + sendList(status[0]));
+        Thread.sleep(50);
+        System.out.println("Unstaged" + sendList(status[1]));
+        Thread.sleep(50);
+    }
     public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("serve")) {
+            // serves a repository over stdin and stdout to another one fetching or pushing, see Transport
+            new VersionControlSystem(args[1], false).serve(System.in, System.out);
+            System.out.flush();
+            return;
+        }
+        if (args.length == 2 && args[0].equals("import")) {
+            // reads a fast-import stream from stdin into a repository
+            for (String line : new VersionControlSystem(args[1], false).fastImport(System.in)) {
+                System.out.println(line);
+            }
+            return;
+        }
+        if ((args.length == 2 || args.length == 3) && args[0].equals("export")) {
+            // writes a fast-import stream of a repository, or of one of its branches, to stdout
+            new VersionControlSystem(args[1], false).fastExport(System.out, args.length == 3 ? args[2] : "");
+            System.out.flush();
+            return;
+        }
+        PrintStream out = System.out;
+        output = new RequestOutput(out);
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8));
         // Read input from stdin
         BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
         String input;
@@ -22,6 +78,7 @@ public class Main {
         String function;
         String[] firstPass;
         VersionControlSystem vcs = null;
+        RepositoryCache repositories = new RepositoryCache();  // open repositories, kept between changeDirs
         while (true) {  // input is assigned to the message from electron
             input = reader.readLine();
             // Decodes input
@@ -31,46 +88,29 @@ public class Main {
             // Send response to Electron
             try {
                 if (function.equals("changeDir")) {
-                    vcs = new VersionControlSystem(arguments[0]);
+                    vcs = repositories.open(arguments[0]);
                 } else if (function.equals("init")) {
                     vcs = VersionControlSystem.init(arguments[0]);
-                } else if (vcs != null) {
-                    switch (function) {
-                        case "add" -> {
-                            vcs.otherAdd(arguments[0]);
-                            updateStatus(vcs);
-                        }
-                        case "commit" -> {
-                            vcs.commit(arguments[0], arguments[1], decode(arguments[2]), decode(arguments[3]));
-                            System.out.println("IGNORE");
-                        }
-                        case "remove" -> {
-                            vcs.unstage(arguments[0]);
-                            updateStatus(vcs);
-                        }
-                        case "log" -> vcs.printLog(false);
-                        case "checkout" -> {
-                            if (arguments[1].startsWith("boolean")) {
-                                vcs.checkout(arguments[0], arguments[1].equals("booleanTrue"));
-                            } else {
-                                vcs.checkout(arguments[0], arguments[1]);
-                            }
-                            updateStatus(vcs);
-                        }
-                        case "branch" -> vcs.branch(arguments[0]);
-                        case "removeBranch" -> vcs.removeBranch(arguments[0]);
-                        case "reset" -> {
-                            vcs.reset(arguments[0]);
-                            updateStatus(vcs);
-                        }
-                        case "updateStatus" -> {
-                            try {
-                                updateStatus(vcs);
-                            }
-                            catch (Exception e) {
-                            }
-                        }
+                    repositories.put(arguments[0], vcs);
+                } else if (function.equals("clone")) {
+                    vcs = Clone.clone(arguments[0], arguments[1], arguments.length > 2 && arguments[2].equals("shared"));
+                    repositories.put(arguments[1], vcs);
+                } else if (function.equals("at")) {
+                    at(repositories.get(arguments[0]), arguments[0], arguments[1], decode(arguments[2]));
+                } else if (function.equals("request")) {
+                    String[] request = decode(arguments[2]);
+                    if (arguments[1].equals("at")) {
+                        submit(out, arguments[0], repositories.get(request[0]), request[1], decode(request[2]));
+                    } else if (vcs != null) {
+                        submit(out, arguments[0], vcs, arguments[1], request);
                     }
+                } else if (function.equals("cancel")) {
+                    Progress progress = RUNNING.get(arguments[0]);
+                    if (progress != null) {
+                        progress.cancel();
+                    }
+                } else if (vcs != null) {
+                    run(vcs, function, arguments);
                 }
             } catch (FailCaseException e) {
                 System.out.println("ERROR: " + e.getMessage());
@@ -78,6 +118,229 @@ public class Main {
         }
     }
 
+    /**
+     * Runs a request on its own thread, so that it doesn't hold up the requests after it
+     * Everything the request prints is sent as Response lines tagged with its id, it reports Progress lines while
+     * it works, and a Done line once it has finished, failed or been cancelled.
+     *      *  Response[id][line]
+     *      *  Progress[id][files][bytes]
+     *      *  Done[id]
+     * @param out: the real standard output
+     * @param id: id of the request, chosen by the sender
+     * @param vcs: the repository
+     * @param function: name of the request
+     * @param arguments: arguments of the request
+     */
+    private static void submit(PrintStream out, String id, VersionControlSystem vcs, String function,
+                               String[] arguments) {
+        Progress progress = new Progress(id, p -> out.println("Progress" + sendList(List.of(p.id,
+                String.valueOf(p.files()), String.valueOf(p.bytes())))));
+        if (RUNNING.putIfAbsent(id, progress) != null) {
+            out.println("Response" + sendList(List.of(id, "ERROR: A request with that id is already running")));
+            return;
+        }
+        REQUESTS.submit(() -> {
+            Progress previous = Progress.attach(progress);
+            try {
+                run(vcs, function, arguments);
+            } catch (Exception e) {
+                System.out.println("ERROR: " + e.getMessage());
+            } finally {
+                System.out.flush();
+                output.finish(progress);
+                Progress.attach(previous);
+                RUNNING.remove(id);
+                out.println("Done" + sendList(List.of(id)));
+            }
+        });
+    }
+
+    /**
+     * Runs a request against another open repository, without making it the current one
+     * Everything the request prints is sent as At lines tagged with the repository's path, so that its status, log
+     * and branches aren't taken for the current repository's.
+     *      *  At[path][line]
+     * @param vcs: the repository
+     * @param path: path of the repository, as it was opened
+     * @param function: name of the request
+     * @param arguments: arguments of the request
+     */
+    private static void at(VersionControlSystem vcs, String path, String function, String[] arguments)
+            throws Exception {
+        Progress progress = new Progress(path, p -> { });
+        output.tag(progress, "At");
+        Progress previous = Progress.attach(progress);
+        try {
+            run(vcs, function, arguments);
+        } catch (FailCaseException e) {
+            System.out.println("ERROR: " + e.getMessage());
+        } finally {
+            System.out.flush();
+            output.finish(progress);
+            Progress.attach(previous);
+        }
+    }
+
+    /**
+     * Standard output while requests run on their own threads
+     * Lines printed for a request, on its thread or on the writer thread making its changes, are sent as Response
+     * lines tagged with the request's id, see Progress.current(). Everything else goes straight through.
+     */
+    private static class RequestOutput extends OutputStream {
+        private final PrintStream out;
+        private final Map<Progress, ByteArrayOutputStream> lines = new HashMap<>();  // unfinished line of each request
+        private final Map<Progress, String> tags = new HashMap<>();  // what lines are sent as, if not Response
+
+        RequestOutput(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            Progress progress = Progress.current();
+            if (progress.id == null) {
+                out.write(b, off, len);
+                return;
+            }
+            ByteArrayOutputStream line = lines.computeIfAbsent(progress, p -> new ByteArrayOutputStream());
+            for (int i = off; i < off + len; i++) {
+                if (b[i] == '\n') {
+                    send(progress, line);
+                } else if (b[i] != '\r') {
+                    line.write(b[i]);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        /**
+         * Sends what is left of a request's output, once it has finished
+         */
+        synchronized void finish(Progress progress) {
+            ByteArrayOutputStream line = lines.remove(progress);
+            if (line != null && line.size() > 0) {
+                send(progress, line);
+            }
+            tags.remove(progress);
+        }
+
+        /**
+         * Sends a request's lines with another tag than Response
+         */
+        synchronized void tag(Progress progress, String tag) {
+            tags.put(progress, tag);
+        }
+
+        private void send(Progress progress, ByteArrayOutputStream line) {
+            out.println(tags.getOrDefault(progress, "Response")
+                    + sendList(List.of(progress.id, line.toString(StandardCharsets.UTF_8))));
+            line.reset();
+        }
+    }
+
+    /**
+     * Runs a request against a repository
+     * @param vcs: the repository
+     * @param function: name of the request
+     * @param arguments: arguments of the request
+     */
+    private static void run(VersionControlSystem vcs, String function, String[] arguments) throws Exception {
+        switch (function) {
+            case "add" -> {
+                vcs.otherAdd(arguments[0]);
+                updateStatus(vcs, arguments[0]);
+            }
+            case "commit" -> {
+                vcs.commit(arguments[0], arguments[1], decode(arguments[2]), decode(arguments[3]));
+                System.out.println("IGNORE");
+            }
+            case "remove" -> {
+                vcs.unstage(arguments[0]);
+                updateStatus(vcs, arguments[0]);
+            }
+            case "log" -> {
+                if (arguments.length > 0 && !arguments[0].isEmpty()) {
+                    vcs.printLog(arguments[0]);
+                } else {
+                    vcs.printLog(false);
+                }
+            }
+            case "diff" -> vcs.printDiff(arguments[0]);
+            case "diffCommits" -> vcs.printDiff(arguments[0], arguments[1]);
+            case "blame" -> vcs.printBlame(arguments[0], arguments.length > 1 ? arguments[1] : "");
+            case "search" -> vcs.printSearch(arguments[0], arguments[1], arguments[2]);
+            case "checkout" -> {
+                if (arguments[1].equals("booleanTrue")) {
+                    vcs.checkout(arguments[0], true);
+                    updateStatus(vcs);
+                } else if (arguments[1].startsWith("boolean")) {
+                    vcs.checkout(arguments[0], false);
+                    updateStatus(vcs, arguments[0]);
+                } else {
+                    vcs.checkout(arguments[0], arguments[1]);
+                    updateStatus(vcs, arguments[1]);
+                }
+            }
+            case "merge" -> {
+                vcs.merge(arguments[0], arguments[1]);
+                updateStatus(vcs);
+            }
+            case "gc" -> {
+                vcs.gc();
+                System.out.println("IGNORE");
+            }
+            case "sparse" -> {
+                List<String> lines = new ArrayList<>();
+                if (arguments.length > 0) {
+                    lines.add(SparseCheckout.CONE);
+                    lines.addAll(List.of(arguments));
+                }
+                vcs.sparse(lines);
+                updateStatus(vcs);
+            }
+            case "fetch" -> vcs.printFetch(arguments[0]);
+            case "push" -> vcs.printPush(arguments[0], arguments[1]);
+            case "bundle" -> {
+                vcs.bundle(arguments[0], arguments.length > 1 ? arguments[1] : "", arguments.length > 2 ? arguments[2] : "");
+                System.out.println("IGNORE");
+            }
+            case "archive" -> {
+                vcs.archive(arguments[0], arguments[1], arguments[2]);
+                System.out.println("IGNORE");
+            }
+            case "import" -> vcs.printImport(arguments[0]);
+            case "unbundle" -> vcs.printUnbundle(arguments[0]);
+            case "listen" -> {
+                ServerSocket server = Sync.listen(vcs, arguments.length > 0 ? Integer.parseInt(arguments[0]) : 0);
+                System.out.println("Listening" + sendList(List.of(String.valueOf(server.getLocalPort()))));
+            }
+            case "fsck" -> vcs.printFsck(arguments.length > 0 && arguments[0].equals("full"));
+            case "metrics" -> System.out.println("Metrics" + sendList(Metrics.report()));
+            case "branch" -> vcs.branch(arguments[0]);
+            case "removeBranch" -> vcs.removeBranch(arguments[0]);
+            case "reset" -> {
+                vcs.reset(arguments[0]);
+                updateStatus(vcs);
+            }
+            case "updateStatus" -> {
+                try {
+                    updateStatus(vcs);
+                }
+                catch (Exception e) {
+                }
+            }
+        }
+    }
+
     /**
      * Decodes input
      * @param input: string
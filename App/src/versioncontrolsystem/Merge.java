@@ -0,0 +1,247 @@
+package versioncontrolsystem;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Future;
+
+/**
+ * Three way merge of two commits.
+ * The merge base is found by painting the ancestors of both commits, newest first, until every commit
+ * left to visit is an ancestor of a common ancestor. Paths whose hash is the same on both sides, or unchanged
+ * on one side, are resolved without reading them. Files changed on both sides are merged line by line
+ * on the worker pool, with conflict markers around the lines that can't be merged.
+ */
+public class Merge extends VCSUtils {
+    private static final int OURS = 1;
+    private static final int THEIRS = 2;
+    private static final int STALE = 4;  // an ancestor of a common ancestor
+    private final Path vcsDirectory;
+    private final Map<String, Commit> cache;
+    private final Map<String, Integer> order;  // commit hash : position in AllCommits, parents always come first
+
+    public Merge(Path vcsDirectory, Map<String, Commit> cache, Map<String, Integer> order) {
+        this.vcsDirectory = vcsDirectory;
+        this.cache = cache;
+        this.order = order;
+    }
+
+    /**
+     * The merged tree and the paths that had conflicts
+     */
+    public static class Result {
+        public final Map<String, String> map;  // [name] : [hash]
+        public final Set<String> conflicts;
+
+        Result(Map<String, String> map, Set<String> conflicts) {
+            this.map = map;
+            this.conflicts = conflicts;
+        }
+    }
+
+    /**
+     * Finds the best common ancestor of two commits
+     * @param a: commit object
+     * @param b: commit object
+     * @return the most recent commit that is an ancestor of both
+     */
+    public Commit mergeBase(Commit a, Commit b) throws Exception {
+        if (a.hash.equals(b.hash)) {
+            return a;
+        }
+        Map<String, Integer> flags = new HashMap<>();
+        PriorityQueue<Commit> queue = new PriorityQueue<>((x, y) -> Integer.compare(position(y), position(x)));
+        flags.put(a.hash, OURS);
+        flags.put(b.hash, THEIRS);
+        queue.add(a);
+        queue.add(b);
+        int active = 2;  // number of commits in the queue that aren't stale
+        Commit best = null;
+        while (active > 0 && !queue.isEmpty()) {
+            Commit c = queue.poll();
+            int f = flags.get(c.hash);
+            if ((f & STALE) == 0) {
+                active--;
+            }
+            if ((f & (OURS | THEIRS)) == (OURS | THEIRS) && (f & STALE) == 0) {
+                if (best == null) {
+                    best = c;
+                }
+                f |= STALE;
+            }
+            for (Commit parent : c.parentCommits(cache)) {
+                int old = flags.getOrDefault(parent.hash, 0);
+                int updated = old | f;
+                if (updated == old) {
+                    continue;
+                }
+                if (queue.remove(parent) && (old & STALE) == 0) {
+                    active--;
+                }
+                flags.put(parent.hash, updated);
+                queue.add(parent);
+                if ((updated & STALE) == 0) {
+                    active++;
+                }
+            }
+        }
+        if (best == null) {
+            throw new FailCaseException("The commits have no common ancestor");
+        }
+        return best;
+    }
+
+    private int position(Commit c) {
+        return c instanceof InitialCommit ? -1 : order.getOrDefault(c.hash, -1);
+    }
+
+    /**
+     * Merges the trees of two commits, saving the merged version of every file changed on both sides
+     * @param base: the merge base
+     * @param ours: the current commit
+     * @param theirs: the commit being merged in
+     * @param oursName: label for our side of conflicts
+     * @param theirsName: label for their side of conflicts
+     * @return the merged tree and its conflicts
+     */
+    public Result merge(Commit base, Commit ours, Commit theirs, String oursName, String theirsName) throws Exception {
+        Map<String, String> b = base.getTree().map;
+        Map<String, String> o = ours.getTree().map;
+        Map<String, String> t = theirs.getTree().map;
+        Map<String, String> map = new HashMap<>(o);
+        Set<String> conflicts = new TreeSet<>();
+        if (ours.tree.equals(theirs.tree) || base.tree.equals(theirs.tree)) {
+            return new Result(map, conflicts);
+        }
+        if (base.tree.equals(ours.tree)) {
+            return new Result(new HashMap<>(t), conflicts);
+        }
+        Map<String, Future<String>> merges = new HashMap<>();
+        Set<String> paths = new HashSet<>(o.keySet());
+        paths.addAll(t.keySet());
+        for (String path : paths) {
+            String baseHash = b.get(path);
+            String oursHash = o.get(path);
+            String theirsHash = t.get(path);
+            if (Objects.equals(oursHash, theirsHash) || Objects.equals(baseHash, theirsHash)) {
+                continue;
+            }
+            if (Objects.equals(baseHash, oursHash)) {
+                if (theirsHash == null) {
+                    map.remove(path);
+                } else {
+                    map.put(path, theirsHash);
+                }
+            } else if (oursHash == null || theirsHash == null) {
+                // modified on one side, deleted on the other: keep the modified version
+                map.put(path, oursHash == null ? theirsHash : oursHash);
+                conflicts.add(path);
+            } else {
+                merges.put(path, workers().submit(() -> mergeFile(baseHash, oursHash, theirsHash, oursName, theirsName)));
+            }
+        }
+        for (Map.Entry<String, Future<String>> entry : merges.entrySet()) {
+            String merged = entry.getValue().get();
+            if (merged.startsWith("!")) {
+                conflicts.add(entry.getKey());
+                merged = merged.substring(1);
+            }
+            map.put(entry.getKey(), merged);
+        }
+        return new Result(map, conflicts);
+    }
+
+    /**
+     * Merges three versions of a file line by line, and saves the result
+     * Binary and oversized files can't be merged, so our version is kept
+     * @return hash of the merged file, starting with "!" if it has conflicts
+     */
+    private String mergeFile(String baseHash, String oursHash, String theirsHash,
+                             String oursName, String theirsName) throws Exception {
+        LineSequence base = LineSequence.ofObject(baseHash, vcsDirectory);
+        LineSequence ours = LineSequence.ofObject(oursHash, vcsDirectory);
+        LineSequence theirs = LineSequence.ofObject(theirsHash, vcsDirectory);
+        if (base.binary || ours.binary || theirs.binary || base.tooLarge || ours.tooLarge || theirs.tooLarge) {
+            return "!" + oursHash;
+        }
+        int[] baseToOurs = inverse(base, ours);
+        int[] baseToTheirs = inverse(base, theirs);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(ours.bytes(), theirs.bytes()));
+        boolean conflict = false;
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (i < base.size() || j < ours.size() || k < theirs.size()) {
+            if (i < base.size() && baseToOurs[i] == j && baseToTheirs[i] == k) {
+                write(out, base, i, i + 1);
+                i++;
+                j++;
+                k++;
+                continue;
+            }
+            // the unstable chunk runs until the next base line that is in both versions
+            int m = i;
+            while (m < base.size() && (baseToOurs[m] < 0 || baseToTheirs[m] < 0)) {
+                m++;
+            }
+            int jEnd = m < base.size() ? baseToOurs[m] : ours.size();
+            int kEnd = m < base.size() ? baseToTheirs[m] : theirs.size();
+            if (same(base, i, m, ours, j, jEnd)) {
+                write(out, theirs, k, kEnd);
+            } else if (same(base, i, m, theirs, k, kEnd) || same(ours, j, jEnd, theirs, k, kEnd)) {
+                write(out, ours, j, jEnd);
+            } else {
+                conflict = true;
+                out.write(("<<<<<<< " + oursName + "\n").getBytes(StandardCharsets.UTF_8));
+                write(out, ours, j, jEnd);
+                out.write("=======\n".getBytes(StandardCharsets.UTF_8));
+                write(out, theirs, k, kEnd);
+                out.write((">>>>>>> " + theirsName + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            i = m;
+            j = jEnd;
+            k = kEnd;
+        }
+        byte[] contents = out.toByteArray();
+        String hash = hash(contents);
+        createFile(contents, hash, vcsDirectory);
+        return conflict ? "!" + hash : hash;
+    }
+
+    /**
+     * Matches the lines of a base version to the lines of a newer version
+     * @return array with the index in b of each line of a, or -1 if the line was deleted
+     */
+    private static int[] inverse(LineSequence a, LineSequence b) {
+        int[][] ids = LineSequence.ids(a, b);
+        int[] bToA = MyersDiff.match(ids[0], ids[1]);
+        int[] aToB = new int[a.size()];
+        Arrays.fill(aToB, -1);
+        for (int j = 0; j < bToA.length; j++) {
+            if (bToA[j] >= 0) {
+                aToB[bToA[j]] = j;
+            }
+        }
+        return aToB;
+    }
+
+    private static boolean same(LineSequence a, int aStart, int aEnd, LineSequence b, int bStart, int bEnd) {
+        if (aEnd - aStart != bEnd - bStart) {
+            return false;
+        }
+        for (int x = aStart, y = bStart; x < aEnd; x++, y++) {
+            if (!a.line(x).equals(b.line(y))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void write(ByteArrayOutputStream out, LineSequence lines, int start, int end) {
+        for (int x = start; x < end; x++) {
+            out.writeBytes(lines.line(x).getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+    }
+}
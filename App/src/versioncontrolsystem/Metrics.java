@@ -0,0 +1,266 @@
+package versioncontrolsystem;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for repository operations, object reads and writes and hashing, shared by every
+ * repository in the process.
+ * Recording a value is a few atomic adds, so the metrics are always on. Each operation and object read or write is
+ * also a JFR event, which is only created while a recording has the event enabled.
+ */
+public class Metrics {
+    private static final Map<String, Stat> STATS = new ConcurrentHashMap<>();
+    private static final EventType OPERATIONEVENTS = EventType.getEventType(OperationEvent.class);
+    private static final EventType OBJECTEVENTS = EventType.getEventType(ObjectEvent.class);
+    public static final String ADD = "otherAdd";
+    public static final String COMMIT = "commit";
+    public static final String CHECKOUT = "checkout";
+    public static final String RESET = "reset";
+    public static final String STATUS = "updateStatus";
+    public static final String PATHSTATUS = "updateStatus.paths";
+    public static final Stat OBJECTREAD = stat("object.read");
+    public static final Stat OBJECTWRITE = stat("object.write");
+    public static final Stat HASH = stat("hash");
+
+    /**
+     * Returns the stat with a name, creating it the first time
+     */
+    public static Stat stat(String name) {
+        return STATS.computeIfAbsent(name, Stat::new);
+    }
+
+    /**
+     * Starts timing an operation, to be closed when it ends
+     * @param operation: name of the operation
+     * @param detail: what the operation works on, such as a path or branch, for the JFR event
+     */
+    public static Timer time(String operation, String detail) {
+        return new Timer(stat(operation), detail);
+    }
+
+    /**
+     * Returns one line per stat, sorted by name
+     *      *  [name] count=[n] bytes=[n] throughput=[MB/s] mean= p50= p90= p99= max=
+     * bytes and throughput are only there for stats that count bytes.
+     */
+    public static List<String> report() {
+        List<String> output = new ArrayList<>();
+        for (Stat stat : new TreeMap<>(STATS).values()) {
+            long count = stat.count.sum();
+            if (count == 0) {
+                continue;
+            }
+            long nanos = stat.nanos.sum();
+            StringBuilder sb = new StringBuilder(stat.name).append(" count=").append(count);
+            long bytes = stat.bytes.sum();
+            if (bytes > 0) {
+                sb.append(" bytes=").append(bytes).append(String.format(" throughput=%.1fMB/s",
+                        nanos == 0 ? 0.0 : bytes * 1000.0 / nanos));
+            }
+            sb.append(" mean=").append(duration(nanos / count));
+            sb.append(" p50=").append(duration(stat.latency.percentile(50)));
+            sb.append(" p90=").append(duration(stat.latency.percentile(90)));
+            sb.append(" p99=").append(duration(stat.latency.percentile(99)));
+            sb.append(" max=").append(duration(stat.latency.max()));
+            output.add(sb.toString());
+        }
+        return output;
+    }
+
+    private static String duration(long nanos) {
+        if (nanos < 10_000) {
+            return nanos + "ns";
+        } else if (nanos < 10_000_000) {
+            return (nanos / 1000) + "us";
+        }
+        return (nanos / 1_000_000) + "ms";
+    }
+
+    /**
+     * Counts, bytes and latencies of one kind of operation
+     */
+    public static class Stat {
+        public final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final Histogram latency = new Histogram();
+
+        private Stat(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Records one object read, write or hash that started at start, as given by System.nanoTime
+         * @param bytes: bytes read, written or hashed
+         */
+        public void record(long start, long bytes) {
+            long elapsed = System.nanoTime() - start;
+            add(elapsed, bytes);
+            if (OBJECTEVENTS.isEnabled()) {
+                ObjectEvent event = new ObjectEvent();
+                event.kind = name;
+                event.bytes = bytes;
+                event.elapsed = elapsed;
+                event.commit();
+            }
+        }
+
+        private void add(long elapsed, long bytes) {
+            count.increment();
+            this.bytes.add(bytes);
+            nanos.add(elapsed);
+            latency.record(elapsed);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        public long percentile(double percent) {
+            return latency.percentile(percent);
+        }
+    }
+
+    /**
+     * Times an operation, from when it is made until it is closed
+     */
+    public static class Timer implements AutoCloseable {
+        private final Stat stat;
+        private final long start;
+        private final OperationEvent event;  // null unless a recording has operation events enabled
+
+        private Timer(Stat stat, String detail) {
+            this.stat = stat;
+            this.start = System.nanoTime();
+            if (OPERATIONEVENTS.isEnabled()) {
+                event = new OperationEvent();
+                event.operation = stat.name;
+                event.detail = detail;
+                event.begin();
+            } else {
+                event = null;
+            }
+        }
+
+        @Override
+        public void close() {
+            stat.add(System.nanoTime() - start, 0);
+            if (event != null) {
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * A histogram of non-negative values in the style of HdrHistogram: values below 2^SUBBITS each have their own
+     * bucket, and every power of two above that is split into 2^SUBBITS buckets, so any recorded value is known to
+     * within about 3%, with a fixed array of counts.
+     */
+    static class Histogram {
+        private static final int SUBBITS = 5;
+        private static final int SUBBUCKETS = 1 << SUBBITS;
+        private final AtomicLongArray counts = new AtomicLongArray((64 - SUBBITS + 1) * SUBBUCKETS);
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            long v = Math.max(0, value);
+            counts.incrementAndGet(index(v));
+            long old;
+            while (v > (old = max.get()) && !max.compareAndSet(old, v)) {
+                // another thread raised the maximum, try again against the new one
+            }
+        }
+
+        static int index(long value) {
+            if (value < SUBBUCKETS) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int bucket = magnitude - SUBBITS + 1;
+            int sub = (int) (value >>> (magnitude - SUBBITS)) - SUBBUCKETS;
+            return bucket * SUBBUCKETS + sub;
+        }
+
+        /**
+         * Returns the largest value that falls in the same bucket as the values at index
+         */
+        static long highest(int index) {
+            int bucket = index / SUBBUCKETS;
+            int sub = index % SUBBUCKETS;
+            if (bucket == 0) {
+                return sub;
+            }
+            return ((long) (SUBBUCKETS + sub + 1) << (bucket - 1)) - 1;
+        }
+
+        /**
+         * Returns the value that the given percent of recorded values are at or below
+         */
+        long percentile(double percent) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                total += counts.get(i);
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percent / 100));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(highest(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        long max() {
+            return max.get();
+        }
+    }
+
+    @Name("versioncontrolsystem.Operation")
+    @Label("Repository Operation")
+    @Category("Version Control System")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Detail")
+        String detail;
+    }
+
+    @Name("versioncontrolsystem.Object")
+    @Label("Object Read, Write or Hash")
+    @Category("Version Control System")
+    static class ObjectEvent extends Event {
+        @Label("Kind")
+        String kind;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("Elapsed")
+        @Timespan
+        long elapsed;
+    }
+}
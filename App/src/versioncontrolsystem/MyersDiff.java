@@ -0,0 +1,104 @@
+package versioncontrolsystem;
+
+import java.util.Arrays;
+
+/**
+ * Linear space version of Myers' O(ND) difference algorithm.
+ * Finds the middle snake of the shortest edit script, then recurses on both halves,
+ * so memory use is O(N + M) no matter how different the sequences are.
+ */
+public class MyersDiff {
+    private final int[] a;
+    private final int[] b;
+    private final int[] matches;  // for each element of b, the index of the matching element of a, or -1
+    private int[] vf;
+    private int[] vb;
+
+    private MyersDiff(int[] a, int[] b) {
+        this.a = a;
+        this.b = b;
+        this.matches = new int[b.length];
+        Arrays.fill(matches, -1);
+    }
+
+    /**
+     * Finds the longest common subsequence of two sequences of ids
+     * @param a: ids of the old version, equal ids mean equal elements
+     * @param b: ids of the new version
+     * @return array with the index in a of each element of b, or -1 if the element was inserted
+     */
+    public static int[] match(int[] a, int[] b) {
+        MyersDiff diff = new MyersDiff(a, b);
+        int size = a.length + b.length + 3;
+        diff.vf = new int[size];
+        diff.vb = new int[size];
+        diff.compare(0, a.length, 0, b.length);
+        return diff.matches;
+    }
+
+    private void compare(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            matches[bLo++] = aLo++;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            matches[--bHi] = --aHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return;
+        }
+        int[] snake = middleSnake(aLo, aHi, bLo, bHi);
+        compare(aLo, snake[0], bLo, snake[1]);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x++, y++) {
+            matches[y] = x;
+        }
+        compare(snake[2], aHi, snake[3], bHi);
+    }
+
+    /**
+     * Finds the snake in the middle of the shortest edit script between a[aLo, aHi) and b[bLo, bHi)
+     * @return {start x, start y, end x, end y} of the snake, as indexes into a and b
+     */
+    private int[] middleSnake(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int off = max + 1;
+        vf[off + 1] = 0;
+        vb[off + 1] = 0;
+        for (int d = 0; d <= max; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && vf[off + k - 1] < vf[off + k + 1])) ? vf[off + k + 1] : vf[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x++;
+                    y++;
+                }
+                vf[off + k] = x;
+                int kb = delta - k;
+                if (odd && kb >= -(d - 1) && kb <= d - 1 && x + vb[off + kb] >= n) {
+                    return new int[] {aLo + x0, bLo + y0, aLo + x, bLo + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && vb[off + k - 1] < vb[off + k + 1])) ? vb[off + k + 1] : vb[off + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aHi - 1 - x] == b[bHi - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                vb[off + k] = x;
+                int kf = delta - k;
+                if (!odd && kf >= -d && kf <= d && x + vf[off + kf] >= n) {
+                    return new int[] {aHi - x, bHi - y, aHi - x0, bHi - y0};
+                }
+            }
+        }
+        throw new IllegalStateException("No middle snake found");
+    }
+}
@@ -0,0 +1,286 @@
+package versioncontrolsystem;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * The objects one repository sends another so that it has a set of commits.
+ * Each commit is sent with its tree and every blob that isn't in the tree of one of its parents, which the receiver
+ * has or was sent just before. Chunked blobs are sent as their manifest and the chunks that aren't in the first
+ * parent's version of the same file, so a small change to a big file only sends the chunks around it. Only one
+ * commit's trees are held at a time, so packs of any size fit in memory.
+ * Objects are streamed straight from the object store, with FileChannel.transferTo when the pack goes to a channel,
+ * and the receiver checks every object against its hash as it arrives. Received objects are synced to disk in
+ * batches before they are moved into the object store, a batch ending after a commit so that the commit's tree,
+ * sent just before it, is checked with it: a tree can only name files inside the working directory, see
+ * VCSUtils.isTreePath.
+ *      *  [number of commits] ([hash])...  in the order they were made
+ *      *  ([hash] [size] [contents])...
+ *      *  [empty hash]
+ */
+public class Pack extends VCSUtils {
+    static final int BATCH = 256;  // objects synced together
+    private final Path vcsDirectory;
+    private final Map<String, Commit> cache;
+    private final WritableByteChannel channel;  // channel under the output stream, null if there isn't one
+
+    public Pack(Path vcsDirectory, Map<String, Commit> cache) {
+        this(vcsDirectory, cache, null);
+    }
+
+    /**
+     * @param channel: channel the output stream writes to, which objects are transferred to directly
+     */
+    public Pack(Path vcsDirectory, Map<String, Commit> cache, WritableByteChannel channel) {
+        this.vcsDirectory = vcsDirectory;
+        this.cache = cache;
+        this.channel = channel;
+    }
+
+    /**
+     * Sends commits and the objects they need
+     * @param out: stream to the receiver
+     * @param commits: commits the receiver doesn't have, parents first
+     */
+    public void write(DataOutputStream out, List<Commit> commits) throws Exception {
+        out.writeInt(commits.size());
+        for (Commit c : commits) {
+            out.writeUTF(c.hash);
+        }
+        for (Commit c : commits) {
+            Set<String> have = new HashSet<>();
+            Map<String, String> first = Map.of();  // tree of the first parent
+            for (Commit parent : c.parentCommits(cache)) {
+                Map<String, String> map = parent instanceof InitialCommit ? Map.of()
+                        : Tree.findTree(parent.tree, vcsDirectory).map;
+                have.addAll(map.values());
+                if (first.isEmpty()) {
+                    first = map;
+                }
+            }
+            for (Map.Entry<String, String> entry : Tree.findTree(c.tree, vcsDirectory).map.entrySet()) {
+                String blob = entry.getValue();
+                if (!have.add(blob)) {
+                    continue;
+                }
+                if (Chunker.isManifest(findHash(blob, vcsDirectory))) {
+                    Set<String> chunks = new HashSet<>();
+                    String old = first.get(entry.getKey());
+                    if (old != null && Chunker.isManifest(findHash(old, vcsDirectory))) {
+                        for (Chunker.Chunk chunk : Chunker.chunks(old, vcsDirectory)) {
+                            chunks.add(chunk.hash);
+                        }
+                    }
+                    for (Chunker.Chunk chunk : Chunker.chunks(blob, vcsDirectory)) {
+                        if (chunks.add(chunk.hash)) {
+                            send(out, chunk.hash);
+                        }
+                    }
+                }
+                send(out, blob);
+            }
+            send(out, c.tree);
+            send(out, c.hash);
+        }
+        out.writeUTF("");
+        out.flush();
+    }
+
+    private void send(DataOutputStream out, String hash) throws Exception {
+        try (FileChannel object = FileChannel.open(findHash(hash, vcsDirectory), StandardOpenOption.READ)) {
+            long size = object.size();
+            out.writeUTF(hash);
+            out.writeLong(size);
+            if (channel == null) {
+                Channels.newInputStream(object).transferTo(out);
+                return;
+            }
+            out.flush();
+            for (long position = 0; position < size; ) {
+                position += object.transferTo(position, size - position, channel);
+            }
+        }
+    }
+
+    /**
+     * Receives commits and their objects, keeping the objects that aren't already in the object store
+     * @param in: stream from the sender
+     * @return hashes of the received commits, parents first
+     */
+    public List<String> read(DataInputStream in) throws Exception {
+        int count = in.readInt();
+        List<String> commits = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            commits.add(Sync.checkHash(in.readUTF()));
+        }
+        Set<String> listed = new HashSet<>(commits);
+        Map<String, Path> manifests = new LinkedHashMap<>();  // hash : temporary file holding the manifest
+        Map<String, Path> batch = new LinkedHashMap<>();  // hash : temporary file holding the object
+        Set<String> stored = new HashSet<>();  // objects of this pack already in the object store
+        Set<String> pending = new HashSet<>();  // trees of received commits that haven't been received yet
+        byte[] buffer = new byte[Sync.BUFFER];
+        String hash;
+        while (!(hash = in.readUTF()).isEmpty()) {
+            Sync.checkHash(hash);
+            long size = in.readLong();
+            if (batch.containsKey(hash) || manifests.containsKey(hash) || hashExists(hash, vcsDirectory)) {
+                in.skipNBytes(size);
+                continue;
+            }
+            Path temp = tempFile(vcsDirectory);
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            try (OutputStream file = Files.newOutputStream(temp)) {
+                for (long left = size; left > 0; ) {
+                    int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+                    digest.update(buffer, 0, n);
+                    file.write(buffer, 0, n);
+                    left -= n;
+                }
+            }
+            // a manifest is named after the whole file, which can only be checked once its chunks are here
+            if (Chunker.isManifest(temp)) {
+                manifests.put(hash, temp);
+                continue;
+            } else if (!HexFormat.of().formatHex(digest.digest()).equals(hash)) {
+                Files.delete(temp);
+                throw new FailCaseException("Received a damaged object: " + hash);
+            }
+            batch.put(hash, temp);
+            if (pending.remove(hash)) {
+                checkTree(hash, temp);
+            } else if (listed.contains(hash)) {
+                String tree = treeOf(temp);
+                if (batch.containsKey(tree)) {
+                    checkTree(tree, batch.get(tree));
+                } else if (stored.contains(tree)) {
+                    checkTree(tree, findHash(tree, vcsDirectory));
+                } else if (!hashExists(tree, vcsDirectory)) {
+                    pending.add(tree);
+                }
+                if (batch.size() >= BATCH && pending.isEmpty()) {
+                    stored.addAll(batch.keySet());
+                    store(batch, vcsDirectory);
+                }
+            }
+        }
+        store(batch, vcsDirectory);
+        for (Map.Entry<String, Path> manifest : manifests.entrySet()) {
+            if (!verifyManifest(manifest.getKey(), manifest.getValue())) {
+                for (Path temp : manifests.values()) {
+                    Files.deleteIfExists(temp);
+                }
+                throw new FailCaseException("Received a damaged object: " + manifest.getKey());
+            }
+        }
+        store(manifests, vcsDirectory);
+        for (String commit : commits) {
+            Commit c = Commit.findCommit(commit, vcsDirectory, cache);
+            if (!hashExists(c.tree, vcsDirectory)) {
+                throw new FailCaseException("Received an incomplete pack, missing " + c.tree);
+            } else if (pending.contains(c.tree)) {
+                checkTree(c.tree, findHash(c.tree, vcsDirectory));
+            }
+        }
+        return commits;
+    }
+
+    /**
+     * Reads the tree hash of a received commit
+     */
+    private static String treeOf(Path commit) throws Exception {
+        String tree;
+        try (BufferedReader reader = Files.newBufferedReader(commit)) {
+            tree = reader.readLine();
+        }
+        if (tree == null || !isHash(tree)) {
+            throw new FailCaseException("Received a damaged commit, its tree is " + tree);
+        }
+        return tree;
+    }
+
+    /**
+     * Checks that every entry of a received tree names a file inside the working directory, deleting the tree
+     * if one doesn't
+     * @param hash: hash of the tree
+     * @param tree: file holding the tree
+     */
+    private static void checkTree(String hash, Path tree) throws Exception {
+        String invalid = null;
+        try (BufferedReader reader = Files.newBufferedReader(tree)) {
+            String line;
+            while (invalid == null && (line = reader.readLine()) != null) {
+                String name = line.length() < 40 ? "" : line.substring(0, line.length() - 40).trim();
+                if (!isTreePath(name) || !isHash(line.substring(line.length() - 40))) {
+                    invalid = line;
+                }
+            }
+        }
+        if (invalid != null) {
+            Files.deleteIfExists(tree);
+            throw new FailCaseException(String.format("Received a tree %s with an invalid entry: %s", hash, invalid));
+        }
+    }
+
+    /**
+     * Checks a received manifest against its hash before it is stored, by hashing the file its chunks make up
+     * @param hash: hash of the whole file
+     * @param manifest: temporary file holding the manifest
+     * @return true if the chunks are all here and make up a file with that hash
+     */
+    private boolean verifyManifest(String hash, Path manifest) throws Exception {
+        List<Chunker.Chunk> chunks;
+        try {
+            chunks = Chunker.chunks(manifest);
+        } catch (RuntimeException e) {
+            return false;
+        }
+        for (Chunker.Chunk chunk : chunks) {
+            if (!isHash(chunk.hash) || !hashExists(chunk.hash, vcsDirectory)) {
+                return false;
+            }
+        }
+        try (InputStream blob = Chunker.open(chunks, vcsDirectory)) {
+            return hash(blob).equals(hash);
+        }
+    }
+
+    /**
+     * Syncs a batch of new objects to disk in parallel, then moves them into the object store
+     * @param batch: hash : temporary file holding the object, emptied once the objects are stored
+     * @param vcsDirectory: path to the .vcs directory
+     */
+    static void store(Map<String, Path> batch, Path vcsDirectory) throws Exception {
+        List<Callable<Void>> syncs = new ArrayList<>();
+        for (Path temp : batch.values()) {
+            syncs.add(() -> {
+                Journal.sync(temp);
+                return null;
+            });
+        }
+        for (Future<Void> f : workers().invokeAll(syncs)) {
+            f.get();
+        }
+        for (Map.Entry<String, Path> entry : batch.entrySet()) {
+            long start = System.nanoTime();
+            Path target = findHash(entry.getKey(), vcsDirectory);
+            long size = Files.size(entry.getValue());
+            Files.createDirectories(target.getParent());
+            Files.move(entry.getValue(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Metrics.OBJECTWRITE.record(start, size);
+        }
+        batch.clear();
+    }
+}
@@ -0,0 +1,102 @@
+package versioncontrolsystem;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The progress of one request, and whether it has been asked to stop.
+ * The request's progress is attached to the thread running it, and carried over to the writer thread for the changes
+ * the request makes, so long operations find it with current() instead of having it passed down. Operations add the
+ * files and bytes they process and call check() where stopping is safe, which throws once the request is cancelled.
+ * Once a request has changed the repository it runs to the end, see finishing(), so that a cancelled request has
+ * either made its change or not made it.
+ * Threads that aren't running a request see NONE, which is never cancelled and reports nothing.
+ */
+public class Progress {
+    public static final Progress NONE = new Progress(null, p -> { });
+    private static final long INTERVAL = 200;  // milliseconds between reports
+    private static final ThreadLocal<Progress> CURRENT = ThreadLocal.withInitial(() -> NONE);
+    public final String id;
+    private final Consumer<Progress> listener;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong();
+    private volatile boolean cancelled;
+    private volatile boolean finishing;  // the request has made changes, and has to finish
+
+    /**
+     * @param id: id of the request
+     * @param listener: called with this progress at most once every INTERVAL milliseconds while work is added
+     */
+    public Progress(String id, Consumer<Progress> listener) {
+        this.id = id;
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the progress of the request the current thread is running, or NONE
+     */
+    public static Progress current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Attaches a progress to the current thread
+     * @return the progress that was attached before, to be given back to attach once the work is done
+     */
+    public static Progress attach(Progress progress) {
+        Progress previous = CURRENT.get();
+        CURRENT.set(progress);
+        return previous;
+    }
+
+    /**
+     * Adds processed work, reporting it if the last report was long enough ago
+     * @param files: number of files, or objects
+     * @param bytes: number of bytes
+     */
+    public void add(long files, long bytes) {
+        if (this == NONE) {
+            return;
+        }
+        this.files.addAndGet(files);
+        this.bytes.addAndGet(bytes);
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        if (now - last >= INTERVAL && lastReport.compareAndSet(last, now)) {
+            listener.accept(this);
+        }
+    }
+
+    public long files() {
+        return files.get();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Marks the request as having started changes that have to be finished, so that it can't be cancelled any more
+     */
+    public void finishing() {
+        finishing = true;
+    }
+
+    /**
+     * Stops the operation if the request has been cancelled, and hasn't started changing anything
+     */
+    public void check() throws FailCaseException {
+        if (cancelled && !finishing) {
+            throw new FailCaseException("Cancelled");
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package versioncontrolsystem;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Pairs up deleted and added files that are renames or copies of each other.
+ * Exact renames are matched by hash. Everything else is compared with MinHash sketches of the set of lines
+ * in each file, saved in .vcs/Sketches/[hash]. Locality sensitive hashing of the sketches picks the candidate
+ * pairs, so files are never compared against every other file.
+ */
+public class RenameDetector extends VCSUtils {
+    public static final int THRESHOLD = 50;  // minimum similarity, as a percentage, of an inexact rename
+    private static final int SKETCHSIZE = 64;  // number of hash functions in a sketch
+    private static final int ROWS = 2;  // sketch values per band, SKETCHSIZE / ROWS bands
+    private static final long[] SEEDS = new long[SKETCHSIZE];
+    static {
+        SplittableRandom random = new SplittableRandom(0x5eed);
+        for (int i = 0; i < SKETCHSIZE; i++) {
+            SEEDS[i] = random.nextLong();
+        }
+    }
+    private final Path vcsDirectory;
+
+    public RenameDetector(Path vcsDirectory) {
+        this.vcsDirectory = vcsDirectory;
+    }
+
+    /**
+     * A file on either side of a possible rename
+     */
+    public static class Candidate {
+        public final String path;
+        public final String hash;
+        private final Path contents;  // working file to read the contents from, null if the file is a saved object
+
+        public Candidate(String path, String hash, Path contents) {
+            this.path = path;
+            this.hash = hash;
+            this.contents = contents;
+        }
+    }
+
+    /**
+     * Finds renames between deleted and added files
+     * @param deleted: files that no longer exist
+     * @param added: files that didn't exist before
+     * @return map of added path : deleted path it was renamed from
+     */
+    public Map<String, String> renames(List<Candidate> deleted, List<Candidate> added) throws Exception {
+        Map<String, String> output = new HashMap<>();
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return output;
+        }
+        Map<String, Deque<Candidate>> byHash = new HashMap<>();
+        for (Candidate c : deleted) {
+            byHash.computeIfAbsent(c.hash, k -> new ArrayDeque<>()).add(c);
+        }
+        List<Candidate> remainingAdded = new ArrayList<>();
+        Set<String> used = new HashSet<>();
+        for (Candidate c : added) {
+            Deque<Candidate> same = byHash.get(c.hash);
+            if (same != null && !same.isEmpty()) {
+                Candidate source = same.poll();
+                output.put(c.path, source.path);
+                used.add(source.path);
+            } else {
+                remainingAdded.add(c);
+            }
+        }
+        List<Candidate> remainingDeleted = new ArrayList<>();
+        for (Candidate c : deleted) {
+            if (!used.contains(c.path)) {
+                remainingDeleted.add(c);
+            }
+        }
+        for (Pair pair : similar(remainingDeleted, remainingAdded)) {
+            if (!used.contains(pair.source.path) && !output.containsKey(pair.target.path)) {
+                output.put(pair.target.path, pair.source.path);
+                used.add(pair.source.path);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Finds renames and copies in a tree diff, replacing the matching deleted and added changes
+     * Copies are only looked for among files that were in the old tree and still exist in the new one
+     * @param changes: changes from Diff.treeDiff
+     * @param old: the old tree
+     * @return list of changes, sorted by path
+     */
+    public List<Diff.Change> detect(List<Diff.Change> changes, Tree old) throws Exception {
+        List<Candidate> deleted = new ArrayList<>();
+        List<Candidate> added = new ArrayList<>();
+        Set<String> gone = new HashSet<>();
+        for (Diff.Change c : changes) {
+            if (c.status.equals("deleted")) {
+                deleted.add(new Candidate(c.path, c.oldHash, null));
+                gone.add(c.path);
+            } else if (c.status.equals("added")) {
+                added.add(new Candidate(c.path, c.newHash, null));
+            }
+        }
+        if (added.isEmpty()) {
+            return changes;
+        }
+        Map<String, String> renamed = renames(deleted, added);
+        Set<String> renamedFrom = new HashSet<>(renamed.values());
+        Map<String, String> copied = new HashMap<>();
+        List<Candidate> sources = new ArrayList<>();
+        Map<String, String> sourceByHash = new HashMap<>();
+        for (Map.Entry<String, String> entry : old.map.entrySet()) {
+            if (!gone.contains(entry.getKey())) {
+                sourceByHash.putIfAbsent(entry.getValue(), entry.getKey());
+            }
+        }
+        List<Candidate> remaining = new ArrayList<>();
+        for (Candidate c : added) {
+            if (renamed.containsKey(c.path)) {
+                continue;
+            }
+            String source = sourceByHash.get(c.hash);
+            if (source != null) {
+                copied.put(c.path, source);
+            } else {
+                remaining.add(c);
+            }
+        }
+        for (Diff.Change c : changes) {
+            if (c.status.equals("modified")) {
+                sources.add(new Candidate(c.path, c.oldHash, null));
+            }
+        }
+        for (Pair pair : similar(sources, remaining)) {
+            copied.putIfAbsent(pair.target.path, pair.source.path);
+        }
+        List<Diff.Change> output = new ArrayList<>();
+        for (Diff.Change c : changes) {
+            if (c.status.equals("deleted") && renamedFrom.contains(c.path)) {
+                continue;
+            }
+            if (c.status.equals("added") && renamed.containsKey(c.path)) {
+                String from = renamed.get(c.path);
+                output.add(new Diff.Change("renamed", c.path, from, old.map.get(from), c.newHash));
+            } else if (c.status.equals("added") && copied.containsKey(c.path)) {
+                String from = copied.get(c.path);
+                output.add(new Diff.Change("copied", c.path, from, old.map.get(from), c.newHash));
+            } else {
+                output.add(c);
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Finds pairs of files whose sketches are at least THRESHOLD percent similar
+     * Only pairs that share a band of their sketches are compared
+     * @return list of pairs, most similar first
+     */
+    private List<Pair> similar(List<Candidate> sources, List<Candidate> targets) throws Exception {
+        List<Pair> pairs = new ArrayList<>();
+        if (sources.isEmpty() || targets.isEmpty()) {
+            return pairs;
+        }
+        List<int[]> sourceSketches = new ArrayList<>();
+        Map<Long, List<Integer>> buckets = new HashMap<>();
+        for (int i = 0; i < sources.size(); i++) {
+            int[] sketch = sketch(sources.get(i));
+            sourceSketches.add(sketch);
+            if (sketch == null) {
+                continue;
+            }
+            for (int band = 0; band < SKETCHSIZE / ROWS; band++) {
+                buckets.computeIfAbsent(bandKey(sketch, band), k -> new ArrayList<>()).add(i);
+            }
+        }
+        for (Candidate target : targets) {
+            int[] sketch = sketch(target);
+            if (sketch == null) {
+                continue;
+            }
+            Set<Integer> compared = new HashSet<>();
+            for (int band = 0; band < SKETCHSIZE / ROWS; band++) {
+                for (int i : buckets.getOrDefault(bandKey(sketch, band), List.of())) {
+                    if (!compared.add(i)) {
+                        continue;
+                    }
+                    int score = similarity(sourceSketches.get(i), sketch);
+                    if (score >= THRESHOLD) {
+                        pairs.add(new Pair(sources.get(i), target, score));
+                    }
+                }
+            }
+        }
+        pairs.sort((x, y) -> y.score - x.score);
+        return pairs;
+    }
+
+    private static long bandKey(int[] sketch, int band) {
+        long key = band;
+        for (int r = 0; r < ROWS; r++) {
+            key = key * 0x9E3779B97F4A7C15L + sketch[band * ROWS + r];
+        }
+        return key;
+    }
+
+    private static int similarity(int[] a, int[] b) {
+        int same = 0;
+        for (int i = 0; i < SKETCHSIZE; i++) {
+            if (a[i] == b[i]) {
+                same++;
+            }
+        }
+        return same * 100 / SKETCHSIZE;
+    }
+
+    /**
+     * Returns the MinHash sketch of the set of lines in a file, reading it from .vcs/Sketches if it was saved
+     * @param c: the file
+     * @return array of SKETCHSIZE minimum hashes, or null for empty, binary and oversized files
+     */
+    private int[] sketch(Candidate c) throws Exception {
+        Path saved = vcsDirectory.resolve("Sketches").resolve(c.hash);
+        if (Files.exists(saved)) {
+            String s = Files.readString(saved).trim();
+            if (s.isEmpty()) {
+                return null;
+            }
+            String[] parts = s.split(" ");
+            int[] sketch = new int[SKETCHSIZE];
+            for (int i = 0; i < SKETCHSIZE; i++) {
+                sketch[i] = Integer.parseUnsignedInt(parts[i], 16);
+            }
+            return sketch;
+        }
+        LineSequence lines = c.contents == null ? LineSequence.ofObject(c.hash, vcsDirectory) : LineSequence.ofFile(c.contents);
+        int[] sketch = null;
+        if (!lines.binary && !lines.tooLarge && lines.size() > 0) {
+            sketch = new int[SKETCHSIZE];
+            Arrays.fill(sketch, Integer.MAX_VALUE);
+            for (int i = 0; i < lines.size(); i++) {
+                long h = lines.lineHash(i);
+                for (int k = 0; k < SKETCHSIZE; k++) {
+                    int v = (int) (mix(h ^ SEEDS[k]) >>> 33);
+                    if (v < sketch[k]) {
+                        sketch[k] = v;
+                    }
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        if (sketch != null) {
+            for (int v : sketch) {
+                sb.append(Integer.toHexString(v)).append(" ");
+            }
+        }
+        Files.createDirectories(saved.getParent());
+        Files.writeString(saved, sb.toString());
+        return sketch;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static class Pair {
+        final Candidate source;
+        final Candidate target;
+        final int score;
+
+        Pair(Candidate source, Candidate target, int score) {
+            this.source = source;
+            this.target = target;
+            this.score = score;
+        }
+    }
+}
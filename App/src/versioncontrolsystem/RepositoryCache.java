@@ -0,0 +1,151 @@
+package versioncontrolsystem;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Repositories kept open by a long running process, so switching back to one doesn't reread it from disk.
+ * Repositories are kept in least recently used order, and the least recently used are dropped once the estimated
+ * memory of all of them goes over the budget, or there are too many. The most recently used repository is never
+ * dropped. Every repository shares the worker pool, and a repository's writer thread stops by itself once idle.
+ * Before a kept repository is used again, the modification times and sizes of its HEAD, Index, AllCommits, current
+ * branch pointer, Branches and Tasks are compared with the ones seen when it was last used, and it is synced if any
+ * changed.
+ */
+public class RepositoryCache {
+    public static final int MAXREPOSITORIES = 16;
+    private final long budget;  // bytes
+    private final int maxRepositories;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    public RepositoryCache() {
+        this(Runtime.getRuntime().maxMemory() / 4, MAXREPOSITORIES);
+    }
+    public RepositoryCache(long budget, int maxRepositories) {
+        this.budget = budget;
+        this.maxRepositories = maxRepositories;
+    }
+
+    /**
+     * Switches to a repository, printing its state as opening it does
+     * @param directory: path to the working directory
+     * @return the repository
+     */
+    public synchronized VersionControlSystem open(String directory) throws Exception {
+        Entry entry = entries.get(key(directory));
+        if (entry == null) {
+            return get(directory);
+        }
+        validate(entry, key(directory));
+        entry.vcs.initializeVCS();
+        return entry.vcs;
+    }
+
+    /**
+     * Returns a repository, opening it if it isn't open already
+     * @param directory: path to the working directory
+     * @return the repository
+     */
+    public synchronized VersionControlSystem get(String directory) throws Exception {
+        Path key = key(directory);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            validate(entry, key);
+            return entry.vcs;
+        }
+        long[] stamp = stamp(key);
+        VersionControlSystem vcs = new VersionControlSystem(directory);
+        entries.put(key, new Entry(vcs, stamp));
+        evict();
+        return vcs;
+    }
+
+    /**
+     * Keeps a repository that was opened elsewhere, such as by init
+     * @param directory: path to the working directory
+     * @param vcs: the repository
+     */
+    public synchronized void put(String directory, VersionControlSystem vcs) throws Exception {
+        Path key = key(directory);
+        entries.put(key, new Entry(vcs, stamp(key)));
+        evict();
+    }
+
+    public synchronized boolean contains(String directory) {
+        return entries.containsKey(key(directory));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Syncs a kept repository if another process changed it since it was last used
+     */
+    private void validate(Entry entry, Path key) throws Exception {
+        long[] stamp = stamp(key);
+        if (!Arrays.equals(stamp, entry.stamp)) {
+            entry.vcs.sync();
+            entry.stamp = stamp;
+        }
+    }
+
+    /**
+     * Drops the least recently used repositories until the rest fit in the budget
+     */
+    private void evict() {
+        long total = 0;
+        for (Entry entry : entries.values()) {
+            total += entry.vcs.footprint();
+        }
+        Iterator<Map.Entry<Path, Entry>> it = entries.entrySet().iterator();
+        while (entries.size() > 1 && (total > budget || entries.size() > maxRepositories)) {
+            total -= it.next().getValue().vcs.footprint();
+            it.remove();
+        }
+    }
+
+    private static Path key(String directory) {
+        return Paths.get(directory).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Returns the modification times and sizes of the files that change when a repository is changed
+     * @param key: path to the working directory
+     * @return one value per file, 0 for missing files
+     */
+    private static long[] stamp(Path key) throws Exception {
+        Path vcsDirectory = key.resolve(".vcs");
+        Path head = vcsDirectory.resolve("HEAD");
+        String branch = Files.exists(head) ? Files.readString(head).trim() : "";
+        return new long[] {
+                modified(head),
+                modified(vcsDirectory.resolve("Index")),
+                modified(vcsDirectory.resolve("AllCommits")),
+                branch.isEmpty() ? 0 : modified(Path.of(branch)),
+                modified(vcsDirectory.resolve("Branches")),
+                modified(vcsDirectory.resolve("Tasks"))
+        };
+    }
+
+    private static long modified(Path path) {
+        File file = path.toFile();
+        return file.lastModified() ^ file.length() << 40;
+    }
+
+    private static class Entry {
+        final VersionControlSystem vcs;
+        long[] stamp;
+
+        Entry(VersionControlSystem vcs, long[] stamp) {
+            this.vcs = vcs;
+            this.stamp = stamp;
+        }
+    }
+}
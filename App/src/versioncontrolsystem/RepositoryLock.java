@@ -0,0 +1,61 @@
+package versioncontrolsystem;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive lock on a repository, held while it is being changed.
+ * Other processes are kept out by a lock on .vcs/Lock. File locks belong to the whole process, so other threads
+ * of this process are kept out by a lock per repository as well.
+ */
+public class RepositoryLock implements AutoCloseable {
+    private static final Map<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+    private final ReentrantLock local;
+    private final FileChannel channel;
+    private final FileLock lock;
+
+    private RepositoryLock(ReentrantLock local, FileChannel channel, FileLock lock) {
+        this.local = local;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    /**
+     * Waits for and takes the lock on a repository
+     * @param vcsDirectory: path to the .vcs directory
+     * @return the lock, to be closed once the changes are done
+     */
+    public static RepositoryLock acquire(Path vcsDirectory) throws Exception {
+        Path file = vcsDirectory.resolve("Lock").toAbsolutePath().normalize();
+        ReentrantLock local = LOCKS.computeIfAbsent(file, k -> new ReentrantLock());
+        local.lock();
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                return new RepositoryLock(local, channel, channel.lock());
+            } catch (Exception e) {
+                channel.close();
+                throw e;
+            }
+        } catch (Exception e) {
+            local.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lock.release();
+            channel.close();
+        } finally {
+            local.unlock();
+        }
+    }
+}
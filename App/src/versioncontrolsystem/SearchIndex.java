@@ -0,0 +1,226 @@
+package versioncontrolsystem;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Inverted index over commit messages, authors and tasks, stored in .vcs/SearchIndex.
+ * Each line of the file is one commit: [hash]\t[term]\t[term]...
+ * Terms are prefixed with their field: "m:" message token, "a:" author, "t:" opened or closed task.
+ * Commits are numbered in the order they were indexed, so a higher number is a more recent commit.
+ */
+public class SearchIndex {
+    private static final String MESSAGE = "m:";
+    private static final String AUTHOR = "a:";
+    private static final String TASK = "t:";
+    private final File file;  // .vcs/SearchIndex
+    private final File allCommits;  // .vcs/AllCommits, used to catch up on commits that were never indexed
+    private final Path vcsDirectory;
+    private List<String> commits;  // ordinal : commit hash
+    private Set<String> indexed;  // hashes of all indexed commits
+    private TreeMap<String, Postings> terms;  // term : ordinals of the commits containing it
+
+    public SearchIndex(Path vcsDirectory, File allCommits) {
+        this.vcsDirectory = vcsDirectory;
+        this.file = vcsDirectory.resolve("SearchIndex").toFile();
+        this.allCommits = allCommits;
+    }
+
+    /**
+     * Adds a newly created commit to the index, appending it to the index file
+     * If the index hasn't been loaded yet, only the file is updated
+     * @param c: the new commit
+     */
+    public synchronized void add(Commit c) throws Exception {
+        if (c instanceof InitialCommit) {
+            return;
+        }
+        Set<String> t = terms(c);
+        try (FileWriter writer = new FileWriter(file, true)) {
+            writer.write(line(c.hash, t));
+        }
+        if (terms != null) {
+            put(c.hash, t);
+        }
+    }
+
+    /**
+     * Finds every commit matching all the given criteria
+     * @param query: words of the message, each word matches any message token it is a prefix of
+     * @param author: exact author name, or null/empty for any author
+     * @param task: exact task name opened or closed by the commit, or null/empty for any task
+     * @return hashes of the matching commits, most recent first
+     */
+    public synchronized List<String> search(String query, String author, String task) throws Exception {
+        load();
+        BitSet result = null;
+        for (String token : tokenize(query)) {
+            BitSet matches = new BitSet(commits.size());
+            for (Postings p : terms.subMap(MESSAGE + token, MESSAGE + token + Character.MAX_VALUE).values()) {
+                p.setAll(matches);
+            }
+            result = and(result, matches);
+        }
+        if (author != null && !author.isEmpty()) {
+            result = and(result, exact(AUTHOR + clean(author)));
+        }
+        if (task != null && !task.isEmpty()) {
+            result = and(result, exact(TASK + clean(task)));
+        }
+        List<String> output = new ArrayList<>();
+        if (result == null) {
+            return output;
+        }
+        for (int i = result.previousSetBit(commits.size() - 1); i >= 0; i = result.previousSetBit(i - 1)) {
+            output.add(commits.get(i));
+        }
+        return output;
+    }
+
+    /**
+     * Reads the index file into memory, then indexes any commits in AllCommits that are missing from it
+     */
+    private void load() throws Exception {
+        if (terms != null) {
+            return;
+        }
+        commits = new ArrayList<>();
+        indexed = new HashSet<>();
+        terms = new TreeMap<>();
+        String line;
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                while ((line = reader.readLine()) != null) {
+                    String[] parts = line.split("\t");
+                    if (parts[0].length() == 40 && !indexed.contains(parts[0])) {
+                        put(parts[0], Arrays.asList(parts).subList(1, parts.length));
+                    }
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader reader = new BufferedReader(new FileReader(allCommits))) {
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !indexed.contains(line)) {
+                    Set<String> t = terms(Commit.findCommit(line, vcsDirectory));
+                    put(line, t);
+                    sb.append(line(line, t));
+                }
+            }
+        }
+        if (sb.length() > 0) {
+            try (FileWriter writer = new FileWriter(file, true)) {
+                writer.write(sb.toString());
+            }
+        }
+    }
+
+    private void put(String hash, Collection<String> t) {
+        int ordinal = commits.size();
+        commits.add(hash);
+        indexed.add(hash);
+        for (String term : t) {
+            terms.computeIfAbsent(term, k -> new Postings()).add(ordinal);
+        }
+    }
+
+    private BitSet exact(String term) {
+        BitSet matches = new BitSet(commits.size());
+        Postings p = terms.get(term);
+        if (p != null) {
+            p.setAll(matches);
+        }
+        return matches;
+    }
+
+    private static BitSet and(BitSet a, BitSet b) {
+        if (a == null) {
+            return b;
+        }
+        a.and(b);
+        return a;
+    }
+
+    /**
+     * Returns the set of terms a commit is indexed under
+     * @param c: commit object
+     * @return set of field prefixed terms
+     */
+    private static Set<String> terms(Commit c) {
+        Set<String> t = new LinkedHashSet<>();
+        for (String token : tokenize(c.message)) {
+            t.add(MESSAGE + token);
+        }
+        t.add(AUTHOR + clean(c.author));
+        for (String s : c.opened) {
+            t.add(TASK + clean(s));
+        }
+        for (String s : c.closed) {
+            t.add(TASK + clean(s));
+        }
+        return t;
+    }
+
+    /**
+     * Splits text into lowercase runs of letters and digits
+     * @param text: string to be split
+     * @return list of tokens
+     */
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) {
+            return tokens;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (Character.isLetterOrDigit(ch)) {
+                sb.append(Character.toLowerCase(ch));
+            } else if (sb.length() > 0) {
+                tokens.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+        if (sb.length() > 0) {
+            tokens.add(sb.toString());
+        }
+        return tokens;
+    }
+
+    private static String clean(String s) {
+        return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static String line(String hash, Collection<String> t) {
+        StringBuilder sb = new StringBuilder(hash);
+        for (String term : t) {
+            sb.append("\t").append(term);
+        }
+        return sb.append("\n").toString();
+    }
+
+    /**
+     * Growable, sorted list of commit ordinals
+     */
+    private static class Postings {
+        private int[] ordinals = new int[4];
+        private int size;
+
+        void add(int ordinal) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+
+        void setAll(BitSet bits) {
+            for (int i = 0; i < size; i++) {
+                bits.set(ordinals[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package versioncontrolsystem;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The state of a repository at one moment: the current branch and commit, the index, the branches and the tasks.
+ * Snapshots are never changed once made, so any number of threads can read one while the repository changes.
+ */
+public class Snapshot {
+    public final Commit lastCommit;
+    public final String branch;
+    public final Map<String, String> indexMap;  // [name] : [hash] [status]
+    public final Map<String, Commit> branchCommits;  // branch name : head commit
+    public final Set<Path> branchSet;  // paths of all branch pointers
+    public final Set<String> tasks;
+
+    public Snapshot(Commit lastCommit, String branch, Map<String, String> indexMap, Map<String, Commit> branchCommits,
+                    Set<Path> branchSet, Set<String> tasks) {
+        this.lastCommit = lastCommit;
+        this.branch = branch;
+        this.indexMap = Map.copyOf(indexMap);
+        this.branchCommits = Map.copyOf(branchCommits);
+        this.branchSet = Set.copyOf(branchSet);
+        this.tasks = Set.copyOf(tasks);
+    }
+}
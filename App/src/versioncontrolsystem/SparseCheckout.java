@@ -0,0 +1,148 @@
+package versioncontrolsystem;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The paths checked out into the working directory, read from .vcs/SparseCheckout.
+ * Without the file every path is checked out. Paths that aren't checked out are left out of the working directory,
+ * and the status and commits treat them as unchanged from the last commit.
+ * If the first line is "cone", every other line is a directory, and the checkout has the files at the top, the
+ * files directly inside the directories above each listed directory, and everything under each listed directory.
+ * Directories outside the cone are never read.
+ * Otherwise every line is a gitignore style pattern of the paths to check out, and a path that no pattern decides
+ * is decided by its directory.
+ */
+public class SparseCheckout {
+    public static final String NAME = "SparseCheckout";
+    public static final String CONE = "cone";
+    private final Set<String> cone;  // / separated directories, null in pattern mode
+    private final Set<String> parents;  // directories above the cone directories, including ""
+    private final List<IgnoreRules.Rule> rules;
+
+    private SparseCheckout(Set<String> cone, List<IgnoreRules.Rule> rules) {
+        this.cone = cone;
+        this.rules = rules;
+        this.parents = new HashSet<>();
+        if (cone != null) {
+            for (String directory : cone) {
+                for (int i = directory.lastIndexOf('/'); i >= 0; i = directory.lastIndexOf('/', i - 1)) {
+                    parents.add(directory.substring(0, i));
+                }
+                parents.add("");
+            }
+        }
+    }
+
+    /**
+     * Reads the sparse checkout definition
+     * @param vcsDirectory: path to the .vcs directory
+     * @return the definition, or null if every path is checked out
+     */
+    public static SparseCheckout load(Path vcsDirectory) throws Exception {
+        Path file = vcsDirectory.resolve(NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        return parse(Files.readAllLines(file));
+    }
+
+    /**
+     * Reads a sparse checkout definition without saving it
+     * @param lines: lines of the definition
+     * @return the definition, or null if every path is checked out
+     */
+    public static SparseCheckout of(List<String> lines) {
+        return parse(lines);
+    }
+
+    /**
+     * Saves a sparse checkout definition, or deletes it if it is empty
+     * @param vcsDirectory: path to the .vcs directory
+     * @param lines: lines of the definition
+     * @return the definition, or null if every path is checked out
+     */
+    public static SparseCheckout save(Path vcsDirectory, List<String> lines) throws Exception {
+        Path file = vcsDirectory.resolve(NAME);
+        SparseCheckout output = parse(lines);
+        if (output == null) {
+            Files.deleteIfExists(file);
+        } else {
+            VCSUtils.writeAtomically(file, (String.join("\n", lines) + "\n").getBytes(), vcsDirectory);
+        }
+        return output;
+    }
+
+    private static SparseCheckout parse(List<String> lines) {
+        if (lines.isEmpty() || lines.size() == 1 && lines.get(0).trim().equals(CONE)) {
+            return null;
+        }
+        if (!lines.get(0).trim().equals(CONE)) {
+            return new SparseCheckout(null, IgnoreRules.compile(lines));
+        }
+        Set<String> cone = new HashSet<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String directory = line.trim().replace('\\', '/');
+            while (directory.startsWith("/")) {
+                directory = directory.substring(1);
+            }
+            while (directory.endsWith("/")) {
+                directory = directory.substring(0, directory.length() - 1);
+            }
+            if (!directory.isEmpty()) {
+                cone.add(directory);
+            }
+        }
+        return new SparseCheckout(cone, List.of());
+    }
+
+    /**
+     * Checks whether a file is checked out
+     * @param name: path relative to the working directory
+     * @return true if the file is checked out
+     */
+    public boolean includes(String name) {
+        String path = name.replace(File.separatorChar, '/');
+        if (cone != null) {
+            int split = path.lastIndexOf('/');
+            return parents.contains(split < 0 ? "" : path.substring(0, split)) || inCone(path);
+        }
+        for (boolean directory = false; !path.isEmpty(); directory = true) {
+            for (int i = rules.size() - 1; i >= 0; i--) {
+                IgnoreRules.Rule rule = rules.get(i);
+                if ((directory || !rule.directoryOnly) && rule.pattern.matcher(path).matches()) {
+                    return !rule.negated;
+                }
+            }
+            int split = path.lastIndexOf('/');
+            path = split < 0 ? "" : path.substring(0, split);
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether a directory can hold files that are checked out
+     * @param name: path of the directory relative to the working directory
+     * @return false if nothing under the directory is checked out
+     */
+    public boolean mayInclude(String name) {
+        if (cone == null) {
+            return true;
+        }
+        String path = name.replace(File.separatorChar, '/');
+        return path.isEmpty() || parents.contains(path) || inCone(path);
+    }
+
+    private boolean inCone(String path) {
+        for (int i = path.length(); i > 0; i = path.lastIndexOf('/', i - 1)) {
+            if (cone.contains(path.substring(0, i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
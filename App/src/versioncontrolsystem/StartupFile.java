@@ -0,0 +1,219 @@
+package versioncontrolsystem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The state a repository needs when it is opened (the HEAD, branch heads, tasks, index and number of commits),
+ * saved to .vcs/StartupSnapshot so that opening the repository doesn't have to rebuild it.
+ * The file also holds the modification time, size and file key of every file the state was read from, and it is
+ * only used while all of them are unchanged. Files in Branches and Tasks are added and removed by renaming, which
+ * changes the modification time of the directory.
+ *      *  [MAGIC]
+ *      *  [number of files] ([path] [modified] [size] [key])...
+ *      *  [HEAD]
+ *      *  [number of commits]
+ *      *  [number of branches] ([name] [hash])...
+ *      *  [number of tasks] ([task])...
+ *      *  [number of index entries] ([name] [hash] [status])...
+ *      *  [checksum]
+ * Numbers are written big endian and strings as their UTF-8 length then bytes.
+ */
+public class StartupFile {
+    public static final String NAME = "StartupSnapshot";
+    private static final byte[] MAGIC = "VCSSTAT1".getBytes(StandardCharsets.US_ASCII);
+    public final String head;  // path to the current branch pointer
+    public final int commits;  // number of lines in AllCommits
+    public final Map<String, String> branches;  // branch name : head commit hash
+    public final Set<String> tasks;
+    public final Map<String, String> indexMap;  // [name] : [hash] [status]
+
+    public StartupFile(String head, int commits, Map<String, String> branches, Set<String> tasks,
+                       Map<String, String> indexMap) {
+        this.head = head;
+        this.commits = commits;
+        this.branches = branches;
+        this.tasks = tasks;
+        this.indexMap = indexMap;
+    }
+
+    /**
+     * Records the state of the files the startup state is read from
+     * Has to be called before they are read, so a change made while reading them makes the saved state out of date
+     * @param paths: files and directories
+     * @return one stamp per path
+     */
+    public static List<Stamp> stamp(Collection<Path> paths) throws Exception {
+        List<Stamp> output = new ArrayList<>(paths.size());
+        for (Path p : paths) {
+            output.add(new Stamp(p.toAbsolutePath().toString()));
+        }
+        return output;
+    }
+
+    /**
+     * Reads the startup state
+     * @param vcsDirectory: path to the .vcs directory
+     * @return the saved state, or null if there isn't one, it is damaged or any of its files have changed since
+     */
+    public static StartupFile load(Path vcsDirectory) throws Exception {
+        Path file = vcsDirectory.resolve(NAME);
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < MAGIC.length + Long.BYTES || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            buffer.flip();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.limit() - Long.BYTES);
+        if (crc.getValue() != buffer.getLong(buffer.limit() - Long.BYTES)) {
+            return null;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            return null;
+        }
+        try {
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                Stamp saved = new Stamp(readString(buffer), buffer.getLong(), buffer.getLong(), buffer.getLong());
+                if (!saved.equals(new Stamp(saved.path))) {
+                    return null;
+                }
+            }
+            String head = readString(buffer);
+            int commits = buffer.getInt();
+            Map<String, String> branches = new HashMap<>();
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                branches.put(readString(buffer), readString(buffer));
+            }
+            Set<String> tasks = new HashSet<>();
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                tasks.add(readString(buffer));
+            }
+            Map<String, String> indexMap = new HashMap<>();
+            count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                indexMap.put(readString(buffer), readString(buffer));
+            }
+            return new StartupFile(head, commits, branches, tasks, indexMap);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Saves the startup state, replacing the old one in one rename
+     * @param vcsDirectory: path to the .vcs directory
+     * @param stamps: stamps of the files the state was read from, taken before they were read
+     */
+    public void save(Path vcsDirectory, List<Stamp> stamps) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(stamps.size());
+        for (Stamp s : stamps) {
+            writeString(out, s.path);
+            out.writeLong(s.modified);
+            out.writeLong(s.size);
+            out.writeLong(s.key);
+        }
+        writeString(out, head);
+        out.writeInt(commits);
+        out.writeInt(branches.size());
+        for (Map.Entry<String, String> entry : branches.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.writeInt(tasks.size());
+        for (String task : tasks) {
+            writeString(out, task);
+        }
+        out.writeInt(indexMap.size());
+        for (Map.Entry<String, String> entry : indexMap.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeLong(crc.getValue());
+        VCSUtils.writeAtomically(vcsDirectory.resolve(NAME), bytes.toByteArray(), vcsDirectory);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws Exception {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Modification time, size and file key of a file, all 0 if it doesn't exist
+     * The file key (the inode on most systems) changes when a file is replaced by a rename, even within the same
+     * millisecond. Systems without file keys use 0.
+     */
+    public static class Stamp {
+        final String path;
+        final long modified;
+        final long size;
+        final long key;
+
+        Stamp(String path) throws Exception {
+            this.path = path;
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(Path.of(path), BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                this.modified = 0;
+                this.size = 0;
+                this.key = 0;
+                return;
+            }
+            this.modified = attributes.lastModifiedTime().toMillis();
+            this.size = attributes.size();
+            this.key = attributes.fileKey() == null ? 0 : attributes.fileKey().hashCode();
+        }
+        Stamp(String path, long modified, long size, long key) {
+            this.path = path;
+            this.modified = modified;
+            this.size = size;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Stamp s && path.equals(s.path) && modified == s.modified && size == s.size
+                    && key == s.key;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, modified, size, key);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package versioncontrolsystem;
+
+import java.util.*;
+
+/**
+ * The result of the last full status, kept in memory so that after a change to a few paths only those paths have to
+ * be looked at again.
+ * The cached result is only updated while the last commit is the one it was made against, and the Index differs from
+ * the one it was made against only at the paths being looked at. A path that is, or could become, part of a rename
+ * needs every other path to be paired against, so it needs a full status too.
+ */
+public class StatusCache {
+    private static final String RENAMED = " | (renamed from ";
+    private static final String UNTRACKED = " | (untracked)";
+    private static final String DELETED = " | (deleted)";
+    private String commit;  // hash of the commit the status was made against, null if there is no status
+    private Map<String, String> index;  // Index the status was made against
+    private Set<String> staged;
+    private Set<String> unstaged;
+
+    /**
+     * Works out the status entries of one path
+     */
+    @FunctionalInterface
+    interface PathStatus {
+        /**
+         * @param name: the path, relative to the working directory
+         * @return [0]: staged entries of the path, [1]: unstaged entries of the path
+         */
+        List<String>[] of(String name) throws Exception;
+    }
+
+    /**
+     * Keeps the result of a full status
+     * @param state: snapshot the status was made from
+     */
+    synchronized void store(Snapshot state, Set<String> staged, Set<String> unstaged) {
+        this.commit = state.lastCommit.hash;
+        this.index = state.indexMap;
+        this.staged = new HashSet<>(staged);
+        this.unstaged = new HashSet<>(unstaged);
+    }
+
+    /**
+     * Forgets the status, after a change to the working directory that it can't follow
+     */
+    synchronized void clear() {
+        commit = null;
+    }
+
+    /**
+     * Looks at some paths again and updates the status
+     * @param state: the current snapshot
+     * @param names: the paths that changed, relative to the working directory
+     * @param status: works out the entries of a path
+     * @return [0]: staged entries, [1]: unstaged entries, or null if a full status is needed
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    synchronized Set<String>[] update(Snapshot state, Set<String> names, PathStatus status) throws Exception {
+        if (commit == null || !commit.equals(state.lastCommit.hash) || !sameIndex(state.indexMap, names)) {
+            return null;
+        }
+        Set<String> oldStaged = new HashSet<>();
+        Set<String> oldUnstaged = new HashSet<>();
+        Set<String> newStaged = new HashSet<>();
+        Set<String> newUnstaged = new HashSet<>();
+        for (String name : names) {
+            if (renamed(staged, name) || renamed(unstaged, name)) {
+                return null;
+            }
+            entries(staged, name, oldStaged);
+            entries(unstaged, name, oldUnstaged);
+            List<String>[] entries = status.of(name);
+            newStaged.addAll(entries[0]);
+            newUnstaged.addAll(entries[1]);
+        }
+        Set<String> otherUnstaged = new HashSet<>(unstaged);
+        otherUnstaged.removeAll(oldUnstaged);
+        for (String name : names) {
+            if (renameCandidate(state.indexMap, name)
+                    || newUnstaged.contains(name + UNTRACKED) && hasSuffix(otherUnstaged, DELETED)
+                    || newUnstaged.contains(name + DELETED) && hasSuffix(otherUnstaged, UNTRACKED)) {
+                return null;
+            }
+        }
+        staged.removeAll(oldStaged);
+        staged.addAll(newStaged);
+        unstaged.removeAll(oldUnstaged);
+        unstaged.addAll(newUnstaged);
+        index = state.indexMap;
+        Set<String>[] output = new HashSet[2];
+        output[0] = new HashSet<>(staged);
+        output[1] = new HashSet<>(unstaged);
+        return output;
+    }
+
+    /**
+     * Checks that the Index only changed at the given paths since the status was made
+     */
+    private boolean sameIndex(Map<String, String> current, Set<String> names) {
+        if (current == index) {
+            return true;
+        }
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            if (!names.contains(entry.getKey()) && !entry.getValue().equals(index.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        for (String name : index.keySet()) {
+            if (!names.contains(name) && !current.containsKey(name)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a path is staged as added while another is staged as removed, or the other way round, which
+     * the full status would check for a rename
+     */
+    private static boolean renameCandidate(Map<String, String> index, String name) {
+        String line = index.get(name);
+        if (line == null || line.endsWith("0")) {
+            return false;
+        }
+        String other = line.endsWith("1") ? "2" : "1";
+        for (String value : index.values()) {
+            if (value.endsWith(other)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean renamed(Set<String> set, String name) {
+        for (String entry : set) {
+            int i = entry.indexOf(RENAMED);
+            if (i >= 0 && (entry.substring(0, i).equals(name)
+                    || entry.substring(i + RENAMED.length(), entry.length() - 1).equals(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the entries of a path in a set to output
+     */
+    private static void entries(Set<String> set, String name, Set<String> output) {
+        if (set.contains(name)) {
+            output.add(name);
+        }
+        for (String suffix : new String[] {" | (modified)", UNTRACKED, DELETED}) {
+            if (set.contains(name + suffix)) {
+                output.add(name + suffix);
+            }
+        }
+    }
+
+    private static boolean hasSuffix(Set<String> set, String suffix) {
+        for (String entry : set) {
+            if (entry.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,286 @@
+package versioncontrolsystem;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * The fetch and push protocol between two repositories.
+ * The side that serves the repository first advertises its branches. The side that will receive commits then
+ * lists the branch heads it doesn't have (its wants), and sends the commits it has (its haves) in rounds, newest
+ * first from its own branch heads. The other side acknowledges the haves it also has, and the receiver stops
+ * walking back from an acknowledged commit, since everything before it is shared too. The sender then packs the
+ * commits between the wants and the acknowledged commits, see Pack.
+ *      *  fetch: client sends FETCH, server sends its branches, client sends its wants, client sends haves and the
+ *      *  server acknowledges them, server sends the pack
+ *      *  push: client sends PUSH, server sends its branches, client sends the updates ([branch] [old] [new]),
+ *      *  server sends its wants, server sends haves and the client acknowledges them, client sends the pack,
+ *      *  server sends the result of each update
+ * Strings are written as by DataOutputStream.writeUTF, and lists as their size then their items.
+ */
+public class Sync extends VCSUtils {
+    public static final String FETCH = "fetch";
+    public static final String PUSH = "push";
+    static final int BUFFER = 64 * 1024;
+    private static final int ROUND = 32;  // haves sent before waiting for their acknowledgements
+    private final Path vcsDirectory;
+    private final Map<String, Commit> cache;
+    private final Map<String, Integer> order;  // commit hash : position in AllCommits
+
+    public Sync(Path vcsDirectory, Map<String, Commit> cache, Map<String, Integer> order) {
+        this.vcsDirectory = vcsDirectory;
+        this.cache = cache;
+        this.order = order;
+    }
+
+    /**
+     * Serves a repository over TCP, on a daemon thread per connection
+     * Only the loopback interface is listened on, since connections aren't authenticated, so the repository can only
+     * be reached from this machine
+     * @param vcs: the repository
+     * @param port: port to listen on, 0 for any free port
+     * @return the server socket, to be closed to stop serving
+     */
+    public static ServerSocket listen(VersionControlSystem vcs, int port) throws Exception {
+        ServerSocket server = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        Thread accept = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread connection = new Thread(() -> {
+                        try (socket) {
+                            vcs.serve(socket.getInputStream(), socket.getOutputStream());
+                        } catch (Exception ignored) {
+                            // the client sees the connection close early and reports it
+                        }
+                    }, "vcs-serve");
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException ignored) {
+                    // the socket was closed
+                }
+            }
+        }, "vcs-listen");
+        accept.setDaemon(true);
+        accept.start();
+        return server;
+    }
+
+    public static DataInputStream input(InputStream in) {
+        return new DataInputStream(new BufferedInputStream(in, BUFFER));
+    }
+
+    public static DataOutputStream output(OutputStream out) {
+        return new DataOutputStream(new BufferedOutputStream(out, BUFFER));
+    }
+
+    public static void writeList(DataOutputStream out, Collection<String> list) throws Exception {
+        out.writeInt(list.size());
+        for (String s : list) {
+            out.writeUTF(s);
+        }
+    }
+
+    public static List<String> readList(DataInputStream in) throws Exception {
+        int count = in.readInt();
+        List<String> output = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            output.add(in.readUTF());
+        }
+        return output;
+    }
+
+    /**
+     * Sends the branches
+     * @param out: stream to the other side
+     * @param refs: branch name : head commit hash
+     */
+    public static void writeRefs(DataOutputStream out, Map<String, String> refs) throws Exception {
+        out.writeInt(refs.size());
+        for (Map.Entry<String, String> entry : refs.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeUTF(entry.getValue());
+        }
+        out.flush();
+    }
+
+    public static Map<String, String> readRefs(DataInputStream in) throws Exception {
+        int count = in.readInt();
+        Map<String, String> output = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            String hash = in.readUTF();
+            if (!isBranchName(name)) {
+                throw new FailCaseException("Invalid branch name from remote: " + name);
+            }
+            output.put(name, checkHash(hash));
+        }
+        return output;
+    }
+
+    /**
+     * Reads a list of hashes, checking each before it can be used as a path
+     */
+    public static List<String> readHashes(DataInputStream in) throws Exception {
+        List<String> output = readList(in);
+        for (String hash : output) {
+            checkHash(hash);
+        }
+        return output;
+    }
+
+    /**
+     * Checks a hash received from the other side
+     * @return the hash
+     */
+    public static String checkHash(String hash) throws FailCaseException {
+        if (!isHash(hash)) {
+            throw new FailCaseException("Invalid hash from remote: " + hash);
+        }
+        return hash;
+    }
+
+    /**
+     * Sends haves in rounds until the walk back from the heads runs out of commits the other side hasn't
+     * acknowledged, run by the side receiving the pack
+     * @param heads: heads of the local branches
+     * @return the acknowledged commits
+     */
+    public Set<String> sendHaves(DataInputStream in, DataOutputStream out, Collection<Commit> heads) throws Exception {
+        Set<String> common = new HashSet<>();
+        Set<String> seen = new HashSet<>();
+        PriorityQueue<Commit> queue = new PriorityQueue<>((x, y) -> Integer.compare(position(y), position(x)));
+        for (Commit head : heads) {
+            if (seen.add(head.hash)) {
+                queue.add(head);
+            }
+        }
+        while (true) {
+            List<Commit> round = new ArrayList<>(ROUND);
+            while (round.size() < ROUND && !queue.isEmpty()) {
+                Commit c = queue.poll();
+                if (!(c instanceof InitialCommit)) {  // every repository has the initial commit
+                    round.add(c);
+                }
+            }
+            List<String> haves = new ArrayList<>(round.size());
+            for (Commit c : round) {
+                haves.add(c.hash);
+            }
+            writeList(out, haves);
+            out.flush();
+            if (round.isEmpty()) {
+                return common;
+            }
+            common.addAll(readList(in));
+            for (Commit c : round) {
+                if (common.contains(c.hash)) {
+                    continue;
+                }
+                for (Commit parent : c.parentCommits(cache)) {
+                    if (seen.add(parent.hash)) {
+                        queue.add(parent);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Acknowledges the haves this side also has, run by the side sending the pack
+     * @return the acknowledged commits
+     */
+    public Set<String> acknowledgeHaves(DataInputStream in, DataOutputStream out) throws Exception {
+        Set<String> common = new HashSet<>();
+        List<String> haves;
+        while (!(haves = readHashes(in)).isEmpty()) {
+            List<String> acknowledged = new ArrayList<>();
+            for (String hash : haves) {
+                if (order.containsKey(hash) || hashExists(hash, vcsDirectory)) {
+                    acknowledged.add(hash);
+                }
+            }
+            common.addAll(acknowledged);
+            writeList(out, acknowledged);
+            out.flush();
+        }
+        return common;
+    }
+
+    /**
+     * Sends the commits the other side wants and everything they need, stopping at the commits it has
+     * @param wants: commits the other side asked for
+     * @param common: commits both sides have
+     */
+    public void sendPack(DataOutputStream out, Collection<String> wants, Set<String> common) throws Exception {
+        new Pack(vcsDirectory, cache).write(out, missing(wants, common));
+    }
+
+    /**
+     * Finds the commits reachable from the wants, stopping at the common commits
+     * @param wants: commits the other side asked for
+     * @param common: commits both sides have
+     * @return the commits the other side doesn't have, parents first
+     */
+    public List<Commit> missing(Collection<String> wants, Set<String> common) throws Exception {
+        List<Commit> missing = new ArrayList<>();
+        Set<String> seen = new HashSet<>(common);
+        Deque<Commit> stack = new ArrayDeque<>();
+        for (String want : wants) {
+            if (seen.add(want)) {
+                stack.push(Commit.findCommit(want, vcsDirectory, cache));
+            }
+        }
+        while (!stack.isEmpty()) {
+            Commit c = stack.pop();
+            if (c instanceof InitialCommit) {
+                continue;
+            }
+            missing.add(c);
+            for (Commit parent : c.parentCommits(cache)) {
+                if (seen.add(parent.hash)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        missing.sort(Comparator.comparingInt(this::position));
+        return missing;
+    }
+
+    /**
+     * Finds a set of commits and all of their ancestors
+     * @param commits: the commits
+     * @return hashes of the commits and their ancestors
+     */
+    public Set<String> ancestors(Collection<Commit> commits) throws Exception {
+        Set<String> output = new HashSet<>();
+        Deque<Commit> stack = new ArrayDeque<>();
+        for (Commit c : commits) {
+            if (output.add(c.hash)) {
+                stack.push(c);
+            }
+        }
+        while (!stack.isEmpty()) {
+            for (Commit parent : stack.pop().parentCommits(cache)) {
+                if (output.add(parent.hash)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Checks whether a commit is an ancestor of another, or the same commit
+     */
+    public boolean isAncestor(Commit ancestor, Commit descendant) throws Exception {
+        return new Merge(vcsDirectory, cache, order).mergeBase(ancestor, descendant).hash.equals(ancestor.hash);
+    }
+
+    private int position(Commit c) {
+        return c instanceof InitialCommit ? -1 : order.getOrDefault(c.hash, -1);
+    }
+}
@@ -0,0 +1,136 @@
+package versioncontrolsystem;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A way of reaching another repository for fetch and push.
+ * Every transport gives a pair of byte streams, and the other end runs VersionControlSystem.serve on them:
+ *      *  a path opens the repository in this process and serves it on another thread
+ *      *  tcp://host:port connects to a repository served by Sync.listen, in this or another process
+ *      *  ext::command starts the command and talks to it over its stdin and stdout, for example
+ *      *  "ext::java versioncontrolsystem.Main serve C:\repository"
+ */
+@FunctionalInterface
+public interface Transport {
+    String SOCKET = "tcp://";
+    String COMMAND = "ext::";
+
+    /**
+     * Opens a connection to the other repository
+     * @return the connection, to be closed once the exchange is done
+     */
+    Connection connect() throws Exception;
+
+    /**
+     * Picks the transport for a remote
+     * @param remote: path, tcp://host:port or ext::command
+     * @return the transport
+     */
+    static Transport of(String remote) throws FailCaseException {
+        if (remote.startsWith(SOCKET)) {
+            String address = remote.substring(SOCKET.length());
+            int split = address.lastIndexOf(':');
+            if (split < 0) {
+                throw new FailCaseException("Remote is missing a port: " + remote);
+            }
+            return socket(address.substring(0, split), Integer.parseInt(address.substring(split + 1)));
+        }
+        if (remote.startsWith(COMMAND)) {
+            return command(Arrays.asList(remote.substring(COMMAND.length()).trim().split("\\s+")));
+        }
+        return local(remote);
+    }
+
+    /**
+     * Serves a repository in this process, over a pair of pipes
+     * @param directory: working directory of the repository
+     */
+    static Transport local(String directory) {
+        return () -> {
+            VersionControlSystem remote = new VersionControlSystem(directory, false);
+            PipedInputStream in = new PipedInputStream(Sync.BUFFER);
+            PipedInputStream serverIn = new PipedInputStream(Sync.BUFFER);
+            OutputStream out = new PipedOutputStream(serverIn);
+            OutputStream serverOut = new PipedOutputStream(in);
+            Thread server = new Thread(() -> {
+                try (serverIn; serverOut) {
+                    remote.serve(serverIn, serverOut);
+                } catch (Exception ignored) {
+                    // the client sees the pipe close early and reports it
+                }
+            }, "vcs-serve");
+            server.setDaemon(true);
+            server.start();
+            return new Connection(in, out, () -> Connection.await(server::join));
+        };
+    }
+
+    /**
+     * Connects to a repository served over TCP
+     * @param host: host name or address
+     * @param port: port the repository is served on
+     */
+    static Transport socket(String host, int port) {
+        return () -> {
+            Socket socket = new Socket(host, port);
+            return new Connection(socket.getInputStream(), socket.getOutputStream(), socket::close);
+        };
+    }
+
+    /**
+     * Starts a command that serves a repository on its stdin and stdout
+     * @param command: the command and its arguments
+     */
+    static Transport command(List<String> command) {
+        return () -> {
+            Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            return new Connection(process.getInputStream(), process.getOutputStream(),
+                    () -> Connection.await(process::waitFor));
+        };
+    }
+
+    /**
+     * The streams of an open connection
+     */
+    class Connection implements AutoCloseable {
+        public final InputStream in;
+        public final OutputStream out;
+        private final Closeable done;  // waits for or stops the other end
+
+        public Connection(InputStream in, OutputStream out, Closeable done) {
+            this.in = in;
+            this.out = out;
+            this.done = done;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+                in.close();
+            } finally {
+                done.close();
+            }
+        }
+
+        /**
+         * Waits for the other end to finish, as an IOException if the wait is interrupted
+         */
+        private static void await(Waiter waiter) throws IOException {
+            try {
+                waiter.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the remote");
+            }
+        }
+
+        @FunctionalInterface
+        private interface Waiter {
+            void await() throws InterruptedException;
+        }
+    }
+}
@@ -31,12 +31,16 @@ public class Tree extends VCSUtils {
      * @return tree object
      */
     public static Tree findTree(String hash, Path vcsDirectory) throws Exception {
+        long start = System.nanoTime();
         try (BufferedReader br = new BufferedReader(new FileReader(findHash(hash, vcsDirectory).toFile()))) {
             Map<String, String> map = new HashMap<>();
             String line;
+            long bytes = 0;
             while ((line = br.readLine()) != null) {
                 map.put(line.substring(0, line.length()-40).trim(), line.substring(line.length()-40).trim());
+                bytes += line.length() + 1;
             }
+            Metrics.OBJECTREAD.record(start, bytes);
             return new Tree(hash, map);
         }
     }
@@ -49,7 +53,6 @@ public class Tree extends VCSUtils {
      * @return a tree object
      */
     public static Tree makeTree(Path vcsDirectory, Map<String, String> index, Commit commit) throws Exception {
-            StringBuilder sb = new StringBuilder();
             Map<String, String> map;
             if (commit == null) {
                 map = new HashMap<>();
@@ -66,11 +69,22 @@ public class Tree extends VCSUtils {
                     }
                 }
             }
-            for (String key : map.keySet()) {
-                sb.append(String.format("%s %s\n", key, map.get(key)));
-            }
-            String hash = hash(sb.toString());
-            createFile(sb.toString(), hash, vcsDirectory);
-            return new Tree(hash, map);
+            return writeTree(vcsDirectory, map);
+    }
+
+    /**
+     * Saves a tree object with the given contents
+     * @param vcsDirectory: path to the .vcs directory
+     * @param map: the contents of the tree, [name] : [hash]
+     * @return a tree object
+     */
+    public static Tree writeTree(Path vcsDirectory, Map<String, String> map) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (String key : map.keySet()) {
+            sb.append(String.format("%s %s\n", key, map.get(key)));
+        }
+        String hash = hash(sb.toString());
+        createFile(sb.toString(), hash, vcsDirectory);
+        return new Tree(hash, map);
     }
 }
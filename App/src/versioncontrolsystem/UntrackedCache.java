@@ -0,0 +1,175 @@
+package versioncontrolsystem;
+
+import java.io.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Listings of the directories in the working directory, saved to .vcs/UntrackedCache so that the status doesn't
+ * have to read every directory again.
+ * Adding, removing or renaming anything in a directory changes its modification time, so a listing is reused while
+ * the directory's modification time and the .vcsignore files that apply to it are unchanged. A directory changed
+ * within RACYMILLIS of being listed isn't saved, since a later change in the same tick wouldn't change its
+ * modification time. Only one walk can use the cache at a time.
+ *      *  [number of directories]
+ *      *  ([path] [modified] [ignore rules fingerprint] [number of entries] ([name] [flags])...)...
+ */
+public class UntrackedCache {
+    public static final String NAME = "UntrackedCache";
+    private static final long RACYMILLIS = 2000;
+    private static final int DIRECTORY = 1;
+    private static final int IGNORED = 2;
+    private final Path vcsDirectory;
+    private Map<String, Listing> listings;  // directory relative to the working directory : listing
+    private Map<String, Listing> visited;  // listings used by the walk in progress
+    private boolean changed;
+
+    public UntrackedCache(Path vcsDirectory) {
+        this.vcsDirectory = vcsDirectory;
+    }
+
+    /**
+     * A file or directory in a listing
+     */
+    public static class Entry {
+        public final String name;
+        public final boolean directory;
+        public final boolean ignored;  // matched by the ignore rules, whether or not it is tracked
+
+        Entry(String name, boolean directory, boolean ignored) {
+            this.name = name;
+            this.directory = directory;
+            this.ignored = ignored;
+        }
+    }
+
+    private static class Listing {
+        final long modified;
+        final String fingerprint;
+        final List<Entry> entries;
+
+        Listing(long modified, String fingerprint, List<Entry> entries) {
+            this.modified = modified;
+            this.fingerprint = fingerprint;
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * Starts a walk of the working directory, reading the saved listings if they haven't been read yet
+     */
+    public void begin() throws Exception {
+        if (listings == null) {
+            listings = load();
+        }
+        visited = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Lists a directory, reusing the saved listing if the directory hasn't changed
+     * @param directory: the directory
+     * @param relative: path of the directory relative to the working directory, / separated, empty for the root
+     * @param rules: ignore rules for paths in the directory
+     * @return entries of the directory, or null if it no longer exists
+     */
+    public List<Entry> list(Path directory, String relative, IgnoreRules rules) throws Exception {
+        long modified;
+        try {
+            modified = Files.readAttributes(directory, BasicFileAttributes.class).lastModifiedTime().toMillis();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        Listing listing = listings.get(relative);
+        if (listing != null && listing.modified == modified && listing.fingerprint.equals(rules.fingerprint())) {
+            visited.put(relative, listing);
+            return listing.entries;
+        }
+        long now = System.currentTimeMillis();
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                BasicFileAttributes attributes = Files.readAttributes(p, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                if (attributes.isSymbolicLink() && Files.isDirectory(p)) {
+                    continue;  // links to directories are neither followed nor files
+                }
+                boolean isDirectory = attributes.isDirectory();
+                String path = relative.isEmpty() ? name : relative + "/" + name;
+                entries.add(new Entry(name, isDirectory, rules.isIgnored(path, isDirectory)));
+            }
+        }
+        if (now - modified >= RACYMILLIS) {
+            visited.put(relative, new Listing(modified, rules.fingerprint(), entries));
+        }
+        changed = true;
+        return entries;
+    }
+
+    /**
+     * Finishes a walk, saving the listings it used if any were read from disk
+     * Listings of directories the walk didn't reach are dropped
+     */
+    public void end() throws Exception {
+        boolean dropped = visited.size() != listings.size();
+        listings = visited;
+        if (changed || dropped) {
+            changed = false;
+            save();
+        }
+    }
+
+    private Map<String, Listing> load() {
+        Map<String, Listing> output = new ConcurrentHashMap<>();
+        File file = vcsDirectory.resolve(NAME).toFile();
+        if (!file.exists()) {
+            return output;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int directories = in.readInt();
+            for (int i = 0; i < directories; i++) {
+                String relative = in.readUTF();
+                long modified = in.readLong();
+                String fingerprint = in.readUTF();
+                int count = in.readInt();
+                List<Entry> entries = new ArrayList<>();
+                for (int j = 0; j < count; j++) {
+                    String name = in.readUTF();
+                    int flags = in.readByte();
+                    entries.add(new Entry(name, (flags & DIRECTORY) != 0, (flags & IGNORED) != 0));
+                }
+                output.put(relative, new Listing(modified, fingerprint, entries));
+            }
+        } catch (IOException | RuntimeException e) {
+            output.clear();  // a damaged cache is rebuilt by the next walk
+        }
+        return output;
+    }
+
+    private void save() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(listings.size());
+        for (Map.Entry<String, Listing> entry : listings.entrySet()) {
+            Listing listing = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(listing.modified);
+            out.writeUTF(listing.fingerprint);
+            out.writeInt(listing.entries.size());
+            for (Entry e : listing.entries) {
+                out.writeUTF(e.name);
+                out.writeByte((e.directory ? DIRECTORY : 0) | (e.ignored ? IGNORED : 0));
+            }
+        }
+        out.flush();
+        VCSUtils.writeAtomically(vcsDirectory.resolve(NAME), bytes.toByteArray(), vcsDirectory);
+    }
+}
@@ -2,14 +2,110 @@ package versioncontrolsystem;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class VCSUtils {
+    private static ExecutorService workers;  // worker pool shared by every repository
+    private static final Map<Path, List<Path>> ALTERNATES = new ConcurrentHashMap<>();  // .vcs : shared Objects
+
+    /**
+     * Returns the worker pool for parallel work, with one daemon thread per processor
+     * @return executor service
+     */
+    public static synchronized ExecutorService workers() {
+        if (workers == null) {
+            workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+                Thread t = new Thread(r, "vcs-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return workers;
+    }
+    /**
+     * Returns the path of an object
+     * Objects missing from the repository are looked for in its alternates, see alternates()
+     * @param hash: hash of the object
+     * @param vcsDirectory: path to the .vcs directory
+     * @return path to the object, in the repository's own object store if it isn't found anywhere
+     */
     public static Path findHash(String hash, Path vcsDirectory) {
-        return vcsDirectory.resolve("Objects").resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+        Path local = vcsDirectory.resolve("Objects").resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+        List<Path> alternates = alternates(vcsDirectory);
+        if (alternates.isEmpty() || Files.exists(local)) {
+            return local;
+        }
+        for (Path objects : alternates) {
+            Path p = objects.resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+            if (Files.exists(p)) {
+                return p;
+            }
+        }
+        return local;
+    }
+
+    /**
+     * Returns the object stores a repository shares, read once from .vcs/Alternates
+     * Each line of the file is the path of another repository's Objects directory. Shared objects are only read,
+     * and new objects are always written to the repository's own object store.
+     * @param vcsDirectory: path to the .vcs directory
+     * @return paths of the shared Objects directories
+     */
+    public static List<Path> alternates(Path vcsDirectory) {
+        return ALTERNATES.computeIfAbsent(vcsDirectory, dir -> {
+            Path file = dir.resolve("Alternates");
+            if (!Files.exists(file)) {
+                return List.of();
+            }
+            try {
+                List<Path> output = new ArrayList<>();
+                for (String line : Files.readAllLines(file)) {
+                    if (!line.isBlank()) {
+                        output.add(Path.of(line.trim()));
+                    }
+                }
+                return output;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Saves the object stores a repository shares
+     * @param vcsDirectory: path to the .vcs directory
+     * @param alternates: paths of the shared Objects directories
+     */
+    public static void writeAlternates(Path vcsDirectory, List<Path> alternates) throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (Path p : alternates) {
+            lines.add(p.toAbsolutePath().normalize().toString());
+        }
+        writeAtomically(vcsDirectory.resolve("Alternates"), (String.join("\n", lines) + "\n").getBytes(), vcsDirectory);
+        ALTERNATES.put(vcsDirectory, List.copyOf(alternates));
+    }
+
+    /**
+     * Hides a file on Windows, does nothing elsewhere
+     * @param path: the file
+     */
+    public static void hide(Path path) {
+        try {
+            Files.setAttribute(path, "dos:hidden", true);
+        } catch (UnsupportedOperationException | IOException ignored) {
+        }
     }
     /**
      * Returns the SHA-1 hash for a file
@@ -18,28 +114,42 @@ public class VCSUtils {
      */
     public static String hash(File path) throws Exception {
         try (FileInputStream fis = new FileInputStream(path)) {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            byte[] dataBytes = new byte[1024];
-            int bytesRead;
-
-            while ((bytesRead = fis.read(dataBytes)) != -1) {
-                md.update(dataBytes, 0, bytesRead);
-            }
-            byte[] hashBytes = md.digest();
-            StringBuilder sb = new StringBuilder();
-            for (byte hashByte : hashBytes) {
-                sb.append(Integer.toString((hashByte & 0xff) + 0x100, 16).substring(1));
-            }
-            return sb.toString();
+            String hash = hash(fis);
+            Progress.current().add(1, path.length());
+            return hash;
         } catch (Exception e) {
             throw new Exception("Hash failed for " + path + "due to:\n" + e.getMessage());
         }
     }
+    public static String hash(InputStream input) throws Exception {
+        long start = System.nanoTime();
+        MessageDigest md = MessageDigest.getInstance("SHA-1");
+        byte[] dataBytes = new byte[1024];
+        int bytesRead;
+        long bytes = 0;
+
+        while ((bytesRead = input.read(dataBytes)) != -1) {
+            md.update(dataBytes, 0, bytesRead);
+            bytes += bytesRead;
+        }
+        byte[] hashBytes = md.digest();
+        Metrics.HASH.record(start, bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte hashByte : hashBytes) {
+            sb.append(Integer.toString((hashByte & 0xff) + 0x100, 16).substring(1));
+        }
+        return sb.toString();
+    }
     public static String hash(String input) throws Exception {
+        return hash(input.getBytes());
+    }
+    public static String hash(byte[] input) throws Exception {
         try {
+            long start = System.nanoTime();
             MessageDigest md = MessageDigest.getInstance("SHA-1");
-            md.update(input.getBytes());
+            md.update(input);
             byte[] hashBytes = md.digest();
+            Metrics.HASH.record(start, input.length);
             StringBuilder sb = new StringBuilder();
             for (byte b : hashBytes) {
                 sb.append(String.format("%02x", b));
@@ -58,30 +168,97 @@ public class VCSUtils {
      */
     public static boolean createFile(File path, String hash, Path vcsDirectory) throws Exception {
         if (!hashExists(hash, vcsDirectory)) {
-            Path source = path.toPath();
+            long start = System.nanoTime();
             Path target = findHash(hash, vcsDirectory);
             File bin = target.getParent().toFile();
-            if (!bin.exists() && !bin.mkdir()) {
+            if (!bin.exists() && !bin.mkdir() && !bin.exists()) {
                 return false;
             }
-            Files.copy(source, target);
+            Path temp = tempFile(vcsDirectory);
+            Files.copy(path.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Metrics.OBJECTWRITE.record(start, path.length());
         }
         return true;
     }
     public static boolean createFile(String contents, String hash, Path vcsDirectory) throws Exception {
+        return createFile(contents.getBytes(), hash, vcsDirectory);
+    }
+    public static boolean createFile(byte[] contents, String hash, Path vcsDirectory) throws Exception {
         if (!hashExists(hash, vcsDirectory)) {
-            File target = findHash(hash, vcsDirectory).toFile();
-            File bin = target.getParentFile();
-            if (!bin.exists() && !bin.mkdir()) {
+            long start = System.nanoTime();
+            Path target = findHash(hash, vcsDirectory);
+            File bin = target.getParent().toFile();
+            if (!bin.exists() && !bin.mkdir() && !bin.exists()) {
                 return false;
             }
-            FileWriter writer = new FileWriter(target);
-            writer.write(contents);
-            writer.close();
+            writeAtomically(target, contents, vcsDirectory);
+            Metrics.OBJECTWRITE.record(start, contents.length);
         }
         return true;
     }
 
+    /**
+     * Replaces a file by writing a temporary file and renaming it over the old one,
+     * so the file is never seen half written, even after a crash
+     * @param target: the file to replace
+     * @param contents: new contents
+     * @param vcsDirectory: path to the .vcs directory
+     */
+    public static void writeAtomically(Path target, byte[] contents, Path vcsDirectory) throws Exception {
+        Path temp = tempFile(vcsDirectory);
+        Files.write(temp, contents);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Creates an empty temporary file in .vcs/Temp, which is on the same drive as everything it will be renamed to
+     * @param vcsDirectory: path to the .vcs directory
+     * @return path to the temporary file
+     */
+    public static Path tempFile(Path vcsDirectory) throws Exception {
+        Path dir = vcsDirectory.resolve("Temp");
+        Files.createDirectories(dir);
+        return Files.createTempFile(dir, "", ".tmp");
+    }
+
+    /**
+     * Saves a file from the working directory as a blob
+     * Files of at least threshold bytes are saved in chunks, see Chunker
+     * @param path: path to the file
+     * @param hash: hash of the file
+     * @param vcsDirectory: path to the .vcs directory
+     * @param threshold: size in bytes at which files are chunked
+     */
+    public static void createBlob(File path, String hash, Path vcsDirectory, long threshold) throws Exception {
+        if (hashExists(hash, vcsDirectory)) {
+            return;
+        }
+        if (path.length() >= threshold || Chunker.startsWithMagic(path)) {
+            long start = System.nanoTime();
+            Chunker.write(path, hash, vcsDirectory);
+            Metrics.OBJECTWRITE.record(start, path.length());
+        } else {
+            createFile(path, hash, vcsDirectory);
+        }
+    }
+
+    /**
+     * Copies a blob to a file, reassembling it if it was saved in chunks
+     * @param hash: hash of the blob
+     * @param target: path of the file to write
+     * @param vcsDirectory: path to the .vcs directory
+     */
+    public static void copyBlob(String hash, Path target, Path vcsDirectory) throws Exception {
+        long start = System.nanoTime();
+        Path source = findHash(hash, vcsDirectory);
+        if (Chunker.isManifest(source)) {
+            Chunker.reassemble(hash, target, vcsDirectory);
+        } else {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Metrics.OBJECTREAD.record(start, target.toFile().length());
+    }
 
     /**
      * Checks if a file with the hash as the name is already saved
@@ -91,4 +268,52 @@ public class VCSUtils {
     public static boolean hashExists(String hash, Path vcsDirectory) {
         return Files.exists(findHash(hash, vcsDirectory));
     }
+
+    /**
+     * Checks that a hash received from elsewhere is 40 lowercase hex digits, so it can be used as an object path
+     * @param hash: the hash
+     * @return true if it's a valid hash
+     */
+    public static boolean isHash(String hash) {
+        if (hash.length() != 40) {
+            return false;
+        }
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks that a file name in a tree received from elsewhere is inside the working directory and outside .vcs,
+     * before anything is checked out to it
+     * @param name: path relative to the working directory
+     * @return true if it's a valid path
+     */
+    public static boolean isTreePath(String name) {
+        if (name.isEmpty() || name.startsWith("/") || name.startsWith("\\") || name.indexOf('\0') >= 0
+                || name.length() > 1 && name.charAt(1) == ':') {
+            return false;
+        }
+        String[] parts = name.split("[/\\\\]");
+        for (String part : parts) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                return false;
+            }
+        }
+        return !parts[0].equalsIgnoreCase(".vcs");
+    }
+
+    /**
+     * Checks that a branch name received from elsewhere names a file in .vcs/Branches and nothing outside it
+     * @param name: the branch name
+     * @return true if it's a valid branch name
+     */
+    public static boolean isBranchName(String name) {
+        return !name.isEmpty() && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf('\0') < 0
+                && !name.contains("..");
+    }
 }
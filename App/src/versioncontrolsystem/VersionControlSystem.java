@@ -6,6 +6,8 @@ import java.nio.file.Paths;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public class VersionControlSystem extends VCSUtils {
@@ -18,15 +20,31 @@ public class VersionControlSystem extends VCSUtils {
     private String branch;  // name of current branch
     private final File index;  // index/staging area
     private Map<String, String> indexMap;  // map of index/staging area, [name] : [hash] [status]
-    // just used for init()
-    private static final String[] SUBDIRECTORIES = {"Objects", "Branches", "Tasks", "CompletedTasks"};
-    private static final String[] FILES = {"HEAD", "Index", "AllCommits", "DEBUG"};
+    // used for init() and Clone
+    static final String[] SUBDIRECTORIES = {"Objects", "Branches", "Tasks", "CompletedTasks"};
+    static final String[] FILES = {"HEAD", "Index", "AllCommits", "DEBUG"};
     private static final int LENGTHOFHASHANDSTATUS = 43;
+    // rough sizes in memory, used to estimate how much memory an open repository holds
+    private static final long REPOSITORYBYTES = 64 * 1024;
+    private static final long COMMITBYTES = 1024;
+    private static final long ENTRYBYTES = 256;  // an entry in a tree or the index
     private Map<String, Commit> commitCache;  // all commits
+    private Map<String, Integer> commitOrder;  // commit hash : position in AllCommits
     private Map<String, Commit> branchCommits;
     private Set<Path> branchSet;  // Set containing path of all branch pointers
     private Set<String> tasks;
-    private void initializeVCS() throws Exception {
+    private final SearchIndex searchIndex;  // inverted index over commit messages, authors and tasks
+    private final Blame blame;  // blame results, shared by every thread
+    private final RenameDetector renameDetector;
+    private final Config config;
+    private final Journal journal;  // makes commits crash safe
+    private final UntrackedCache untrackedCache;  // listings of the working directory, reused while unchanged
+    private final StatusCache statusCache = new StatusCache();  // result of the last full status
+    private volatile SparseCheckout sparse;  // paths checked out, null if every path is
+    private volatile Snapshot snapshot;  // state as of the last finished change, read by everything but the writer
+    private final ThreadPoolExecutor writer;  // makes every change to the repository, one at a time
+    private volatile Thread writerThread;  // thread running the current change, null if there isn't one
+    void initializeVCS() throws Exception {
         Set<String>[] status = updateStatus();
         if (!status[0].isEmpty()) {
             System.out.println("Staged" + sendList(status[0]));
@@ -39,10 +57,20 @@ public class VersionControlSystem extends VCSUtils {
         updateBranches();
         printLog(false);
         Thread.sleep(50);
-        System.out.println("Tasks" + sendList(this.tasks));
+        System.out.println("Tasks" + sendList(state().tasks));
         Thread.sleep(50);
     }
     public VersionControlSystem(String currentDirectory) throws Exception {
+        this(currentDirectory, true);
+    }
+
+    /**
+     * Opens a repository
+     * @param currentDirectory: the working directory
+     * @param print: false to open it without printing its state, for repositories served to another one
+     */
+    @SuppressWarnings("try")
+    VersionControlSystem(String currentDirectory, boolean print) throws Exception {
         this.currentDirectory = Paths.get(currentDirectory);
         this.vcsDirectory = this.currentDirectory.resolve(".vcs");
         if (!this.vcsDirectory.toFile().exists()) {
@@ -52,19 +80,30 @@ public class VersionControlSystem extends VCSUtils {
         this.index = this.vcsDirectory.resolve("Index").toFile();
         this.branches = this.vcsDirectory.resolve("Branches");
         this.AllCommits = this.vcsDirectory.resolve("AllCommits").toFile();
+        this.searchIndex = new SearchIndex(this.vcsDirectory, this.AllCommits);
+        this.renameDetector = new RenameDetector(this.vcsDirectory);
+        this.config = new Config(this.vcsDirectory);
+        this.journal = new Journal(this.vcsDirectory);
+        this.untrackedCache = new UntrackedCache(this.vcsDirectory);
+        this.sparse = SparseCheckout.load(this.vcsDirectory);
+        try (RepositoryLock lock = RepositoryLock.acquire(this.vcsDirectory)) {
+            journal.recover();
+        }
+        this.writer = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "vcs-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.writer.allowCoreThreadTimeOut(true);
         getAllCommits();
-        this.lastCommit = Commit.getHeadCommit(this.vcsDirectory, this.commitCache);
-        this.branch = lastCommit.branch;
-        this.tasks = getTasks();
-        readIndex();
-        branchSet = getBranches();
-        branchCommits = new HashMap<>();
-        for (Path branch : branchSet) {
-            String name = branch.toFile().getName();
-            branchCommits.put(name, Commit.getHeadCommit(this.vcsDirectory, name, this.commitCache));
+        this.blame = new Blame(this.vcsDirectory, this.commitCache);
+        loadState();
+        this.snapshot = current();
+        if (print) {
+            initializeVCS();
         }
-        initializeVCS();
     }
+    @SuppressWarnings("try")
     public VersionControlSystem(String currentDirectory, String vcsDirectory, String head, String index,
                                 String AllCommits) throws Exception {
         this.currentDirectory = Paths.get(currentDirectory);
@@ -76,17 +115,25 @@ public class VersionControlSystem extends VCSUtils {
         this.index = new File(index);
         this.branches = this.vcsDirectory.resolve("Branches");
         this.AllCommits = new File(AllCommits);
-        getAllCommits();
-        this.lastCommit = Commit.getHeadCommit(this.vcsDirectory, this.commitCache);
-        this.branch = lastCommit.branch;
-        this.tasks = getTasks();
-        readIndex();
-        branchSet = getBranches();
-        branchCommits = new HashMap<>();
-        for (Path branch : branchSet) {
-            String name = branch.toFile().getName();
-            branchCommits.put(name, Commit.getHeadCommit(this.vcsDirectory, name, this.commitCache));
+        this.searchIndex = new SearchIndex(this.vcsDirectory, this.AllCommits);
+        this.renameDetector = new RenameDetector(this.vcsDirectory);
+        this.config = new Config(this.vcsDirectory);
+        this.journal = new Journal(this.vcsDirectory);
+        this.untrackedCache = new UntrackedCache(this.vcsDirectory);
+        this.sparse = SparseCheckout.load(this.vcsDirectory);
+        try (RepositoryLock lock = RepositoryLock.acquire(this.vcsDirectory)) {
+            journal.recover();
         }
+        this.writer = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "vcs-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        this.writer.allowCoreThreadTimeOut(true);
+        getAllCommits();
+        this.blame = new Blame(this.vcsDirectory, this.commitCache);
+        loadState();
+        this.snapshot = current();
         initializeVCS();
     }
 
@@ -106,7 +153,7 @@ public class VersionControlSystem extends VCSUtils {
         if (vcs.mkdir()) {
             Map<String, String> sub = new HashMap<>();
             Path path = vcs.toPath();
-            Files.setAttribute(path, "dos:hidden", true);
+            hide(path);
             for (String subDirectory : SUBDIRECTORIES) {
                 File subfolder = new File(path.toFile(), subDirectory);
                 subfolder.mkdir();
@@ -140,50 +187,58 @@ public class VersionControlSystem extends VCSUtils {
      * @param path: the path to the file to be added
      */
     public void add(String path) throws Exception {
-        File file = new File(path);
-        String name = this.currentDirectory.relativize(file.toPath()).toString();
-        String hash = hash(file);
-        String lastHash = lastCommit.getTree().map.getOrDefault(name, null);
-        if (!file.exists()) {
-            if (lastHash != null) {
-                this.indexMap.put(name, "________________________________________ 2");
-            } else {
-                throw new FailCaseException("File does not exist");
-            }
-        } else {
-            if (lastHash == null) {
-                this.indexMap.put(name, String.format("%s %d", hash, 1));
-            } else if (lastHash.equals(hash)) {
-                this.indexMap.remove(name);
+        write(Metrics.ADD, path, () -> {
+            File file = new File(path);
+            String name = this.currentDirectory.relativize(file.toPath()).toString();
+            String lastHash = lastCommit.getTree().map.getOrDefault(name, null);
+            if (!file.exists()) {
+                if (!checkedOut(name)) {
+                    throw new FailCaseException("File is outside the sparse checkout");
+                } else if (lastHash != null) {
+                    this.indexMap.put(name, "________________________________________ 2");
+                } else {
+                    throw new FailCaseException("File does not exist");
+                }
             } else {
-                this.indexMap.put(name, String.format("%s %d", hash, 0));
+                String hash = hash(file);
+                if (lastHash == null) {
+                    this.indexMap.put(name, String.format("%s %d", hash, 1));
+                } else if (lastHash.equals(hash)) {
+                    this.indexMap.remove(name);
+                } else {
+                    this.indexMap.put(name, String.format("%s %d", hash, 0));
+                }
+                createBlob(file, hash, vcsDirectory, config.getLong(Config.CHUNKTHRESHOLD, Config.DEFAULTCHUNKTHRESHOLD));
             }
-            createFile(file, hash, vcsDirectory);
-        }
-        writeIndex();
+            writeIndex();
+        });
     }
-    public void otherAdd(String name) throws Exception {
-        name = name.trim();
-        File file = this.currentDirectory.resolve(name).toFile();
-        String hash = hash(file);
-        String lastHash = lastCommit.getTree().map.getOrDefault(name, null);
-        if (!file.exists()) {
-            if (lastHash != null) {
-                this.indexMap.put(name, "________________________________________ 2");
-            } else {
-                throw new FailCaseException("File does not exist");
-            }
-        } else {
-            if (lastHash == null) {
-                this.indexMap.put(name, String.format("%s %d", hash, 1));
-            } else if (lastHash.equals(hash)) {
-                this.indexMap.remove(name);
+    public void otherAdd(String path) throws Exception {
+        String name = path.trim();
+        write(Metrics.ADD, name, () -> {
+            File file = this.currentDirectory.resolve(name).toFile();
+            String lastHash = lastCommit.getTree().map.getOrDefault(name, null);
+            if (!file.exists()) {
+                if (!checkedOut(name)) {
+                    throw new FailCaseException("File is outside the sparse checkout");
+                } else if (lastHash != null) {
+                    this.indexMap.put(name, "________________________________________ 2");
+                } else {
+                    throw new FailCaseException("File does not exist");
+                }
             } else {
-                this.indexMap.put(name, String.format("%s %d", hash, 0));
+                String hash = hash(file);
+                if (lastHash == null) {
+                    this.indexMap.put(name, String.format("%s %d", hash, 1));
+                } else if (lastHash.equals(hash)) {
+                    this.indexMap.remove(name);
+                } else {
+                    this.indexMap.put(name, String.format("%s %d", hash, 0));
+                }
+                createBlob(file, hash, vcsDirectory, config.getLong(Config.CHUNKTHRESHOLD, Config.DEFAULTCHUNKTHRESHOLD));
             }
-            createFile(file, hash, vcsDirectory);
-        }
-        writeIndex();
+            writeIndex();
+        });
     }
 
     /**
@@ -225,41 +280,497 @@ public class VersionControlSystem extends VCSUtils {
      * @param openTasks: array of arrays of strings, the first element is the task name, second is task description
      */
     public void commit(String message, String user, String[] closeTasks, String[] openTasks) throws Exception {
-        if (this.indexMap.size() == 0) {
-            throw new FailCaseException("No changes added to commit");
-        } else if (message.length() == 0) {
-            throw new FailCaseException("Please enter a commit message");
+        String[] opened = openTasks == null ? new String[0] : openTasks;
+        String[] closed = closeTasks == null ? new String[0] : closeTasks;
+        write(Metrics.COMMIT, message, () -> {
+            if (this.indexMap.size() == 0) {
+                throw new FailCaseException("No changes added to commit");
+            } else if (message.length() == 0) {
+                throw new FailCaseException("Please enter a commit message");
+            }
+            for (String s : opened) {
+                if (this.tasks.contains(s)) {
+                    throw new FailCaseException(String.format("Task \"%s\" already exists", s));
+                }
+            }
+            this.tasks.addAll(Arrays.asList(opened));
+            for (String s : closed) {
+                this.tasks.remove(s);
+            }
+            Commit c = Commit.writeCommit(user, message, vcsDirectory, lastCommit, indexMap, this.branch, closed, opened, this.tasks);
+            Journal.Transaction t = journal.begin();
+            for (String value : indexMap.values()) {
+                if (!value.endsWith("2")) {
+                    t.require(value.substring(0, value.length() - 2));
+                }
+            }
+            t.write(index.toPath(), "");
+            advance(c, t);
+            this.indexMap = new HashMap<>();
+            printLog(false);
+            System.out.println("Tasks" + sendList(this.tasks));
+        });
+    }
+
+    /**
+     * Merges another branch into the current branch
+     *      Fast forwards if the current branch is an ancestor of the other branch
+     *      Otherwise makes a merge commit with both branch heads as parents
+     *      Files that couldn't be merged are left with conflict markers in the working directory
+     * @param branchName: name of the branch to merge in
+     * @param user: author of the merge commit
+     */
+    public void merge(String branchName, String user) throws Exception {
+        write(() -> {
+            Commit other = branchCommits.get(branchName);
+            if (other == null) {
+                throw new FailCaseException("A branch with that name does not exist");
+            } else if (this.branch.equals(branchName)) {
+                throw new FailCaseException("Cannot merge a branch into itself");
+            } else if (this.indexMap.size() != 0) {
+                throw new FailCaseException("Commit or unstage your changes before merging");
+            }
+            Merge merge = new Merge(vcsDirectory, commitCache, commitOrder);
+            Commit base = merge.mergeBase(lastCommit, other);
+            if (base.hash.equals(other.hash)) {
+                throw new FailCaseException("Already up to date");
+            }
+            if (base.hash.equals(lastCommit.hash)) {
+                performCheckout(other);
+                branchCommits.put(this.branch, other);
+                FileWriter fw = new FileWriter(getHeadPath(), false);
+                fw.write(other.hash);
+                fw.close();
+                printLog(false);
+                System.out.println("Tasks" + sendList(this.tasks));
+                return;
+            }
+            Merge.Result result = merge.merge(base, lastCommit, other, this.branch, branchName);
+            Map<String, String> m = this.lastCommit.getTree().map;
+            checkoutCheck(result.map, m);
+            for (String name : m.keySet()) {
+                if (!result.map.containsKey(name) && checkedOut(name)) {
+                    this.currentDirectory.resolve(name).toFile().delete();
+                }
+            }
+            for (Map.Entry<String, String> entry : result.map.entrySet()) {
+                if (entry.getValue().equals(m.get(entry.getKey())) || !checkedOut(entry.getKey())) {
+                    continue;
+                }
+                Path p = this.currentDirectory.resolve(entry.getKey());
+                if (p.getParent() != null && !p.getParent().toFile().exists()) {
+                    p.getParent().toFile().mkdirs();
+                }
+                copyBlob(entry.getValue(), p, vcsDirectory);
+            }
+            // a task is open after the merge unless one of the branches closed it
+            Set<String> tasks = new HashSet<>();
+            for (String t : lastCommit.tasks) {
+                if (other.tasks.contains(t) || !base.tasks.contains(t)) {
+                    tasks.add(t);
+                }
+            }
+            for (String t : other.tasks) {
+                if (!base.tasks.contains(t)) {
+                    tasks.add(t);
+                }
+            }
+            String message = String.format("Merge branch \"%s\" into \"%s\"", branchName, this.branch);
+            Commit c = Commit.writeMergeCommit(user, message, vcsDirectory, lastCommit, other, result.map, this.branch, tasks);
+            Journal.Transaction t = journal.begin();
+            for (Map.Entry<String, String> entry : result.map.entrySet()) {
+                if (!entry.getValue().equals(m.get(entry.getKey()))) {
+                    t.require(entry.getValue());
+                }
+            }
+            advance(c, t);
+            resetTasks(c);
+            printLog(false);
+            System.out.println("Tasks" + sendList(this.tasks));
+            if (!result.conflicts.isEmpty()) {
+                System.out.println("Conflicts" + sendList(result.conflicts));
+            }
+        });
+    }
+
+    /**
+     * Moves the current branch to a new commit and records it in AllCommits, as one journaled transaction
+     * @param c: the new commit, whose parent is the last commit
+     * @param t: transaction with any other changes that go with the commit
+     */
+    private void advance(Commit c, Journal.Transaction t) throws Exception {
+        t.require(c.hash);
+        t.require(c.tree);
+        t.write(getHeadPath().toPath(), c.hash);
+        t.append(this.AllCommits.toPath(), c.hash);
+        t.commit();
+        lastCommit.next.add(c);
+        lastCommit = c;
+        branchCommits.put(this.branch, lastCommit);
+        commitCache.put(lastCommit.hash, lastCommit);
+        commitOrder.put(lastCommit.hash, commitOrder.size());
+        searchIndex.add(lastCommit);
+    }
+
+    /**
+     * Fetches the branches of another repository
+     *      Branches that don't exist here are created and branches behind the remote are fast forwarded, including
+     *      the current branch if nothing is staged
+     *      Branches that have diverged from the remote are left as they are
+     * @param remote: the other repository, see Transport
+     * @return one line per remote branch, saying what happened to it
+     */
+    public List<String> fetch(String remote) throws Exception {
+        Sync sync = new Sync(vcsDirectory, commitCache, commitOrder);
+        try (Transport.Connection connection = Transport.of(remote).connect()) {
+            DataInputStream in = Sync.input(connection.in);
+            DataOutputStream out = Sync.output(connection.out);
+            out.writeUTF(Sync.FETCH);
+            out.flush();
+            Map<String, String> refs = Sync.readRefs(in);
+            Set<String> wants = new LinkedHashSet<>();
+            for (String hash : refs.values()) {
+                if (!hashExists(hash, vcsDirectory)) {
+                    wants.add(hash);
+                }
+            }
+            Sync.writeList(out, wants);
+            out.flush();
+            List<String> commits = wants.isEmpty() ? List.of() : receive(sync, in, out);
+            return fastForward(commits, refs);
         }
-        if (openTasks == null) {
-            openTasks = new String[0];
+    }
+
+    /**
+     * Records received commits and fast forwards the branches to them, as one journaled transaction
+     * @param commits: the received commits, parents first
+     * @param refs: branch name : new head commit hash
+     * @return one line per branch, saying what happened to it
+     */
+    private List<String> fastForward(List<String> commits, Map<String, String> refs) throws Exception {
+        List<String> output = new ArrayList<>();
+        write(() -> {
+            Journal.Transaction t = journal.begin();
+            List<Commit> added = record(commits, t);
+            Map<String, Integer> order = order(added);
+            List<Mutation> after = new ArrayList<>();
+            for (Map.Entry<String, String> ref : refs.entrySet()) {
+                output.add(updateBranch(ref.getKey(), null, ref.getValue(), order, t, after));
+            }
+            t.commit();
+            recorded(added);
+            for (Mutation mutation : after) {
+                mutation.run();
+            }
+        });
+        return output;
+    }
+
+    /**
+     * Writes a branch to a bundle file, to be read into another repository with unbundle
+     * @param file: path of the bundle file
+     * @param branchName: the branch, or an empty string for every branch
+     * @param since: a commit the other repository has, whose history is left out, or an empty string for the
+     *             whole history
+     */
+    public void bundle(String file, String branchName, String since) throws Exception {
+        Snapshot state = state();
+        Map<String, Commit> refs = new HashMap<>(state.branchCommits);
+        if (!branchName.isEmpty()) {
+            if (!refs.containsKey(branchName)) {
+                throw new FailCaseException("A branch with that name does not exist");
+            }
+            refs = Map.of(branchName, refs.get(branchName));
+        }
+        List<Commit> basis = new ArrayList<>();
+        if (!since.isEmpty()) {
+            basis.add(Commit.findCommit(since, vcsDirectory, commitCache));
         }
-        if (closeTasks == null) {
-            closeTasks = new String[0];
+        Bundle.write(Path.of(file), refs, basis, new Sync(vcsDirectory, commitCache, commitOrder), vcsDirectory,
+                commitCache);
+    }
+
+    /**
+     * Imports history from a git fast-import style stream, see FastImport
+     * The imported branches are created, or fast forwarded like fetch, once the whole stream has been read
+     * @param input: the stream
+     * @return one line per imported branch, saying what happened to it
+     */
+    public List<String> fastImport(InputStream input) throws Exception {
+        Map<String, String> heads = new HashMap<>();
+        for (Map.Entry<String, Commit> entry : state().branchCommits.entrySet()) {
+            heads.put(entry.getKey(), entry.getValue().hash);
         }
-        for (String s : openTasks) {
-            if (this.tasks.contains(s)) {
-                throw new FailCaseException(String.format("Task \"%s\" already exists", s));
+        FastImport stream = FastImport.read(input, vcsDirectory,
+                config.getLong(Config.CHUNKTHRESHOLD, Config.DEFAULTCHUNKTHRESHOLD), heads);
+        return fastForward(stream.commits, stream.refs);
+    }
+
+    /**
+     * Writes a branch and its history as a git fast-import style stream, see FastExport
+     * @param output: stream to write to
+     * @param branchName: the branch, or an empty string for every branch
+     */
+    public void fastExport(OutputStream output, String branchName) throws Exception {
+        Map<String, Commit> refs = new HashMap<>(state().branchCommits);
+        if (!branchName.isEmpty()) {
+            if (!refs.containsKey(branchName)) {
+                throw new FailCaseException("A branch with that name does not exist");
             }
+            refs = Map.of(branchName, refs.get(branchName));
         }
-        this.tasks.addAll(Arrays.asList(openTasks));
-        for (String s : closeTasks) {
-            this.tasks.remove(s);
+        FastExport.write(output, refs, commitOrder, vcsDirectory);
+    }
+
+    /**
+     * Writes the files of a commit to an archive, without checking it out
+     * @param commitId: hash of the commit, or name of a branch
+     * @param format: zip, tar or tar.gz, optionally written as --format=zip
+     * @param file: path of the archive file
+     */
+    public void archive(String commitId, String format, String file) throws Exception {
+        Commit c = state().branchCommits.get(commitId);
+        if (c == null) {
+            c = Commit.findCommit(commitId, vcsDirectory, commitCache);
         }
-        Commit c = Commit.writeCommit(user, message, vcsDirectory, lastCommit, indexMap, this.branch, closeTasks, openTasks, this.tasks);
-        lastCommit.next.add(c);
-        lastCommit = c;
-        branchCommits.put(this.branch, lastCommit);
-        commitCache.put(lastCommit.hash, lastCommit);
-        FileWriter fw = new FileWriter(getHeadPath(), false);
-        fw.write(lastCommit.hash);
-        fw.close();
-        this.indexMap = new HashMap<>();
-        writeIndex();
-        fw = new FileWriter(this.AllCommits, true);
-        fw.write(lastCommit.hash + "\n");
-        fw.close();
-        printLog(false);
-        System.out.println("Tasks" + sendList(this.tasks));
+        Archive.write(c, format.startsWith("--format=") ? format.substring(9) : format, Path.of(file), vcsDirectory);
+    }
+
+    /**
+     * Reads a bundle file, fast forwarding or creating its branches like fetch
+     * @param file: path of the bundle file
+     * @return one line per branch in the bundle, saying what happened to it
+     */
+    public List<String> unbundle(String file) throws Exception {
+        List<String> commits;
+        Bundle bundle;
+        try (DataInputStream in = Bundle.open(Path.of(file))) {
+            bundle = Bundle.readHeader(in);
+            for (String hash : bundle.prerequisites) {
+                if (!hashExists(hash, vcsDirectory)) {
+                    throw new FailCaseException(String.format(
+                            "The bundle needs commit %s, which this repository doesn't have", hash));
+                }
+            }
+            commits = new Pack(vcsDirectory, commitCache).read(in);
+        }
+        return fastForward(commits, bundle.refs);
+    }
+
+    /**
+     * Pushes a branch to another repository, if that fast forwards the branch there
+     * The remote refuses to move its current branch, since that would leave its working directory behind
+     * @param remote: the other repository, see Transport
+     * @param branchName: the branch to push
+     * @return what happened to the branch on the remote
+     */
+    public List<String> push(String remote, String branchName) throws Exception {
+        Commit local = state().branchCommits.get(branchName);
+        if (local == null) {
+            throw new FailCaseException("A branch with that name does not exist");
+        }
+        Sync sync = new Sync(vcsDirectory, commitCache, commitOrder);
+        try (Transport.Connection connection = Transport.of(remote).connect()) {
+            DataInputStream in = Sync.input(connection.in);
+            DataOutputStream out = Sync.output(connection.out);
+            out.writeUTF(Sync.PUSH);
+            out.flush();
+            String old = Sync.readRefs(in).getOrDefault(branchName, "");
+            String result = null;
+            if (old.equals(local.hash)) {
+                result = String.format("= %s up to date", branchName);
+            } else if (!old.isEmpty() && (!hashExists(old, vcsDirectory)
+                    || !sync.isAncestor(Commit.findCommit(old, vcsDirectory, commitCache), local))) {
+                result = String.format("! %s rejected, not a fast forward, fetch first", branchName);
+            }
+            if (result != null) {
+                Sync.writeList(out, List.of());
+                out.flush();
+                return List.of(result);
+            }
+            Sync.writeList(out, List.of(branchName, old, local.hash));
+            out.flush();
+            List<String> wants = Sync.readList(in);
+            if (!wants.isEmpty()) {
+                sync.sendPack(out, wants, sync.acknowledgeHaves(in, out));
+            }
+            return Sync.readList(in);
+        }
+    }
+
+    /**
+     * Serves this repository to another one fetching from or pushing to it, see Sync
+     * @param input: stream from the other repository
+     * @param output: stream to the other repository
+     */
+    public void serve(InputStream input, OutputStream output) throws Exception {
+        Sync sync = new Sync(vcsDirectory, commitCache, commitOrder);
+        DataInputStream in = Sync.input(input);
+        DataOutputStream out = Sync.output(output);
+        String request = in.readUTF();
+        Map<String, String> refs = new TreeMap<>();
+        for (Map.Entry<String, Commit> entry : state().branchCommits.entrySet()) {
+            refs.put(entry.getKey(), entry.getValue().hash);
+        }
+        Sync.writeRefs(out, refs);
+        if (request.equals(Sync.FETCH)) {
+            List<String> wants = Sync.readHashes(in);
+            if (!wants.isEmpty()) {
+                sync.sendPack(out, wants, sync.acknowledgeHaves(in, out));
+            }
+        } else if (request.equals(Sync.PUSH)) {
+            List<String> update = Sync.readList(in);  // [branch] [old] [new]
+            if (update.isEmpty()) {
+                return;
+            }
+            if (update.size() != 3 || !isBranchName(update.get(0))) {
+                throw new FailCaseException("Invalid push from remote: " + update);
+            }
+            if (!update.get(1).isEmpty()) {
+                Sync.checkHash(update.get(1));
+            }
+            Sync.checkHash(update.get(2));
+            List<String> wants = hashExists(update.get(2), vcsDirectory) ? List.of() : List.of(update.get(2));
+            Sync.writeList(out, wants);
+            out.flush();
+            List<String> commits = wants.isEmpty() ? List.of() : receive(sync, in, out);
+            List<String> results = new ArrayList<>();
+            write(() -> {
+                Journal.Transaction t = journal.begin();
+                List<Commit> added = record(commits, t);
+                List<Mutation> after = new ArrayList<>();
+                results.add(updateBranch(update.get(0), update.get(1), update.get(2), order(added), t, after));
+                t.commit();
+                recorded(added);
+                for (Mutation mutation : after) {
+                    mutation.run();
+                }
+            });
+            Sync.writeList(out, results);
+            out.flush();
+        } else {
+            throw new FailCaseException("Unknown request: " + request);
+        }
+    }
+
+    /**
+     * Negotiates with the other repository and receives the pack of the commits this one doesn't have
+     * @return hashes of the received commits, parents first
+     */
+    private List<String> receive(Sync sync, DataInputStream in, DataOutputStream out) throws Exception {
+        sync.sendHaves(in, out, state().branchCommits.values());
+        return new Pack(vcsDirectory, commitCache).read(in);
+    }
+
+    /**
+     * Adds commits received from another repository to the end of AllCommits
+     * @param commits: the commits, parents first
+     * @param t: transaction AllCommits is written in
+     * @return the commits that weren't in AllCommits yet, to be given to recorded once t is committed
+     */
+    private List<Commit> record(List<String> commits, Journal.Transaction t) throws Exception {
+        List<Commit> added = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (String hash : commits) {
+            if (commitOrder.containsKey(hash) || !seen.add(hash)) {
+                continue;
+            }
+            Commit c = Commit.findCommit(hash, vcsDirectory, commitCache);
+            t.require(c.hash);
+            t.require(c.tree);
+            added.add(c);
+        }
+        if (!added.isEmpty()) {
+            List<String> lines = new ArrayList<>(added.size());
+            for (Commit c : added) {
+                lines.add(c.hash);
+            }
+            t.append(AllCommits.toPath(), lines);
+        }
+        return added;
+    }
+
+    /**
+     * Returns the order of the commits as it will be once the commits being recorded are in AllCommits
+     * @param added: the commits being recorded
+     */
+    private Map<String, Integer> order(List<Commit> added) {
+        if (added.isEmpty()) {
+            return commitOrder;
+        }
+        Map<String, Integer> order = new HashMap<>(commitOrder);
+        for (Commit c : added) {
+            order.put(c.hash, order.size());
+        }
+        return order;
+    }
+
+    /**
+     * Adds recorded commits to the commit order and search index, once they are in AllCommits
+     * @param added: the commits returned by record
+     */
+    private void recorded(List<Commit> added) throws Exception {
+        for (Commit c : added) {
+            commitOrder.put(c.hash, commitOrder.size());
+            searchIndex.add(c);
+        }
+    }
+
+    /**
+     * Moves a branch to a commit received from another repository, if that is a fast forward
+     * @param name: the branch
+     * @param expected: hash the branch has to be at for a push, "" if it mustn't exist, null for a fetch
+     * @param hash: the new head of the branch
+     * @param order: commit order, including the commits being recorded
+     * @param t: transaction the branch pointer is written in
+     * @param after: gets the changes to run once t is committed, the branch in memory and the checkout if the
+     *             branch is the current one
+     * @return what happened to the branch
+     */
+    private String updateBranch(String name, String expected, String hash, Map<String, Integer> order,
+                                Journal.Transaction t, List<Mutation> after) throws Exception {
+        if (!isBranchName(name)) {
+            throw new FailCaseException("Invalid branch name from remote: " + name);
+        }
+        Commit current = branchCommits.get(name);
+        Commit c = Commit.findCommit(hash, vcsDirectory, commitCache);
+        Sync sync = new Sync(vcsDirectory, commitCache, order);
+        if (expected != null && !expected.equals(current == null ? "" : current.hash)) {
+            return String.format("! %s rejected, changed since it was read", name);
+        } else if (current != null && current.hash.equals(c.hash)) {
+            return String.format("= %s up to date", name);
+        } else if (current != null && !sync.isAncestor(current, c)) {
+            if (expected == null && sync.isAncestor(c, current)) {
+                return String.format("= %s ahead of the remote", name);
+            }
+            return String.format("! %s rejected, not a fast forward", name);
+        }
+        if (name.equals(this.branch)) {
+            if (expected != null) {
+                return String.format("! %s rejected, checked out", name);
+            } else if (!this.indexMap.isEmpty()) {
+                return String.format("! %s rejected, commit or unstage your changes first", name);
+            }
+            Map<String, String> m = this.lastCommit.getTree().map;
+            Map<String, String> headMap;
+            try {
+                headMap = checkoutCheck(c, m);
+            } catch (FailCaseException e) {
+                return String.format("! %s rejected, %s", name, e.getMessage());
+            }
+            after.add(() -> applyCheckout(c, m, headMap));
+        }
+        Path path = branches.resolve(name);
+        t.require(c.hash);
+        t.write(path, c.hash);
+        after.add(() -> {
+            getBranches().add(path);
+            branchCommits.put(name, c);
+        });
+        if (current == null) {
+            return String.format("* %s new branch", name);
+        }
+        return String.format("+ %s %s..%s", name, current.hash.substring(0, 7), c.hash.substring(0, 7));
     }
 
     /**
@@ -268,21 +779,23 @@ public class VersionControlSystem extends VCSUtils {
      * @param path: path to the file
      */
     public void remove(String path) throws Exception {
-        File file = new File(path);
-        String name = this.currentDirectory.relativize(file.toPath()).toString();
-        if (!lastCommit.getTree().contains(name)) {
-            if (this.indexMap.containsKey(name)) {
-                this.indexMap.remove(name);
+        write(() -> {
+            File file = new File(path);
+            String name = this.currentDirectory.relativize(file.toPath()).toString();
+            if (!lastCommit.getTree().contains(name)) {
+                if (this.indexMap.containsKey(name)) {
+                    this.indexMap.remove(name);
+                } else {
+                    throw new FailCaseException("No reason to remove file");
+                }
             } else {
-                throw new FailCaseException("No reason to remove file");
-            }
-        } else {
-            this.indexMap.put(name, String.format("________________________________________ %d", 2));
-            if (file.exists()) {
-                file.delete();
+                this.indexMap.put(name, String.format("________________________________________ %d", 2));
+                if (file.exists()) {
+                    file.delete();
+                }
             }
-        }
-        writeIndex();
+            writeIndex();
+        });
     }
 
     /**
@@ -290,11 +803,13 @@ public class VersionControlSystem extends VCSUtils {
      * @param path path to file
      */
     public void unstage(String path) throws Exception {
-        path = path.trim();
-        if (this.indexMap.containsKey(path)) {
-            this.indexMap.remove(path);
-            writeIndex();
-        }
+        String name = path.trim();
+        write(() -> {
+            if (this.indexMap.containsKey(name)) {
+                this.indexMap.remove(name);
+                writeIndex();
+            }
+        });
     }
 
     /**
@@ -307,7 +822,8 @@ public class VersionControlSystem extends VCSUtils {
      * @return a string of all the commits
      */
     public String log() throws Exception {
-        if (this.lastCommit instanceof InitialCommit) {
+        Commit lastCommit = state().lastCommit;
+        if (lastCommit instanceof InitialCommit) {
             return "There have been no commits";
         }
         StringBuilder sb = new StringBuilder();
@@ -319,8 +835,9 @@ public class VersionControlSystem extends VCSUtils {
         return sb.toString();
     }
     public List<String> logList() throws Exception {
+        Commit lastCommit = state().lastCommit;
         List<String> sb = new ArrayList<>();
-        if (this.lastCommit instanceof InitialCommit) {
+        if (lastCommit instanceof InitialCommit) {
             return sb;
         }
         Commit c = lastCommit;
@@ -331,6 +848,117 @@ public class VersionControlSystem extends VCSUtils {
         return sb;
     }
 
+    /**
+     * returns the current commit and its ancestors that changed a file, or any file under a directory
+     * Commits whose changed paths filter rules the path out are skipped without loading their trees
+     * @param path: relative path to a file or directory
+     * @return list of formatted commits, most recent first
+     */
+    public List<String> logList(String path) throws Exception {
+        path = Path.of(path.trim()).normalize().toString();
+        List<String> sb = new ArrayList<>();
+        Commit c = state().lastCommit;
+        while (c != null && !(c instanceof InitialCommit)) {
+            if (c.changed(path, this.commitCache)) {
+                sb.add(c.toOutputString(false));
+            }
+            c = c.parentCommit(this.commitCache);
+        }
+        return sb;
+    }
+
+    /**
+     * Finds the paths that were added, modified, deleted, renamed or copied between two commits
+     * @param commitA: hash of the old commit
+     * @param commitB: hash of the new commit
+     * @return list of changes, sorted by path
+     */
+    public List<Diff.Change> diffCommits(String commitA, String commitB) throws Exception {
+        Commit a = Commit.findCommit(commitA, vcsDirectory, commitCache);
+        Commit b = Commit.findCommit(commitB, vcsDirectory, commitCache);
+        return renameDetector.detect(Diff.treeDiff(a.getTree(), b.getTree()), a.getTree());
+    }
+
+    /**
+     * Diffs a file in the working directory. Files with unstaged changes are compared to the index,
+     * or the last commit if they aren't staged. Staged files without unstaged changes are compared to the last commit.
+     * @param path: relative path to the file
+     * @param out: receives each hunk
+     */
+    public void diff(String path, Consumer<List<String>> out) throws Exception {
+        path = Path.of(path.trim()).normalize().toString();
+        Path file = this.currentDirectory.resolve(path);
+        Snapshot state = state();
+        String committed = state.lastCommit.getTree().map.get(path);
+        String line = state.indexMap.get(path);
+        if (line != null && line.endsWith("2")) {
+            Diff.lineDiff(committed, null, vcsDirectory, out);
+            return;
+        }
+        String staged = line == null ? null : line.substring(0, line.length() - 2);
+        if (staged != null && file.toFile().exists() && staged.equals(hash(file.toFile()))) {
+            Diff.lineDiff(committed, staged, vcsDirectory, out);
+            return;
+        }
+        Diff.lineDiff(LineSequence.ofObject(staged == null ? committed : staged, vcsDirectory),
+                LineSequence.ofFile(file), out);
+    }
+
+    /**
+     * Blames each line of a file, in the format:
+     * [short hash] ([author] [time]) [line]
+     * @param path: relative path to the file
+     * @param commitId: hash of the commit to blame the file at, or empty for the last commit
+     * @return list of blamed lines
+     */
+    public List<String> blame(String path, String commitId) throws Exception {
+        path = Path.of(path.trim()).normalize().toString();
+        Commit c = commitId == null || commitId.isEmpty() ? state().lastCommit : Commit.findCommit(commitId, vcsDirectory, commitCache);
+        String[] result = this.blame.blame(c, path);
+        LineSequence lines = LineSequence.ofObject(c.getTree().map.get(path), vcsDirectory);
+        List<String> sb = new ArrayList<>();
+        for (int i = 0; i < result.length; i++) {
+            Commit origin = Commit.findCommit(result[i], vcsDirectory, commitCache);
+            sb.add(String.format("%s (%s %s) %s", origin.hash.substring(0, 8), origin.author, origin.time, lines.line(i)));
+        }
+        return sb;
+    }
+
+    /**
+     * Deletes objects that can't be reached from any branch, commit or the index
+     * @return number of objects deleted
+     */
+    public int gc() throws Exception {
+        return new GarbageCollector(vcsDirectory).collect();
+    }
+
+    /**
+     * Checks the objects, branch pointers and commits of the repository for corruption
+     * @param full: true to check every object, false to only check objects added since the last clean check
+     * @return list of problems found, empty if there were none
+     */
+    public List<String> fsck(boolean full) throws Exception {
+        return new Fsck(vcsDirectory).check(full);
+    }
+
+    /**
+     * Searches all commits by message, author and task
+     * @param query: words of the commit message, the last word can be incomplete
+     * @param author: exact author, or empty for any author
+     * @param task: exact name of a task opened or closed by the commit, or empty for any task
+     * @return hashes of the matching commits, most recent first
+     */
+    public List<String> search(String query, String author, String task) throws Exception {
+        return searchIndex.search(query, author, task);
+    }
+    public List<String> searchList(String query, String author, String task) throws Exception {
+        List<String> sb = new ArrayList<>();
+        for (String hash : search(query, author, task)) {
+            sb.add(Commit.findCommit(hash, vcsDirectory, commitCache).toOutputString(true));
+        }
+        return sb;
+    }
+
     /**
      * returns the all commits
      * ===
@@ -385,6 +1013,7 @@ public class VersionControlSystem extends VCSUtils {
      * @return string representing the status
      */
     public String status(Set<String>[] sets) {
+        String current = state().branch;
         StringBuilder sb = new StringBuilder();
         Set<String> branches = sets[0];
         Set<String> staged = sets[1];
@@ -392,7 +1021,7 @@ public class VersionControlSystem extends VCSUtils {
         Set<String> untracked = sets[3];
         Set<String> removed = sets[4];
         for (String branch : branches) {
-            if (branch.equals(this.branch)) {
+            if (branch.equals(current)) {
                 sb.insert(0, "*"+branch+"\n");
             } else {
                 sb.append(branch).append("\n");
@@ -443,27 +1072,29 @@ public class VersionControlSystem extends VCSUtils {
      * @param branch: true if input is a branch name, false if input is file path
      */
     public void checkout(String input, boolean branch) throws Exception {
-        if (!branch) {
-            Path p = Path.of(input);
-            Path shortP = this.currentDirectory.relativize(p);
-            String hash = this.lastCommit.getTree().map.getOrDefault(shortP.toString(), null);
-            if (hash == null) {
-                throw new FailCaseException("File does not exist in that commit");
-            }
-            if (shortP.getParent() != null && !shortP.getParent().toFile().exists()) {
-                shortP.getParent().toFile().mkdirs();
+        write(Metrics.CHECKOUT, input, () -> {
+            if (!branch) {
+                Path p = Path.of(input);
+                Path shortP = this.currentDirectory.relativize(p);
+                String hash = this.lastCommit.getTree().map.getOrDefault(shortP.toString(), null);
+                if (hash == null) {
+                    throw new FailCaseException("File does not exist in that commit");
+                }
+                if (shortP.getParent() != null && !shortP.getParent().toFile().exists()) {
+                    shortP.getParent().toFile().mkdirs();
+                }
+                copyBlob(hash, p, vcsDirectory);
+            } else {
+                // check to see if branch exists
+                Commit c = branchCommits.get(input);
+                performCheckout(c);
+                this.branch = input;
+                FileWriter writer = new FileWriter(this.head);
+                writer.write(this.branches.resolve(input).toString());
+                writer.close();
+                initializeVCS();
             }
-            Files.copy(findHash(hash, vcsDirectory), p, StandardCopyOption.REPLACE_EXISTING);
-        } else {
-            // check to see if branch exists
-            Commit c = branchCommits.get(input);
-            performCheckout(c);
-            this.branch = input;
-            FileWriter writer = new FileWriter(this.head);
-            writer.write(this.branches.resolve(input).toString());
-            writer.close();
-            initializeVCS();
-        }
+        });
     }
 
     /**
@@ -472,17 +1103,19 @@ public class VersionControlSystem extends VCSUtils {
      * @param path: the path to a file
      */
     public void checkout(String commitId, String path) throws Exception {
-        Path p = Path.of(path);
-        Path shortP = this.currentDirectory.relativize(p);
-        Commit c = Commit.findCommit(commitId, vcsDirectory, commitCache);
-        String hash = c.getTree().map.getOrDefault(shortP.toString(), null);
-        if (hash == null) {
-            throw new FailCaseException("File does not exist in that commit");
-        }
-        if (shortP.getParent() != null && shortP.getParent().toFile().exists()) {
-            shortP.getParent().toFile().mkdirs();
-        }
-        Files.copy(findHash(hash, vcsDirectory), p, StandardCopyOption.REPLACE_EXISTING);
+        write(Metrics.CHECKOUT, path, () -> {
+            Path p = Path.of(path);
+            Path shortP = this.currentDirectory.relativize(p);
+            Commit c = Commit.findCommit(commitId, vcsDirectory, commitCache);
+            String hash = c.getTree().map.getOrDefault(shortP.toString(), null);
+            if (hash == null) {
+                throw new FailCaseException("File does not exist in that commit");
+            }
+            if (shortP.getParent() != null && shortP.getParent().toFile().exists()) {
+                shortP.getParent().toFile().mkdirs();
+            }
+            copyBlob(hash, p, vcsDirectory);
+        });
     }
 
     /**
@@ -490,18 +1123,20 @@ public class VersionControlSystem extends VCSUtils {
      * @param branchName: name of the new branch
      */
     public void branch(String branchName) throws Exception {
-        Path branch = branches.resolve(branchName);
-        if (getBranches().contains(branch)) {
-            throw new FailCaseException("Branch with that name already exists");
-        }
-        FileWriter writer = new FileWriter(branch.toFile());
-        writer.write(lastCommit.hash);
-        writer.close();
-        branch.toFile().setReadable(true, false);
-        branch.toFile().setWritable(true, false);
-        this.branchSet.add(branch);
-        this.branchCommits.put(branchName, lastCommit);
-        updateBranches();
+        write(() -> {
+            Path branch = branches.resolve(branchName);
+            if (getBranches().contains(branch)) {
+                throw new FailCaseException("Branch with that name already exists");
+            }
+            FileWriter writer = new FileWriter(branch.toFile());
+            writer.write(lastCommit.hash);
+            writer.close();
+            branch.toFile().setReadable(true, false);
+            branch.toFile().setWritable(true, false);
+            this.branchSet.add(branch);
+            this.branchCommits.put(branchName, lastCommit);
+            updateBranches();
+        });
     }
 
     /**
@@ -509,15 +1144,17 @@ public class VersionControlSystem extends VCSUtils {
      * @param branchName: name of branch to be removed
      */
     public void removeBranch(String branchName) throws Exception {
-        Path branch = branches.resolve(branchName);
-        if (this.branch.equals(branchName)) {
-            throw new FailCaseException("Cannot remove the current branch");
-        }
-        else if (!getBranches().contains(branch)) {
-            throw new FailCaseException("A branch with that name does not exist");
-        }
-        branch.toFile().delete();
-        this.branchSet.remove(branch);
+        write(() -> {
+            Path branch = branches.resolve(branchName);
+            if (this.branch.equals(branchName)) {
+                throw new FailCaseException("Cannot remove the current branch");
+            }
+            else if (!getBranches().contains(branch)) {
+                throw new FailCaseException("A branch with that name does not exist");
+            }
+            branch.toFile().delete();
+            this.branchSet.remove(branch);
+        });
     }
 
     /**
@@ -528,14 +1165,69 @@ public class VersionControlSystem extends VCSUtils {
      * @param commitID: hash of commit to be reset to. If no commitID is entered, it'll use the last commit
      */
     public void reset(String commitID) throws Exception {
-        Commit c = Commit.findCommit(commitID, vcsDirectory, commitCache);
-        performCheckout(c);
-        FileWriter writer = new FileWriter(this.branches.resolve(branch).toFile());
-        writer.write(c.hash);
-        writer.close();
+        write(Metrics.RESET, commitID, () -> {
+            Commit c = Commit.findCommit(commitID, vcsDirectory, commitCache);
+            performCheckout(c);
+            FileWriter writer = new FileWriter(this.branches.resolve(branch).toFile());
+            writer.write(c.hash);
+            writer.close();
+        });
     }
     public void reset() throws Exception {
-        reset(lastCommit.hash);
+        reset(state().lastCommit.hash);
+    }
+
+    /**
+     * Changes which paths are checked out, see SparseCheckout
+     * Files of the last commit that are now checked out are written, and files that no longer are checked out are
+     * deleted, unless they were modified
+     * Fails without changing anything if untracked files are in the way of the files to write, like checkout
+     * @param lines: the new definition, empty to check out every path
+     */
+    public void sparse(List<String> lines) throws Exception {
+        write(() -> {
+            SparseCheckout old = this.sparse;
+            Map<String, String> tree = lastCommit.getTree().map;
+            Map<String, String> before = new HashMap<>();  // files that were checked out
+            for (Map.Entry<String, String> entry : tree.entrySet()) {
+                if (old == null || old.includes(entry.getKey())) {
+                    before.put(entry.getKey(), entry.getValue());
+                }
+            }
+            this.sparse = SparseCheckout.of(lines);
+            try {
+                checkoutCheck(tree, before);
+            } catch (FailCaseException e) {
+                this.sparse = old;
+                throw e;
+            }
+            SparseCheckout.save(vcsDirectory, lines);
+            statusCache.clear();
+            for (Map.Entry<String, String> entry : tree.entrySet()) {
+                String name = entry.getKey();
+                boolean was = old == null || old.includes(name);
+                Path p = this.currentDirectory.resolve(name);
+                if (checkedOut(name) && (!was || !p.toFile().exists())) {
+                    if (p.getParent() != null && !p.getParent().toFile().exists()) {
+                        p.getParent().toFile().mkdirs();
+                    }
+                    copyBlob(entry.getValue(), p, vcsDirectory);
+                } else if (!checkedOut(name) && was && p.toFile().exists()
+                        && hash(p.toFile()).equals(entry.getValue())) {
+                    p.toFile().delete();
+                    for (Path parent = p.getParent(); !parent.equals(currentDirectory); parent = parent.getParent()) {
+                        String[] left = parent.toFile().list();
+                        if (left == null || left.length > 0 || !parent.toFile().delete()) {
+                            break;
+                        }
+                    }
+                }
+            }
+        });
+    }
+    private boolean checkedOut(String name) {
+        SparseCheckout s = this.sparse;
+        return s == null || s.includes(name);
     }
 
     /**
@@ -545,10 +1237,17 @@ public class VersionControlSystem extends VCSUtils {
      * @return null if failure, map of the target commit if success
      */
     private Map<String, String> checkoutCheck(Commit c, Map<String, String> m) throws Exception {
-        Map<String, String> map = c.getTree().map;
+        return checkoutCheck(c.getTree().map, m);
+    }
+    private Map<String, String> checkoutCheck(Map<String, String> map, Map<String, String> m) throws Exception {
         String name;
         Set<String> names = new HashSet<>();
-        for (Path path : getWorkingDir()) {
+        Set<String> tracked = new HashSet<>(m.keySet());
+        tracked.removeIf(n -> !checkedOut(n));
+        tracked.addAll(indexMap.keySet());
+        Progress progress = Progress.current();
+        for (Path path : getWorkingDir(tracked)) {
+            progress.check();  // nothing has been changed yet
             name = this.currentDirectory.relativize(path).toString();
             if (map.containsKey(name) && !m.containsKey(name)) {
                 names.add(name);
@@ -572,25 +1271,171 @@ public class VersionControlSystem extends VCSUtils {
      */
     private void performCheckout(Commit c) throws Exception {
         Map<String, String> m = this.lastCommit.getTree().map;
-        Map<String, String> headMap = checkoutCheck(c, m);
+        applyCheckout(c, m, checkoutCheck(c, m));
+    }
+
+    /**
+     * Writes the files of a commit that checkoutCheck has let through, and makes it the last commit
+     * @param c: the commit
+     * @param m: tree of the last commit
+     * @param headMap: tree of c
+     */
+    private void applyCheckout(Commit c, Map<String, String> m, Map<String, String> headMap) throws Exception {
+        Progress progress = Progress.current();
+        progress.finishing();
+        statusCache.clear();
         for (String name : m.keySet()) {
-            if (!headMap.containsKey(name)) {
+            if (!headMap.containsKey(name) && checkedOut(name)) {
                 this.currentDirectory.resolve(name).toFile().delete();
             }
         }
         Path shortP;
         for (String name : headMap.keySet()) {
-            shortP = Path.of(name);
+            if (!checkedOut(name)) {
+                continue;
+            }
+            shortP = this.currentDirectory.resolve(name);
             if (shortP.getParent() != null && !shortP.getParent().toFile().exists()) {
                 shortP.getParent().toFile().mkdirs();
             }
-            Files.copy(findHash(headMap.get(name), vcsDirectory),
-                    this.currentDirectory.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            copyBlob(headMap.get(name), shortP, vcsDirectory);
+            progress.add(1, shortP.toFile().length());
         }
         this.lastCommit = c;
         resetTasks(c);
     }
 
+    /**
+     * A change to the repository
+     */
+    @FunctionalInterface
+    private interface Mutation {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs a change and records how long it took, see Metrics
+     * @param operation: name of the operation
+     * @param detail: what the operation works on
+     * @param mutation: the change
+     */
+    @SuppressWarnings("try")
+    private void write(String operation, String detail, Mutation mutation) throws Exception {
+        try (Metrics.Timer timer = Metrics.time(operation, detail)) {
+            write(mutation);
+        }
+    }
+
+    /**
+     * Runs a change on the writer thread, holding the repository lock, then publishes a new snapshot
+     * Changes made from inside another change run straight away, since the writer already holds the lock.
+     * The change reports to the progress of the request that made it, see Progress.
+     * @param mutation: the change
+     */
+    @SuppressWarnings("try")
+    private void write(Mutation mutation) throws Exception {
+        if (Thread.currentThread() == writerThread) {
+            mutation.run();
+            return;
+        }
+        Progress progress = Progress.current();
+        Future<Void> f = writer.submit(() -> {
+            writerThread = Thread.currentThread();
+            Progress previous = Progress.attach(progress);
+            try (RepositoryLock lock = RepositoryLock.acquire(vcsDirectory)) {
+                progress.check();
+                refresh();
+                mutation.run();
+                progress.finishing();
+            } finally {
+                this.snapshot = current();
+                writerThread = null;
+                Progress.attach(previous);
+            }
+            return null;
+        });
+        try {
+            f.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Catches up with another process that changed the Index, switched branch or committed since this one last looked
+     */
+    private void refresh() throws Exception {
+        readIndex();
+        File headPath = getHeadPath();
+        String head = Files.readString(headPath.toPath()).trim();
+        if (!headPath.getName().equals(branch) || !head.equals(lastCommit.hash)) {
+            readNewCommits();
+            this.branch = headPath.getName();
+            this.lastCommit = Commit.findCommit(head, vcsDirectory, commitCache);
+            this.branchCommits.put(branch, lastCommit);
+            this.branchSet = null;
+            this.branchSet = getBranches();
+            this.tasks = getTasks();
+        }
+    }
+
+    /**
+     * Reads the commits another process added to AllCommits
+     */
+    private void readNewCommits() throws Exception {
+        List<String> all = Files.readAllLines(AllCommits.toPath());
+        for (int i = commitOrder.size(); i < all.size(); i++) {
+            commitOrder.put(all.get(i), i);
+            Commit.findCommit(all.get(i), vcsDirectory, commitCache);
+        }
+    }
+
+    /**
+     * Returns the state to read from
+     * The writer sees its own changes as it makes them, every other thread sees the last published snapshot
+     * @return snapshot of the repository
+     */
+    private Snapshot state() {
+        return Thread.currentThread() == writerThread ? current() : snapshot;
+    }
+
+    private Snapshot current() {
+        return new Snapshot(lastCommit, branch, indexMap, branchCommits, branchSet, tasks);
+    }
+
+    /**
+     * Rereads the commits, branches and tasks, as well as the Index and current branch, which another process may have changed
+     */
+    public void sync() throws Exception {
+        write(() -> {
+            readNewCommits();
+            this.branchSet = null;
+            this.branchSet = getBranches();
+            this.branchCommits = new HashMap<>();
+            for (Path branch : branchSet) {
+                String name = branch.toFile().getName();
+                branchCommits.put(name, Commit.getHeadCommit(this.vcsDirectory, name, this.commitCache));
+            }
+            this.tasks = getTasks();
+            this.sparse = SparseCheckout.load(vcsDirectory);
+        });
+    }
+
+    /**
+     * Estimates the memory held by this repository: its commits, the trees that have been read and the index
+     * @return estimate in bytes
+     */
+    public long footprint() {
+        long entries = snapshot.indexMap.size();
+        for (Commit c : commitCache.values()) {
+            entries += c.loadedTreeSize();
+        }
+        return REPOSITORYBYTES + commitCache.size() * COMMITBYTES + entries * ENTRYBYTES;
+    }
+
     /**
      * Returns the file of the head branch pointer
      * @return file object pointing to head commit
@@ -612,6 +1457,7 @@ public class VersionControlSystem extends VCSUtils {
             this.indexMap.put(line.substring(0, line.length() - LENGTHOFHASHANDSTATUS),
                     line.substring(line.length() - LENGTHOFHASHANDSTATUS + 1));
         }
+        br.close();
     }
 
     /**
@@ -622,9 +1468,7 @@ public class VersionControlSystem extends VCSUtils {
         for (String key : this.indexMap.keySet()) {
             sb.append(String.format("%s %s\n", key, indexMap.get(key)));
         }
-        FileWriter writer = new FileWriter(index);
-        writer.write(sb.toString());
-        writer.close();
+        writeAtomically(index.toPath(), sb.toString().getBytes(), vcsDirectory);
     }
 
     /**
@@ -642,13 +1486,51 @@ public class VersionControlSystem extends VCSUtils {
     }
 
     /**
-     * Returns a Set of the paths of all files in the working directory, excluding the .vcs subdirectory
+     * Returns a Set of the paths of all files in the working directory, excluding the .vcs subdirectory and
+     * untracked files ignored by .vcsignore files
+     * Ignored directories are skipped without being listed, unless something under them is tracked, and
+     * directories that haven't changed since the last walk aren't listed either, see UntrackedCache
+     * @param tracked: relative paths of the tracked files, which are never ignored
      * @return set of paths
      */
-    private Set<Path> getWorkingDir() throws Exception {
-        try (Stream<Path> walk = Files.walk(currentDirectory).filter(path -> !Files.isDirectory(path)).
-                filter(path -> !path.startsWith(vcsDirectory))) {
-            return new HashSet<>(walk.toList());
+    private Set<Path> getWorkingDir(Set<String> tracked) throws Exception {
+        Set<String> trackedDirectories = new HashSet<>();
+        for (String name : tracked) {
+            for (Path parent = Path.of(name).getParent(); parent != null; parent = parent.getParent()) {
+                if (!trackedDirectories.add(parent.toString())) {
+                    break;
+                }
+            }
+        }
+        Set<Path> output = new HashSet<>();
+        synchronized (untrackedCache) {
+            untrackedCache.begin();
+            walk(currentDirectory, "", IgnoreRules.none(), false, tracked, trackedDirectories, output);
+            untrackedCache.end();
+        }
+        return output;
+    }
+    private void walk(Path directory, String relative, IgnoreRules rules, boolean excluded, Set<String> tracked,
+                      Set<String> trackedDirectories, Set<Path> output) throws Exception {
+        rules = rules.enter(directory, relative);
+        List<UntrackedCache.Entry> entries = untrackedCache.list(directory, relative, rules);
+        if (entries == null) {
+            return;
+        }
+        for (UntrackedCache.Entry entry : entries) {
+            Path path = directory.resolve(entry.name);
+            String name = currentDirectory.relativize(path).toString();
+            if (entry.directory) {
+                boolean ignored = excluded || entry.ignored;
+                boolean outside = sparse != null && !sparse.mayInclude(name);
+                if (path.equals(vcsDirectory) || (ignored || outside) && !trackedDirectories.contains(name)) {
+                    continue;
+                }
+                walk(path, relative.isEmpty() ? entry.name : relative + "/" + entry.name, rules, ignored, tracked,
+                        trackedDirectories, output);
+            } else if (tracked.contains(name) || !excluded && !entry.ignored && checkedOut(name)) {
+                output.add(path);
+            }
         }
     }
 
@@ -657,7 +1539,7 @@ public class VersionControlSystem extends VCSUtils {
      * @return commit object
      */
     public Commit getLastCommit() {
-        return lastCommit;
+        return state().lastCommit;
     }
 
     /**
@@ -671,8 +1553,10 @@ public class VersionControlSystem extends VCSUtils {
      * @return an array of sets
      */
     public Set<String>[] statusHelper() throws Exception {
+        Snapshot state = state();
+        Commit lastCommit = state.lastCommit;
         Set<String> branches = new HashSet<>();
-        for (Path path : getBranches()) {
+        for (Path path : state.branchSet) {
             branches.add(path.getFileName().toString());
         }
         String p;
@@ -680,13 +1564,16 @@ public class VersionControlSystem extends VCSUtils {
         Set<String> modified = new HashSet<>();
         Set<String> untracked = new HashSet<>();
         Set<String> removed = new HashSet<>();
-        Set<String> indexFiles = new HashSet<>(indexMap.keySet());
+        Set<String> indexFiles = new HashSet<>(state.indexMap.keySet());
         Set<String> commitFiles = new HashSet<>(lastCommit.getTree().map.keySet());
+        commitFiles.removeIf(name -> !checkedOut(name));
+        Set<String> tracked = new HashSet<>(indexFiles);
+        tracked.addAll(commitFiles);
         String line;
-        for (Path path : getWorkingDir()) {
+        for (Path path : getWorkingDir(tracked)) {
             p = this.currentDirectory.relativize(path).toString();
             if (indexFiles.contains(p)) {
-                line = indexMap.get(p);
+                line = state.indexMap.get(p);
                 if (line.endsWith("2")) {
                     untracked.add(p);
                 } else if (line.startsWith(hash(path.toFile()))) {
@@ -703,7 +1590,7 @@ public class VersionControlSystem extends VCSUtils {
             commitFiles.remove(p);
         }
         for (String i : indexFiles) {
-            if (indexMap.get(i).endsWith("2")) {
+            if (state.indexMap.get(i).endsWith("2")) {
                 removed.add(i);
             } else {
                 modified.add(i + " | (deleted)");
@@ -741,15 +1628,85 @@ public class VersionControlSystem extends VCSUtils {
         }
     }
 
+    /**
+     * Reads the order of the commits from AllCommits
+     * Commits themselves are read the first time they are needed
+     */
     private void getAllCommits() throws Exception {
-        this.commitCache = new HashMap<>();
-        BufferedReader reader = new BufferedReader(new FileReader(AllCommits));
-        String line;
-        Commit c;
-        while ((line = reader.readLine()) != null) {
-            c = Commit.findCommit(line, vcsDirectory);
-            commitCache.put(line, c);
-            c.parentCommit(commitCache).next.add(c);
+        this.commitCache = new ConcurrentHashMap<>();
+        this.commitOrder = new ConcurrentHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(AllCommits))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                commitOrder.put(line, commitOrder.size());
+            }
+        }
+    }
+
+    /**
+     * Sets the current branch, index, branches and tasks from the startup file, or rebuilds them from the repository
+     * and saves a new startup file if it is missing or out of date
+     */
+    private void loadState() throws Exception {
+        StartupFile saved = StartupFile.load(vcsDirectory);
+        if (saved != null && saved.commits == commitOrder.size()) {
+            Path headPath = Path.of(saved.head);
+            this.branch = headPath.toFile().getName();
+            this.branchSet = new HashSet<>();
+            this.branchCommits = new HashMap<>();
+            for (Map.Entry<String, String> entry : saved.branches.entrySet()) {
+                branchSet.add(branches.resolve(entry.getKey()));
+                branchCommits.put(entry.getKey(), Commit.findCommit(entry.getValue(), vcsDirectory, commitCache));
+            }
+            this.lastCommit = branchCommits.get(branch);
+            this.tasks = new HashSet<>(saved.tasks);
+            this.indexMap = new HashMap<>(saved.indexMap);
+            if (lastCommit != null) {
+                return;
+            }
+        }
+        List<StartupFile.Stamp> stamps = stampState();
+        this.lastCommit = Commit.getHeadCommit(this.vcsDirectory, this.commitCache);
+        this.branch = getHeadPath().getName();
+        this.tasks = getTasks();
+        readIndex();
+        this.branchSet = null;
+        this.branchSet = getBranches();
+        this.branchCommits = new HashMap<>();
+        for (Path branch : branchSet) {
+            String name = branch.toFile().getName();
+            branchCommits.put(name, Commit.getHeadCommit(this.vcsDirectory, name, this.commitCache));
+        }
+        saveState(stamps);
+    }
+
+    /**
+     * Stamps the files the startup state is read from: HEAD, the Index, AllCommits, Branches, Tasks and every branch
+     */
+    private List<StartupFile.Stamp> stampState() throws Exception {
+        List<Path> paths = new ArrayList<>(List.of(head.toPath(), index.toPath(), AllCommits.toPath(), branches,
+                vcsDirectory.resolve("Tasks")));
+        try (Stream<Path> walk = Files.list(branches)) {
+            paths.addAll(walk.toList());
+        }
+        return StartupFile.stamp(paths);
+    }
+
+    /**
+     * Saves the startup state
+     * A startup file that can't be saved is deleted, so the next open rebuilds the state instead of using an old one
+     * @param stamps: stamps taken before the state was read
+     */
+    private void saveState(List<StartupFile.Stamp> stamps) throws Exception {
+        Map<String, String> heads = new HashMap<>();
+        for (Map.Entry<String, Commit> entry : branchCommits.entrySet()) {
+            heads.put(entry.getKey(), entry.getValue().hash);
+        }
+        try {
+            new StartupFile(getHeadPath().toString(), commitOrder.size(), heads, tasks, indexMap)
+                    .save(vcsDirectory, stamps);
+        } catch (IOException e) {
+            Files.deleteIfExists(vcsDirectory.resolve(StartupFile.NAME));
         }
     }
 
@@ -771,23 +1728,49 @@ public class VersionControlSystem extends VCSUtils {
         }
         return tasks;
     }
+    @SuppressWarnings("try")
     public Set<String>[] updateStatus() throws Exception {
+        try (Metrics.Timer timer = Metrics.time(Metrics.STATUS, "")) {
+            return fullStatus();
+        }
+    }
+
+    /**
+     * Compares the working directory, the Index and the last commit
+     * @return the staged and unstaged files, as updateStatus
+     */
+    private Set<String>[] fullStatus() throws Exception {
+        Snapshot state = state();
+        Commit lastCommit = state.lastCommit;
         clearDebug();
         Set<String> staged = new HashSet<>();
         Set<String> unstaged = new HashSet<>();
-        Set<String> indexFiles = new HashSet<>(indexMap.keySet());
+        Set<String> indexFiles = new HashSet<>(state.indexMap.keySet());
         Set<String> commitFiles = new HashSet<>(lastCommit.getTree().map.keySet());
-        writeDebug(String.format("Index:\n%s\nCommit:\n%s\nWorking Directory:\n%s\n", indexFiles, commitFiles, getWorkingDir()));
+        commitFiles.removeIf(name -> !checkedOut(name));
+        Set<String> tracked = new HashSet<>(indexFiles);
+        tracked.addAll(commitFiles);
+        Set<Path> workingDir = getWorkingDir(tracked);
+        writeDebug(String.format("Index:\n%s\nCommit:\n%s\nWorking Directory:\n%s\n", indexFiles, commitFiles, workingDir));
         String p;
         String line;
-        for (Path path : getWorkingDir()) {
+        Map<String, RenameDetector.Candidate> stagedAdded = new HashMap<>();
+        Map<String, RenameDetector.Candidate> stagedRemoved = new HashMap<>();
+        Map<String, Path> untracked = new HashMap<>();
+        Map<String, RenameDetector.Candidate> deleted = new HashMap<>();
+        Progress progress = Progress.current();
+        for (Path path : workingDir) {
+            progress.check();
             p = this.currentDirectory.relativize(path).toString();
             if (indexFiles.contains(p)) {
-                line = indexMap.get(p);
+                line = state.indexMap.get(p);
                 if (line.endsWith("2")) {
                     unstaged.add(p + " | (untracked)");
                 } else if (line.startsWith(hash(path.toFile()))) {
                     staged.add(p);
+                    if (line.endsWith("1")) {
+                        stagedAdded.put(p, new RenameDetector.Candidate(p, line.substring(0, line.length() - 2), null));
+                    }
                 } else {
                     unstaged.add(p + " | (modified)");
                 }
@@ -795,14 +1778,16 @@ public class VersionControlSystem extends VCSUtils {
                 unstaged.add(p + " | (modified)");
             } else if (!commitFiles.contains(p)) {
                 unstaged.add(p + " | (untracked)");
+                untracked.put(p + " | (untracked)", path);
             }
             indexFiles.remove(p);
             commitFiles.remove(p);
         }
         writeDebug("808\n");
         for (String i : indexFiles) {
-            if (indexMap.get(i).endsWith("2")) {
+            if (state.indexMap.get(i).endsWith("2")) {
                 staged.add(i);
+                stagedRemoved.put(i, new RenameDetector.Candidate(i, lastCommit.getTree().map.get(i), null));
             } else {
                 unstaged.add(i + " | (deleted)");
             }
@@ -811,13 +1796,135 @@ public class VersionControlSystem extends VCSUtils {
         writeDebug("817\n");
         for (String i : commitFiles) {
             unstaged.add(i + " | (deleted)");
+            deleted.put(i + " | (deleted)", new RenameDetector.Candidate(i, lastCommit.getTree().map.get(i), null));
+        }
+        markRenames(staged, stagedRemoved, stagedAdded);
+        if (!deleted.isEmpty() && !untracked.isEmpty()) {
+            Map<String, RenameDetector.Candidate> added = new HashMap<>();
+            for (Map.Entry<String, Path> entry : untracked.entrySet()) {
+                String name = this.currentDirectory.relativize(entry.getValue()).toString();
+                added.put(entry.getKey(), new RenameDetector.Candidate(name, hash(entry.getValue().toFile()), entry.getValue()));
+            }
+            markRenames(unstaged, deleted, added);
         }
         Set<String>[] setArray = new HashSet[2];
         setArray[0] = staged;
         setArray[1] = unstaged;
         writeDebug(String.format("Staged:\n%s\nUnstaged:\n%s\n", staged, unstaged));
+        statusCache.store(state, staged, unstaged);
         return setArray;
     }
+
+    /**
+     * Updates the last status for a few paths that were just added, unstaged or checked out, without looking at
+     * the rest of the working directory, see StatusCache
+     * @param paths: the paths, absolute or relative to the working directory
+     * @return [0]: staged files, [1]: unstaged files, the same as updateStatus(), or null if updateStatus() has to
+     *         be called instead
+     */
+    @SuppressWarnings("try")
+    public Set<String>[] updateStatus(Collection<String> paths) throws Exception {
+        try (Metrics.Timer timer = Metrics.time(Metrics.PATHSTATUS, String.join(" ", paths))) {
+            Snapshot state = state();
+            Set<String> names = new HashSet<>();
+            for (String path : paths) {
+                names.add(this.currentDirectory.relativize(this.currentDirectory.resolve(path.trim()).normalize())
+                        .toString());
+            }
+            return statusCache.update(state, names, name -> pathStatus(state, name));
+        }
+    }
+
+    /**
+     * Works out the status entries of one path, the same way as the full status
+     * @param state: the current snapshot
+     * @param name: the path, relative to the working directory
+     * @return [0]: staged entries of the path, [1]: unstaged entries of the path
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<String>[] pathStatus(Snapshot state, String name) throws Exception {
+        List<String> staged = new ArrayList<>();
+        List<String> unstaged = new ArrayList<>();
+        String line = state.indexMap.get(name);
+        String committed = checkedOut(name) ? state.lastCommit.getTree().map.get(name) : null;
+        File file = this.currentDirectory.resolve(name).toFile();
+        boolean exists = file.isFile() && (line != null || committed != null || checkedOut(name) && !ignored(name));
+        if (exists) {
+            if (line != null) {
+                if (line.endsWith("2")) {
+                    unstaged.add(name + " | (untracked)");
+                } else if (line.startsWith(hash(file))) {
+                    staged.add(name);
+                } else {
+                    unstaged.add(name + " | (modified)");
+                }
+            } else if (committed == null) {
+                unstaged.add(name + " | (untracked)");
+            } else if (!committed.equals(hash(file))) {
+                unstaged.add(name + " | (modified)");
+            }
+        } else if (line != null) {
+            if (line.endsWith("2")) {
+                staged.add(name);
+            } else {
+                unstaged.add(name + " | (deleted)");
+            }
+        } else if (committed != null) {
+            unstaged.add(name + " | (deleted)");
+        }
+        return new List[] {staged, unstaged};
+    }
+
+    /**
+     * Checks whether a path, or a directory it is in, is ignored, the same way as the walk of the working directory
+     * @param name: the path, relative to the working directory
+     */
+    private boolean ignored(String name) throws Exception {
+        Path path = Path.of(name);
+        IgnoreRules rules = IgnoreRules.none().enter(this.currentDirectory, "");
+        Path directory = this.currentDirectory;
+        String relative = "";
+        for (int i = 0; i < path.getNameCount(); i++) {
+            String part = path.getName(i).toString();
+            relative = relative.isEmpty() ? part : relative + "/" + part;
+            boolean last = i == path.getNameCount() - 1;
+            if (rules.isIgnored(relative, !last)) {
+                return true;
+            }
+            if (!last) {
+                directory = directory.resolve(part);
+                rules = rules.enter(directory, relative);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces each deleted and added pair of entries that is a rename with "[new path] | (renamed from [old path])"
+     * @param set: set of status entries
+     * @param deleted: map of status entry : the deleted file
+     * @param added: map of status entry : the added file
+     */
+    private void markRenames(Set<String> set, Map<String, RenameDetector.Candidate> deleted,
+                             Map<String, RenameDetector.Candidate> added) throws Exception {
+        if (deleted.isEmpty() || added.isEmpty()) {
+            return;
+        }
+        Map<String, String> deletedEntries = new HashMap<>();
+        for (Map.Entry<String, RenameDetector.Candidate> entry : deleted.entrySet()) {
+            deletedEntries.put(entry.getValue().path, entry.getKey());
+        }
+        Map<String, String> addedEntries = new HashMap<>();
+        for (Map.Entry<String, RenameDetector.Candidate> entry : added.entrySet()) {
+            addedEntries.put(entry.getValue().path, entry.getKey());
+        }
+        Map<String, String> renames = renameDetector.renames(new ArrayList<>(deleted.values()), new ArrayList<>(added.values()));
+        for (Map.Entry<String, String> rename : renames.entrySet()) {
+            set.remove(addedEntries.get(rename.getKey()));
+            set.remove(deletedEntries.get(rename.getValue()));
+            set.add(String.format("%s | (renamed from %s)", rename.getKey(), rename.getValue()));
+        }
+    }
     public static String sendList(Iterable<String> input) {
         StringBuilder encodedString = new StringBuilder();
         for (String str : input) {
@@ -837,6 +1944,50 @@ public class VersionControlSystem extends VCSUtils {
             System.out.println("Log" + sendList(logList()));
         }
     }
+    public void printLog(String path) throws Exception {
+        System.out.println("Log" + sendList(logList(path)));
+    }
+    public void printBlame(String path, String commitId) throws Exception {
+        System.out.println("Blame" + sendList(blame(path, commitId)));
+    }
+    public void printDiff(String path) throws Exception {
+        System.out.println("DiffFile" + sendList(path));
+        diff(path, hunk -> System.out.println("Hunk" + sendList(hunk)));
+        System.out.println("DiffEnd");
+    }
+    public void printDiff(String commitA, String commitB) throws Exception {
+        for (Diff.Change change : diffCommits(commitA, commitB)) {
+            System.out.println("DiffFile" + sendList(change.toString()));
+            Diff.lineDiff(change.oldHash, change.newHash, vcsDirectory, hunk -> System.out.println("Hunk" + sendList(hunk)));
+        }
+        System.out.println("DiffEnd");
+    }
+    public void printFetch(String remote) throws Exception {
+        System.out.println("Sync" + sendList(fetch(remote)));
+        updateBranches();
+        printLog(false);
+    }
+    public void printPush(String remote, String branchName) throws Exception {
+        System.out.println("Sync" + sendList(push(remote, branchName)));
+    }
+    public void printUnbundle(String file) throws Exception {
+        System.out.println("Sync" + sendList(unbundle(file)));
+        updateBranches();
+        printLog(false);
+    }
+    public void printImport(String file) throws Exception {
+        try (InputStream in = new FileInputStream(file)) {
+            System.out.println("Sync" + sendList(fastImport(in)));
+        }
+        updateBranches();
+        printLog(false);
+    }
+    public void printFsck(boolean full) throws Exception {
+        System.out.println("Fsck" + sendList(fsck(full)));
+    }
+    public void printSearch(String query, String author, String task) throws Exception {
+        System.out.println("Log" + sendList(searchList(query, author, task)));
+    }
     private void writeDebug(String text) throws Exception {
         FileWriter writer = new FileWriter(vcsDirectory.resolve("DEBUG").toFile(), true);
         writer.write(text);
@@ -849,11 +2000,12 @@ public class VersionControlSystem extends VCSUtils {
     }
     private void updateBranches() throws Exception {
         List<String> branches = new ArrayList<>();
-        for (Path path : branchSet) {
+        Snapshot state = state();
+        for (Path path : state.branchSet) {
             branches.add(path.getFileName().toString());
         }
-        branches.remove(branch);
-        branches.add(0, branch);
+        branches.remove(state.branch);
+        branches.add(0, state.branch);
         System.out.println("Branches" + sendList(branches));
         Thread.sleep(50);
     }
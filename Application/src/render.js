@@ -177,7 +177,11 @@ function addFile(name, status) {
     let stageFunc;
     let otherFunc;
     let fileName;
-    if (name.endsWith(" | (deleted)")) {
+    let renamedFrom = null;
+    if (/ \| \(renamed from .*\)$/.test(name)) {
+        fileName = name.substring(0, name.lastIndexOf(" | (renamed from "))
+        renamedFrom = name.substring(fileName.length + 17, name.length - 1)
+    } else if (name.endsWith(" | (deleted)")) {
         fileName = name.substring(0, name.length - 12)
     } else if (name.endsWith(" | (modified)")) {
         fileName = name.substring(0, name.length - 13)
@@ -194,9 +198,11 @@ function addFile(name, status) {
             otherList = unstagedFilesList
             stageFunc = () => {
                 window.electronAPI.remove(fileName)
+                if (renamedFrom !== null) window.electronAPI.remove(renamedFrom)
             }
             otherFunc = () => {
                 window.electronAPI.add(fileName)
+                if (renamedFrom !== null) window.electronAPI.add(renamedFrom)
             }
             //stageFunc = window.electronAPI.remove(name);
             break;
@@ -207,10 +213,11 @@ function addFile(name, status) {
             thisList = unstagedFilesList
             stageFunc = () => {
                 window.electronAPI.add(fileName)
-                
+                if (renamedFrom !== null) window.electronAPI.add(renamedFrom)
             }
             otherFunc = () => {
                 window.electronAPI.remove(fileName)
+                if (renamedFrom !== null) window.electronAPI.remove(renamedFrom)
             }
             //stageFunc = window.electronAPI.add(name);
             break;